@@ -0,0 +1,86 @@
+package com.example.android.inventory;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Decodes a 12 megapixel photo with the decoder of the device and checks the bitmaps that are
+ * allocated on the way to the product image.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductImageCodecDeviceTest {
+
+    private static final int WIDTH = 4000;
+    private static final int HEIGHT = 3000;
+
+    private static final int SIZE = ProductImageCodec.IMAGE_SIZE;
+
+    private Context mContext;
+    private File mPhoto;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = InstrumentationRegistry.getTargetContext();
+        mPhoto = new File(mContext.getCacheDir(), "codec_test_photo.jpg");
+        // Only the test itself holds the photo at full size, at 2 bytes per pixel
+        Bitmap photo = Bitmap.createBitmap(WIDTH, HEIGHT, Bitmap.Config.RGB_565);
+        OutputStream out = new FileOutputStream(mPhoto);
+        try {
+            assertTrue(photo.compress(Bitmap.CompressFormat.JPEG, 90, out));
+        } finally {
+            out.close();
+            photo.recycle();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        mPhoto.delete();
+    }
+
+    @Test
+    public void photoIsDecodedSubsampled() {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = ProductImageCodec.calculateSampleSize(WIDTH, HEIGHT, SIZE);
+        Bitmap sampled = BitmapFactory.decodeFile(mPhoto.getPath(), options);
+        assertNotNull(sampled);
+        try {
+            // Decoders round the subsampled sides either way
+            assertTrue(sampled.getWidth() + " wide", sampled.getWidth() >= 124
+                    && sampled.getWidth() <= 125);
+            assertTrue(sampled.getHeight() + " high", sampled.getHeight() >= 93
+                    && sampled.getHeight() <= 94);
+            assertTrue(sampled.getByteCount() + " bytes",
+                    sampled.getByteCount() + 4 * SIZE * SIZE <= 90 * 1024);
+        } finally {
+            sampled.recycle();
+        }
+    }
+
+    @Test
+    public void photoBecomesAProductImage() throws Exception {
+        Bitmap image = ProductImageCodec.decodePhoto(mContext.getContentResolver(),
+                Uri.fromFile(mPhoto));
+        assertNotNull(image);
+        assertEquals(SIZE, image.getWidth());
+        assertEquals(SIZE, image.getHeight());
+        image.recycle();
+    }
+}
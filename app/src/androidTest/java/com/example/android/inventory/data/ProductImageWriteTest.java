@@ -0,0 +1,112 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.security.MessageDigest;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes products with images through the provider, and checks that the values of the caller
+ * keep their image bytes and that writes that do not happen leave no image file behind.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductImageWriteTest {
+
+    private ContentResolver mResolver;
+    private ProductImageStore mImageStore;
+    private Uri mProductUri;
+
+    @Before
+    public void setUp() {
+        Context context = InstrumentationRegistry.getTargetContext();
+        mResolver = context.getContentResolver();
+        mImageStore = new ProductImageStore(context);
+    }
+
+    @After
+    public void tearDown() {
+        if (mProductUri != null) {
+            mResolver.delete(mProductUri, null, null);
+        }
+    }
+
+    @Test
+    public void insertLeavesTheValuesOfTheCallerAlone() throws Exception {
+        byte[] image = randomImage();
+        ContentValues values = productValues(image);
+        mProductUri = mResolver.insert(ProductContract.ProductEntry.CONTENT_URI, values);
+        assertNotNull(mProductUri);
+
+        assertSame(image, values.get(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE));
+        String ref = readImageRef(mProductUri);
+        assertEquals(hash(image), ref);
+        assertTrue(mImageStore.getFile(ref).exists());
+    }
+
+    @Test
+    public void updateOfNoProductLeavesNoImageBehind() throws Exception {
+        byte[] image = randomImage();
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE, image);
+        Uri missing = ContentUris.withAppendedId(ProductContract.ProductEntry.CONTENT_URI,
+                Long.MAX_VALUE);
+        assertEquals(0, mResolver.update(missing, values, null, null));
+
+        assertFalse(mImageStore.getFile(hash(image)).exists());
+    }
+
+    private static ContentValues productValues(byte[] image) {
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
+                "Image test " + System.nanoTime());
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS, 100);
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE, image);
+        return values;
+    }
+
+    // Bytes no other test or product has, so the store holds no file for them yet
+    private static byte[] randomImage() {
+        byte[] image = new byte[256];
+        new Random().nextBytes(image);
+        return image;
+    }
+
+    private String readImageRef(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[] {
+                ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // The reference the store gives the image, the hex SHA-1 of its bytes
+    private static String hash(byte[] image) throws Exception {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : MessageDigest.getInstance("SHA-1").digest(image)) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+}
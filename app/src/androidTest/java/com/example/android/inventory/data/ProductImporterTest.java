@@ -0,0 +1,58 @@
+package com.example.android.inventory.data;
+
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Imports malformed JSON files, which have to fail the import or be skipped row by row
+ * instead of crashing the app. None of the files has a valid product, so nothing is written
+ * to the inventory of the app.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductImporterTest {
+
+    private ProductImporter mImporter;
+
+    @Before
+    public void setUp() {
+        mImporter = new ProductImporter(
+                InstrumentationRegistry.getTargetContext().getContentResolver(), null);
+    }
+
+    @Test(expected = IOException.class)
+    public void objectInsteadOfArrayFailsTheImport() throws IOException {
+        importJson("{\"name\": \"Tea\", \"price\": \"2.50\"}");
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedFileFailsTheImport() throws IOException {
+        importJson("[{\"name\": \"Tea\", \"price\": ");
+    }
+
+    @Test
+    public void rowsThatAreNotObjectsAreRejected() throws IOException {
+        assertEquals(0, importJson("[1, \"Tea\", [2.50], null, true]"));
+        assertEquals(5, mImporter.getRejectedCount());
+    }
+
+    @Test
+    public void emptyArrayImportsNothing() throws IOException {
+        assertEquals(0, importJson("[]"));
+        assertEquals(0, mImporter.getRejectedCount());
+    }
+
+    private long importJson(String json) throws IOException {
+        InputStream in = new ByteArrayInputStream(json.getBytes("UTF-8"));
+        return mImporter.importProducts(in, ProductTransfer.FORMAT_JSON);
+    }
+}
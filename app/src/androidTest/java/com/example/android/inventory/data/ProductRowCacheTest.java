@@ -0,0 +1,202 @@
+package com.example.android.inventory.data;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Reads products through the row cache from an in-memory database with the schema of the
+ * app, and checks when rows come from the cache and when they are read again.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ProductRowCacheTest {
+
+    private static final String[] QUANTITY = {
+            ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY};
+
+    private SQLiteDatabase mDb;
+    private ProductRowCache mCache;
+
+    @Before
+    public void setUp() {
+        mDb = SQLiteDatabase.create(null);
+        for (String sql : ProductSchema.create()) {
+            mDb.execSQL(sql);
+        }
+        mCache = new ProductRowCache(2);
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void cachedProductIsServedWithoutReading() {
+        long id = insertProduct("Tea", 5);
+        assertEquals(5, readQuantity(id));
+
+        // Written behind the back of the cache, as if the provider forgot to invalidate it
+        setQuantity(id, 7);
+        assertEquals(5, readQuantity(id));
+        assertEquals(1, mCache.getStats().getInt(ProductContract.EXTRA_CACHE_HITS));
+        assertEquals(1, mCache.getStats().getInt(ProductContract.EXTRA_CACHE_MISSES));
+    }
+
+    @Test
+    public void invalidatedProductIsReadAgain() {
+        long tea = insertProduct("Tea", 5);
+        long coffee = insertProduct("Coffee", 3);
+        readQuantity(tea);
+        readQuantity(coffee);
+
+        setQuantity(tea, 7);
+        setQuantity(coffee, 4);
+        mCache.invalidate(new long[] { tea });
+        assertEquals(7, readQuantity(tea));
+        assertEquals(3, readQuantity(coffee));
+
+        mCache.invalidate(null);
+        assertEquals(4, readQuantity(coffee));
+    }
+
+    @Test
+    public void missingProductIsNotCached() {
+        Cursor cursor = mCache.query(mDb, 42, null);
+        assertEquals(0, cursor.getCount());
+        cursor.close();
+
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.ProductEntry._ID, 42);
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME, "Tea");
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS, 250);
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY, 3);
+        mDb.insertOrThrow(ProductContract.ProductEntry.TABLE_NAME, null, values);
+        assertEquals(3, readQuantity(42));
+    }
+
+    @Test
+    public void projectionIsAnsweredInItsOrder() {
+        long id = insertProduct("Tea", 5);
+        String[] projection = {
+                ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+                ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
+                ProductContract.ProductEntry._ID,
+                ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS};
+        Cursor cursor = mCache.query(mDb, id, projection);
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(projection.length, cursor.getColumnCount());
+            assertEquals("Tea Co", cursor.getString(0));
+            assertEquals("Tea", cursor.getString(1));
+            assertEquals(id, cursor.getLong(2));
+            assertEquals(250, cursor.getLong(3));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void nullValuesStayNull() {
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME, "Tea");
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS, 250);
+        long id = mDb.insertOrThrow(ProductContract.ProductEntry.TABLE_NAME, null, values);
+
+        for (int read = 0; read < 2; read++) {
+            Cursor cursor = mCache.query(mDb, id, null);
+            try {
+                assertTrue(cursor.moveToFirst());
+                assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL)));
+                assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE)));
+                assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER)));
+                assertFalse(cursor.isNull(cursor.getColumnIndexOrThrow(
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS)));
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    @Test
+    public void onlyTableColumnsCanBeServed() {
+        assertTrue(ProductRowCache.canServe(null));
+        assertTrue(ProductRowCache.canServe(QUANTITY));
+        assertFalse(ProductRowCache.canServe(new String[] {
+                ProductContract.ProductEntry.COLUMN_PRODUCT_NAME, "count(*)"}));
+    }
+
+    @Test
+    public void leastRecentlyReadProductIsEvicted() {
+        long tea = insertProduct("Tea", 5);
+        long coffee = insertProduct("Coffee", 3);
+        long cocoa = insertProduct("Cocoa", 1);
+        readQuantity(tea);
+        readQuantity(coffee);
+        readQuantity(tea);
+        readQuantity(cocoa);
+
+        setQuantity(tea, 7);
+        setQuantity(coffee, 4);
+        assertEquals(5, readQuantity(tea));
+        assertEquals(4, readQuantity(coffee));
+        assertEquals(2, mCache.getStats().getInt(ProductContract.EXTRA_CACHE_EVICTIONS));
+    }
+
+    @Test
+    public void trimMemoryReleasesProducts() {
+        long tea = insertProduct("Tea", 5);
+        long coffee = insertProduct("Coffee", 3);
+        readQuantity(tea);
+        readQuantity(coffee);
+
+        mCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        assertEquals(1, mCache.getStats().getInt(ProductContract.EXTRA_CACHE_SIZE));
+        mCache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+        assertEquals(0, mCache.getStats().getInt(ProductContract.EXTRA_CACHE_SIZE));
+
+        setQuantity(coffee, 4);
+        assertEquals(4, readQuantity(coffee));
+    }
+
+    private long insertProduct(String name, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME, name);
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS, 250);
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER, name + " Co");
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL, 2);
+        return mDb.insertOrThrow(ProductContract.ProductEntry.TABLE_NAME, null, values);
+    }
+
+    private void setQuantity(long id, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        assertEquals(1, mDb.update(ProductContract.ProductEntry.TABLE_NAME, values,
+                ProductContract.ProductEntry._ID + "=?", new String[] { String.valueOf(id) }));
+    }
+
+    private int readQuantity(long id) {
+        Cursor cursor = mCache.query(mDb, id, QUANTITY);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
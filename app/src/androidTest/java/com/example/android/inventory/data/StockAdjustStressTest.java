@@ -0,0 +1,310 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Adjusts the stock of one product from many threads at once, while other threads flush the
+ * write buffer and read the product, and checks that no adjustment is lost or applied twice.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StockAdjustStressTest {
+
+    private static final int THREADS = 8;
+    private static final int ADJUSTMENTS_PER_THREAD = 100;
+    private static final int INITIAL_QUANTITY = 500;
+
+    /** Location id of adjustments that are not made at a location */
+    private static final long NO_LOCATION = 0;
+
+    private ContentResolver mResolver;
+    private Uri mProductUri;
+    private Uri mLocationUri;
+
+    @Before
+    public void setUp() {
+        mResolver = InstrumentationRegistry.getTargetContext().getContentResolver();
+    }
+
+    @After
+    public void tearDown() {
+        if (mLocationUri != null) {
+            mResolver.delete(mLocationUri, null, null);
+        }
+        if (mProductUri != null) {
+            mResolver.delete(mProductUri, null, null);
+        }
+    }
+
+    @Test
+    public void concurrentSalesAreNotLost() throws Exception {
+        mProductUri = insertProduct(INITIAL_QUANTITY);
+        final long id = ContentUris.parseId(mProductUri);
+
+        // More sales are tried than there is stock, so the last ones have to be refused.
+        int adjusted = runConcurrently(new Adjuster() {
+            @Override
+            public boolean adjust() {
+                Bundle result = adjustStock(id, NO_LOCATION, -1, 1);
+                int quantity = result.getInt(ProductContract.EXTRA_QUANTITY);
+                assertTrue("Negative quantity " + quantity, quantity >= 0);
+                assertEquals(INITIAL_QUANTITY,
+                        quantity + result.getInt(ProductContract.EXTRA_SOLD));
+                return result.getBoolean(ProductContract.EXTRA_ADJUSTED);
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                // Every sale moves one unit from the quantity to the sold count at once.
+                int[] quantities = readQuantities(mProductUri);
+                assertTrue("Negative quantity " + quantities[0], quantities[0] >= 0);
+                assertEquals(INITIAL_QUANTITY, quantities[0] + quantities[1]);
+            }
+        });
+
+        assertEquals(INITIAL_QUANTITY, adjusted);
+        flushStock();
+        int[] quantities = readQuantities(mProductUri);
+        assertEquals(0, quantities[0]);
+        assertEquals(INITIAL_QUANTITY, quantities[1]);
+        assertEquals(-INITIAL_QUANTITY, sumMovements(id)[0]);
+        assertEquals(INITIAL_QUANTITY, sumMovements(id)[1]);
+    }
+
+    @Test
+    public void concurrentReceiptsAtALocationAndSalesAddUp() throws Exception {
+        mProductUri = insertProduct(0);
+        final long id = ContentUris.parseId(mProductUri);
+        ContentValues location = new ContentValues();
+        location.put(ProductContract.LocationEntry.COLUMN_LOCATION_NAME,
+                "Stress test " + System.nanoTime());
+        mLocationUri = mResolver.insert(ProductContract.LocationEntry.CONTENT_URI, location);
+        assertNotNull(mLocationUri);
+        final long locationId = ContentUris.parseId(mLocationUri);
+
+        // Half of the threads receive stock at the location, the other half sell it again
+        // without a location, which only succeeds once enough has been received.
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger sales = new AtomicInteger();
+        int adjusted = runConcurrently(new Adjuster() {
+            @Override
+            public boolean adjust() {
+                if (next.getAndIncrement() % 2 == 0) {
+                    Bundle result = adjustStock(id, locationId, 1, 0);
+                    assertTrue(result.getBoolean(ProductContract.EXTRA_ADJUSTED));
+                    return true;
+                }
+                Bundle result = adjustStock(id, NO_LOCATION, -1, 1);
+                if (result.getBoolean(ProductContract.EXTRA_ADJUSTED)) {
+                    sales.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        }, new Runnable() {
+            @Override
+            public void run() {
+                int[] quantities = readQuantities(mProductUri);
+                assertTrue("Negative quantity " + quantities[0], quantities[0] >= 0);
+                assertTrue(quantities[0] + quantities[1] <= THREADS * ADJUSTMENTS_PER_THREAD);
+            }
+        });
+
+        int receipts = THREADS * ADJUSTMENTS_PER_THREAD / 2;
+        assertEquals(receipts + sales.get(), adjusted);
+        flushStock();
+        int[] quantities = readQuantities(mProductUri);
+        assertEquals(receipts - sales.get(), quantities[0]);
+        assertEquals(sales.get(), quantities[1]);
+        assertEquals(receipts - sales.get(), sumMovements(id)[0]);
+        assertEquals(receipts, readLocationQuantity(locationId, id));
+    }
+
+    private interface Adjuster {
+        /** Make one adjustment and return whether it was applied */
+        boolean adjust();
+    }
+
+    /**
+     * Run the adjuster ADJUSTMENTS_PER_THREAD times on each of THREADS threads, while one
+     * thread flushes and compacts the write buffer and another runs the reader, until all
+     * adjustments are made. Returns the number of adjustments that were applied.
+     */
+    private int runConcurrently(final Adjuster adjuster, final Runnable reader)
+            throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch adjusters = new CountDownLatch(THREADS);
+        final AtomicInteger adjusted = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < ADJUSTMENTS_PER_THREAD; j++) {
+                            if (adjuster.adjust()) {
+                                adjusted.incrementAndGet();
+                            }
+                        }
+                    } catch (Throwable e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        adjusters.countDown();
+                    }
+                }
+            }));
+        }
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    while (adjusters.getCount() > 0) {
+                        // Appending and folding race the adjustments made in the meantime. A
+                        // query sorted by quantity has the provider fold the movements first.
+                        flushStock();
+                        mResolver.query(ProductContract.ProductEntry.CONTENT_URI, new String[] {
+                                ProductContract.ProductEntry._ID},
+                                null, null, ProductContract.ProductEntry.SORT_BY_QUANTITY)
+                                .close();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }));
+        threads.add(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    while (adjusters.getCount() > 0) {
+                        reader.run();
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            }
+        }));
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        start.countDown();
+        if (!adjusters.await(60, TimeUnit.SECONDS)) {
+            fail("Adjustments did not finish");
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        return adjusted.get();
+    }
+
+    private Uri insertProduct(int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
+                "Stress test " + System.nanoTime());
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS, 100);
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
+        Uri uri = mResolver.insert(ProductContract.ProductEntry.CONTENT_URI, values);
+        assertNotNull(uri);
+        return uri;
+    }
+
+    private Bundle adjustStock(long id, long locationId, int quantityDelta, int soldDelta) {
+        Bundle extras = new Bundle();
+        extras.putLong(ProductContract.EXTRA_PRODUCT_ID, id);
+        if (locationId != NO_LOCATION) {
+            extras.putLong(ProductContract.EXTRA_LOCATION_ID, locationId);
+        }
+        extras.putInt(ProductContract.EXTRA_QUANTITY_DELTA, quantityDelta);
+        extras.putInt(ProductContract.EXTRA_SOLD_DELTA, soldDelta);
+        Bundle result = mResolver.call(ProductContract.ProductEntry.CONTENT_URI,
+                ProductContract.METHOD_ADJUST_STOCK, null, extras);
+        assertNotNull(result);
+        return result;
+    }
+
+    private void flushStock() {
+        mResolver.call(ProductContract.ProductEntry.CONTENT_URI,
+                ProductContract.METHOD_FLUSH_STOCK, null, null);
+    }
+
+    // Returns {quantity, sold} of the product as the provider reports it
+    private int[] readQuantities(Uri uri) {
+        Cursor cursor = mResolver.query(uri, new String[] {
+                ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD}, null, null, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return new int[] { cursor.getInt(0), cursor.getInt(1) };
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns the sums of {quantity delta, sold delta} of the movements of the product
+    private int[] sumMovements(long id) {
+        Cursor cursor = mResolver.query(ProductContract.StockMovementEntry.CONTENT_URI,
+                new String[] {
+                        ProductContract.StockMovementEntry.COLUMN_QUANTITY_DELTA,
+                        ProductContract.StockMovementEntry.COLUMN_SOLD_DELTA},
+                ProductContract.StockMovementEntry.COLUMN_PRODUCT_ID + "=?",
+                new String[] { String.valueOf(id) }, null);
+        assertNotNull(cursor);
+        try {
+            int[] sums = new int[2];
+            while (cursor.moveToNext()) {
+                sums[0] += cursor.getInt(0);
+                sums[1] += cursor.getInt(1);
+            }
+            return sums;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int readLocationQuantity(long locationId, long id) {
+        Cursor cursor = mResolver.query(ProductContract.LocationEntry.buildStockUri(locationId),
+                new String[] { ProductContract.LocationStockEntry.COLUMN_QUANTITY },
+                ProductContract.LocationStockEntry.COLUMN_PRODUCT_ID + "=?",
+                new String[] { String.valueOf(id) }, null);
+        assertNotNull(cursor);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -16,7 +16,6 @@
 package com.example.android.inventory;
 
 import android.app.LoaderManager;
-import android.content.ContentUris;
 import android.content.CursorLoader;
 import android.content.Intent;
 import android.content.Loader;
@@ -24,27 +23,103 @@ import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.support.design.widget.FloatingActionButton;
+import android.support.v4.view.MenuItemCompat;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.support.v7.widget.SearchView;
+import android.view.Menu;
+import android.view.MenuItem;
 import android.view.View;
-import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.TextView;
+import android.widget.Toast;
 import com.example.android.inventory.data.ProductContract;
-import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductTransfer;
+
+import java.io.File;
 
 /**
  * Displays list of products that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements
-        LoaderManager.LoaderCallbacks<Cursor> {
+        LoaderManager.LoaderCallbacks<ProductList> {
 
     private static final int PRODUCT_LOADER = 0;
 
-    ProductCursorAdapter mCursorAdapter;
+    private static final int SUMMARY_LOADER = 1;
+
+    /** Number of rows left below the screen when the next page is loaded */
+    private static final int LOAD_MORE_DISTANCE = 20;
+
+    /** Request code for picking the file to import */
+    private static final int SELECT_IMPORT_FILE = 1;
+
+    /** Keys of the chosen order and filter in the saved state */
+    private static final String STATE_SORT_ITEM = "sort_item";
+    private static final String STATE_IN_STOCK = "in_stock";
+
+    ProductListAdapter mListAdapter;
+
+    /** List of the products */
+    private RecyclerView mProductListView;
+
+    /** Menu item of the order the products are listed in */
+    private int mSortItemId = R.id.action_sort_added;
+
+    /** True if only the products in stock are listed */
+    private boolean mInStockOnly;
+
+    /** View shown instead of the list when there are no products */
+    private View mEmptyView;
+
+    /** Shows the totals of the inventory above the list */
+    private TextView mSummaryView;
+
+    /** Buffer the stock value is formatted into */
+    private final char[] mStockValueBuffer = new char[PriceFormat.MAX_LENGTH];
+
+    /**
+     * Loads the single row of totals, which the provider keeps up to date as products change,
+     * so it costs the same however many products there are.
+     */
+    private final LoaderManager.LoaderCallbacks<Cursor> mSummaryCallbacks =
+            new LoaderManager.LoaderCallbacks<Cursor>() {
+        @Override
+        public Loader<Cursor> onCreateLoader(int id, Bundle args) {
+            String[] projection = {
+                    ProductContract.SummaryEntry.COLUMN_STOCK_VALUE_CENTS,
+                    ProductContract.SummaryEntry.COLUMN_UNITS_ON_HAND,
+                    ProductContract.SummaryEntry.COLUMN_UNITS_SOLD};
+            return new CursorLoader(CatalogActivity.this,
+                    ProductContract.SummaryEntry.CONTENT_URI, projection, null, null, null);
+        }
+
+        @Override
+        public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+            if (cursor == null || !cursor.moveToFirst()) {
+                mSummaryView.setText(null);
+                return;
+            }
+            int length = PriceFormat.formatPrice(cursor.getLong(0), mStockValueBuffer);
+            mSummaryView.setText(getString(R.string.catalog_summary,
+                    new String(mStockValueBuffer, 0, length), cursor.getLong(1),
+                    cursor.getLong(2)));
+        }
+
+        @Override
+        public void onLoaderReset(Loader<Cursor> loader) {
+            mSummaryView.setText(null);
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
+        if (savedInstanceState != null) {
+            mSortItemId = savedInstanceState.getInt(STATE_SORT_ITEM, mSortItemId);
+            mInStockOnly = savedInstanceState.getBoolean(STATE_IN_STOCK);
+        }
 
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
@@ -56,76 +131,223 @@ public class CatalogActivity extends AppCompatActivity implements
             }
         });
 
-        // Get ListView which will be populated with the product data
-        ListView productListView = (ListView) findViewById(R.id.list_view_product);
+        // Get RecyclerView which will be populated with the product data
+        RecyclerView productListView = (RecyclerView) findViewById(R.id.list_view_product);
+        mProductListView = productListView;
+        final LinearLayoutManager layoutManager = new LinearLayoutManager(this);
+        productListView.setLayoutManager(layoutManager);
+        productListView.setHasFixedSize(true);
 
-        // Set empty view on the ListView, so that it shows only when there are no items
-        // in the database.
-        View emptyView = findViewById(R.id.empty_view);
-        productListView.setEmptyView(emptyView);
+        // Load the next page of products before the user reaches the end of the list
+        productListView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int lastVisible = layoutManager.findLastVisibleItemPosition();
+                if (lastVisible >= mListAdapter.getItemCount() - LOAD_MORE_DISTANCE) {
+                    Loader<ProductList> loader = getLoaderManager().getLoader(PRODUCT_LOADER);
+                    if (loader != null) {
+                        ((ProductListLoader) loader).loadMore();
+                    }
+                }
+            }
+        });
 
-        // Setup an Adapter to create a list item for each row of product data in the Cursor.
-        // There is no product data yet (until the loader finishes) so pass in null for the Cursor.
-        mCursorAdapter = new ProductCursorAdapter(this, null);
-        productListView.setAdapter(mCursorAdapter);
+        // The empty view shows only when there are no items in the database.
+        mEmptyView = findViewById(R.id.empty_view);
+        mSummaryView = (TextView) findViewById(R.id.catalog_summary);
 
-        // Setup item click listener
-        productListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
-            @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
-                // Create new intent to go to {@link EditorActivity}
-                Intent intent = new Intent(CatalogActivity.this, EditorActivity.class);
+        // Setup an Adapter to create a list item for each row of product data.
+        // There is no product data yet (until the loader finishes) so the list starts empty.
+        // Clicking a row opens it in the {@link EditorActivity}.
+        mListAdapter = new ProductListAdapter(this);
+        productListView.setAdapter(mListAdapter);
+
+        // Kick off the loader
+        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+        getLoaderManager().initLoader(SUMMARY_LOADER, null, mSummaryCallbacks);
+    }
 
-                // Form the content URI that represents the specific product that was clicked on,
-                // by appending the "id" (passes as input to this method) onto the
-                // {@link ProductEntry#CONTENT_URI}. For example, the URI would be
-                // "content://com.example.android.inventory/inventory/2" if the product with
-                // ID 2 was clicked on.
-                Uri currentProductUri = ContentUris.withAppendedId
-                        (ProductContract.ProductEntry.CONTENT_URI, id);
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putInt(STATE_SORT_ITEM, mSortItemId);
+        outState.putBoolean(STATE_IN_STOCK, mInStockOnly);
+    }
 
-                // Set the URI on the data field of the intent
-                intent.setData(currentProductUri);
+    @Override
+    protected void onPause() {
+        super.onPause();
+        // Write the stock adjustments made from the list while the app is still in front
+        getContentResolver().call(ProductContract.ProductEntry.CONTENT_URI,
+                ProductContract.METHOD_FLUSH_STOCK, null, null);
+    }
 
-                // Launch the {@link EditorActivity} to display the data for the current product.
-                startActivity(intent);
+    @Override
+    protected void onDestroy() {
+        // Recycle the rows still on screen, which gives their thumbnails back to the image
+        // loader. It outlives the activity and would keep counting them as shown otherwise.
+        mProductListView.setAdapter(null);
+        super.onDestroy();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        // Give back the memory held by cached thumbnails
+        ProductImageLoader.getInstance(this).trimMemory(level);
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        // Inflate the menu options from the res/menu/menu_catalog.xml file.
+        getMenuInflater().inflate(R.menu.menu_catalog, menu);
+        menu.findItem(mSortItemId).setChecked(true);
+        menu.findItem(R.id.action_in_stock).setChecked(mInStockOnly);
+
+        // Search as the user types
+        SearchView searchView = (SearchView) MenuItemCompat.getActionView(
+                menu.findItem(R.id.action_search));
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                return onQueryTextChange(query);
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                Loader<ProductList> loader = getLoaderManager().getLoader(PRODUCT_LOADER);
+                if (loader != null) {
+                    ((ProductListLoader) loader).setQuery(newText);
+                }
+                return true;
             }
         });
+        return true;
+    }
 
-        // Kick off the loader
-        getLoaderManager().initLoader(PRODUCT_LOADER, null, this);
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_import:
+                // Let the user pick a CSV or JSON file to import
+                Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+                intent.setType("*/*");
+                intent.addCategory(Intent.CATEGORY_OPENABLE);
+                startActivityForResult(intent, SELECT_IMPORT_FILE);
+                return true;
+            case R.id.action_export_csv:
+                exportProducts(ProductTransfer.FORMAT_CSV, "inventory.csv");
+                return true;
+            case R.id.action_export_json:
+                exportProducts(ProductTransfer.FORMAT_JSON, "inventory.json");
+                return true;
+            case R.id.action_purchase_orders:
+                writePurchaseOrders();
+                return true;
+            case R.id.action_sort_added:
+            case R.id.action_sort_name:
+            case R.id.action_sort_quantity:
+            case R.id.action_sort_sold:
+                item.setChecked(true);
+                mSortItemId = item.getItemId();
+                applyOrder();
+                return true;
+            case R.id.action_in_stock:
+                mInStockOnly = !item.isChecked();
+                item.setChecked(mInStockOnly);
+                applyOrder();
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode == SELECT_IMPORT_FILE && resultCode == RESULT_OK && data != null
+                && data.getData() != null) {
+            Uri uri = data.getData();
+            int format = ProductTransfer.formatOf(getContentResolver().getType(uri),
+                    uri.getLastPathSegment());
+            ProductTransferTask.forImport(this, uri, format).execute();
+        }
+    }
+
+    /**
+     * Export all products to a file in the app's external files directory.
+     */
+    private void exportProducts(int format, String fileName) {
+        File directory = getExternalFilesDir(null);
+        if (directory == null) {
+            // External storage is not available
+            Toast.makeText(this, R.string.export_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        ProductTransferTask.forExport(this, new File(directory, fileName), format).execute();
+    }
+
+    /**
+     * Write a purchase order per supplier for the products below their reorder level, into
+     * the orders directory of the app's external files.
+     */
+    private void writePurchaseOrders() {
+        File directory = getExternalFilesDir("orders");
+        if (directory == null) {
+            // External storage is not available
+            Toast.makeText(this, R.string.purchase_orders_failed, Toast.LENGTH_SHORT).show();
+            return;
+        }
+        ProductTransferTask.forPurchaseOrders(this, directory).execute();
     }
 
     @Override
-    public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-
-        // Define a projection that specifies which columns from the database
-        // you will actually use after this query.
-        String[] projection = {
-                ProductEntry._ID,
-                ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductEntry.COLUMN_PRODUCT_PRICE,
-                ProductEntry.COLUMN_PRODUCT_QUANTITY,
-                ProductEntry.COLUMN_PRODUCT_SOLD,
-                ProductEntry.COLUMN_PRODUCT_IMAGE};
-
-        return new CursorLoader(this,   // Parent activity context
-                ProductEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+    public Loader<ProductList> onCreateLoader(int id, Bundle args) {
+        // The loader reads the products on a background thread and works out which rows
+        // changed since the last time.
+        ProductListLoader loader = new ProductListLoader(this);
+        loader.setOrder(getSortOrder(), getSelection());
+        return loader;
+    }
+
+    /**
+     * List the products in the chosen order and with the chosen filter.
+     */
+    private void applyOrder() {
+        Loader<ProductList> loader = getLoaderManager().getLoader(PRODUCT_LOADER);
+        if (loader != null) {
+            ((ProductListLoader) loader).setOrder(getSortOrder(), getSelection());
+        }
+    }
+
+    // Returns the order of the chosen menu item, null for the order the products were added
+    private String getSortOrder() {
+        switch (mSortItemId) {
+            case R.id.action_sort_name:
+                return ProductContract.ProductEntry.SORT_BY_NAME;
+            case R.id.action_sort_quantity:
+                return ProductContract.ProductEntry.SORT_BY_QUANTITY;
+            case R.id.action_sort_sold:
+                return ProductContract.ProductEntry.SORT_BY_SOLD;
+            default:
+                return null;
+        }
+    }
+
+    private String getSelection() {
+        return mInStockOnly ? ProductContract.ProductEntry.SELECTION_IN_STOCK : null;
     }
 
     @Override
-    public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link ProductCursorAdapter} with this new cursor containing updated product data
-        mCursorAdapter.swapCursor(data);
+    public void onLoadFinished(Loader<ProductList> loader, ProductList data) {
+        // Update {@link ProductListAdapter} with the new product data
+        mListAdapter.swapList(data);
+        mEmptyView.setVisibility(data.size() == 0 ? View.VISIBLE : View.GONE);
     }
 
     @Override
-    public void onLoaderReset(Loader<Cursor> loader) {
+    public void onLoaderReset(Loader<ProductList> loader) {
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        mListAdapter.swapList(null);
     }
-}
\ No newline at end of file
+}
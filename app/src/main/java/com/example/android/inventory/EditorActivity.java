@@ -16,6 +16,7 @@
 package com.example.android.inventory;
 
 import android.app.LoaderManager;
+import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
@@ -23,10 +24,10 @@ import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.support.v4.app.NavUtils;
 import android.support.v7.app.AlertDialog;
 import android.support.v7.app.AppCompatActivity;
@@ -39,9 +40,6 @@ import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Toast;
 import com.example.android.inventory.data.ProductContract;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.text.DecimalFormat;
 
 import static com.example.android.inventory.R.id.price;
 
@@ -73,9 +71,21 @@ public class EditorActivity extends AppCompatActivity
     /** EditText field to enter the product's quantity sold */
     private EditText mSoldEditText;
 
+    /** EditText field to enter the quantity below which the product is reordered */
+    private EditText mReorderLevelEditText;
+
+    /** EditText field to enter the product's supplier */
+    private EditText mSupplierEditText;
+
     /** ImageView for holding product image */
     private ImageView mImageView;
 
+    /** True once the user picked a new image for the product */
+    private boolean mImageChanged;
+
+    /** Time the editor was opened, for timing saves */
+    private long mStartTime;
+
     /** Boolean flag that keeps track of whether the product has been edited (true)
      *  or not (false)
      */
@@ -96,6 +106,7 @@ public class EditorActivity extends AppCompatActivity
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        mStartTime = SystemClock.elapsedRealtime();
         setContentView(R.layout.activity_editor);
 
         // Examine the intent that was used to launch this activity,
@@ -126,6 +137,8 @@ public class EditorActivity extends AppCompatActivity
         mPriceEditText = (EditText) findViewById(R.id.edit_price);
         mQuantityEditText = (EditText) findViewById(R.id.edit_quantity);
         mSoldEditText = (EditText) findViewById(R.id.edit_sold);
+        mReorderLevelEditText = (EditText) findViewById(R.id.edit_reorder_level);
+        mSupplierEditText = (EditText) findViewById(R.id.edit_supplier);
         mImageView = (ImageView) findViewById(R.id.product_image);
 
         // Setup OnTouchListeners on all the input fields, so we can determine if the user
@@ -135,28 +148,29 @@ public class EditorActivity extends AppCompatActivity
         mPriceEditText.setOnTouchListener(mTouchListener);
         mQuantityEditText.setOnTouchListener(mTouchListener);
         mSoldEditText.setOnTouchListener(mTouchListener);
+        mReorderLevelEditText.setOnTouchListener(mTouchListener);
+        mSupplierEditText.setOnTouchListener(mTouchListener);
     }
 
-    // Get user input from editor and save product into datatbase.
-    private void saveProduct() {
+    // Get user input from editor and save product into datatbase. The input is checked
+    // here, encoding the image and writing the product happen in the background.
+    // Returns false if the input is not valid and nothing is saved.
+    private boolean saveProduct() {
         String nameString = mNameEditText.getText().toString().trim();
         String priceString = mPriceEditText.getText().toString().trim();
         String quantityString = mQuantityEditText.getText().toString().trim();
         String soldString = mSoldEditText.getText().toString().trim();
-        // This converts image into a byteArray so that it can be saved in the database.
+        String reorderLevelString = mReorderLevelEditText.getText().toString().trim();
+        String supplierString = mSupplierEditText.getText().toString().trim();
         BitmapDrawable bitmapDrawable = (BitmapDrawable) mImageView.getDrawable();
-        // Check if an image was selected, if not, then return
-        if (bitmapDrawable == null) {
+        // Check if an image was selected, if not, then return. An existing product keeps its
+        // image unless a new one was picked.
+        if (bitmapDrawable == null && (mCurrentProductUri == null || mImageChanged)) {
             Toast.makeText(this, getString(R.string.editor_image_not_selected),
                     Toast.LENGTH_SHORT).show();
-            return;
+            return false;
         }
 
-        Bitmap imageBitmap = bitmapDrawable.getBitmap();
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
-        imageBitmap.compress(Bitmap.CompressFormat.PNG, 0, stream);
-        byte[] image = stream.toByteArray();
-
         // Check if this is supposed to be a new product
         // and check if the name or price fields in the editor are blank
         if (mCurrentProductUri == null &&
@@ -164,18 +178,24 @@ public class EditorActivity extends AppCompatActivity
             // If the name or price is blank, then show toast and do not save product info.
             Toast.makeText(this, getString(R.string.editor_save_no_information),
                     Toast.LENGTH_SHORT).show();
-            return;
+            return false;
         }
 
-        // Extract $ from price, if it was added
-        priceString = priceString.replace("$", "");
+        // Convert the price to cents, a leading $ is allowed
+        long priceCents;
+        try {
+            priceCents = ProductContract.ProductEntry.parsePriceCents(priceString);
+        } catch (NumberFormatException e) {
+            Toast.makeText(this, getString(R.string.editor_save_no_information),
+                    Toast.LENGTH_SHORT).show();
+            return false;
+        }
 
         ContentValues values = new ContentValues();
         values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME, nameString);
-        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE, priceString);
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS, priceCents);
         values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY, quantityString);
         values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD, soldString);
-        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE, image);
         // If the quantity is not provided by the user, don't try to parse the string into an
         // integer value. Use 0 by default.
         int quantity = 0;
@@ -183,43 +203,24 @@ public class EditorActivity extends AppCompatActivity
             quantity = Integer.parseInt(quantityString);
         }
         values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY, quantity);
-
-        // Determine if this is a new or existing product by checking if mCurrentProductUri
-        // is null or not
-        if (mCurrentProductUri == null) {
-            // This is a NEW product, so insert a new product into the provider,
-            // returning the content URI for the new product.
-            Uri newUri = getContentResolver().insert(ProductContract.ProductEntry.CONTENT_URI,
-                    values);
-
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+        // Products without a reorder level are never reordered
+        if (TextUtils.isEmpty(reorderLevelString)) {
+            values.putNull(ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL);
         } else {
-            // Otherwise this is an EXISTING product, so update the product with content URI:
-            // mCurrentProductUri and pass in the new ContentValues. Pass in null for the
-            // selection and selection args because mCurrentProductUri will already identify
-            // the correct row in the database that we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentProductUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_product_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_product_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL,
+                    Integer.parseInt(reorderLevelString));
         }
+        values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER, supplierString);
+
+        // Only a new image has to be encoded, the stored one stays as it is
+        Bitmap image = null;
+        if (mCurrentProductUri == null || mImageChanged) {
+            image = bitmapDrawable.getBitmap();
+        }
+
+        // Insert or update the product in the background, the outcome is shown as a toast
+        new ProductSaveTask(this, mCurrentProductUri, values, image, mStartTime).start();
+        return true;
     }
 
     /**
@@ -337,16 +338,31 @@ public class EditorActivity extends AppCompatActivity
     }
 
     /**
-     * Order button places an order for the product via email.
+     * Order button places an order for the product via email. If the product has a reorder
+     * level, the order asks for enough units to get back up to it. Orders for all products
+     * low on stock are written from the catalog.
      */
     public void orderButton(View view) {
         // When order button is pressed, this code opens a blank email and places an order.
         String nameString = mNameEditText.getText().toString().trim();
+        String quantityString = mQuantityEditText.getText().toString().trim();
+        String reorderLevelString = mReorderLevelEditText.getText().toString().trim();
+
+        String text = getString(R.string.order_text, nameString);
+        if (TextUtils.isDigitsOnly(quantityString) && !TextUtils.isEmpty(quantityString)
+                && TextUtils.isDigitsOnly(reorderLevelString)
+                && !TextUtils.isEmpty(reorderLevelString)) {
+            int orderQuantity = Integer.parseInt(reorderLevelString)
+                    - Integer.parseInt(quantityString);
+            if (orderQuantity > 0) {
+                text = getString(R.string.order_text_quantity, nameString, orderQuantity);
+            }
+        }
 
         Intent intent = new Intent(Intent.ACTION_SENDTO);
         intent.setData(Uri.parse("mailto:"));
-        intent.putExtra(Intent.EXTRA_SUBJECT, "Order for more " + nameString);
-        intent.putExtra(Intent.EXTRA_TEXT, "Please place an order for " + nameString);
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.order_subject, nameString));
+        intent.putExtra(Intent.EXTRA_TEXT, text);
         if (intent.resolveActivity(getPackageManager()) != null) {
             startActivity(intent);
         }
@@ -366,10 +382,10 @@ public class EditorActivity extends AppCompatActivity
         switch (item.getItemId()) {
             // Respond to a click on the "Save" menu option
             case R.id.action_save:
-                // Save product in database
-                saveProduct();
-                // Exit activity
-                finish();
+                // Save product in database, and exit activity unless the input is not valid
+                if (saveProduct()) {
+                    finish();
+                }
                 return true;
             // Respond to a click on the "Up" arrow button in the app bar
             case android.R.id.home:
@@ -432,10 +448,12 @@ public class EditorActivity extends AppCompatActivity
         String[] projection = {
                 ProductContract.ProductEntry._ID,
                 ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
-                ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE,
+                ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS,
                 ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
                 ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD,
-                ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE};
+                ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE,
+                ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL,
+                ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -460,30 +478,41 @@ public class EditorActivity extends AppCompatActivity
             int nameColumnIndex = cursor.getColumnIndex
                     (ProductContract.ProductEntry.COLUMN_PRODUCT_NAME);
             int priceColumnIndex = cursor.getColumnIndex
-                    (ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE);
+                    (ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS);
             int quantityColumnIndex = cursor.getColumnIndex
                     (ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY);
             int soldColumnIndex = cursor.getColumnIndex
                     (ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD);
             int imageColumnIndex = cursor.getColumnIndex
                     (ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE);
+            int reorderLevelColumnIndex = cursor.getColumnIndex
+                    (ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL);
+            int supplierColumnIndex = cursor.getColumnIndex
+                    (ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER);
 
             // Extract out the value from the Cursor for the given column index
             String name = cursor.getString(nameColumnIndex);
-            double price = cursor.getDouble(priceColumnIndex);
+            // The price is missing while an upgrade has not moved it over to cents yet
+            String price = cursor.isNull(priceColumnIndex) ? "" : "$" + ProductContract
+                    .ProductEntry.formatPriceCents(cursor.getLong(priceColumnIndex));
             int quantity = cursor.getInt(quantityColumnIndex);
             int sold = cursor.getInt(soldColumnIndex);
-            byte[] image = cursor.getBlob(imageColumnIndex);
-
-            // Force two decimal places to show in price
-            DecimalFormat decFor = new DecimalFormat("#.00");
+            String imageRef = cursor.getString(imageColumnIndex);
+            String reorderLevel = cursor.isNull(reorderLevelColumnIndex) ? ""
+                    : Integer.toString(cursor.getInt(reorderLevelColumnIndex));
+            String supplier = cursor.getString(supplierColumnIndex);
 
             // Update the views on the screen with the values from the database
             mNameEditText.setText(name);
-            mPriceEditText.setText("$" + String.valueOf(decFor.format(price)));
+            mPriceEditText.setText(price);
             mQuantityEditText.setText(Integer.toString(quantity));
             mSoldEditText.setText(Integer.toString(sold));
-            mImageView.setImageBitmap(BitmapFactory.decodeByteArray(image, 0, image.length));
+            mReorderLevelEditText.setText(reorderLevel);
+            mSupplierEditText.setText(supplier);
+
+            // The image is decoded in the background and shows up once it is ready
+            ProductImageLoader.getInstance(this).load(ContentUris.parseId(mCurrentProductUri),
+                    imageRef, mImageView);
         }
     }
 
@@ -494,7 +523,9 @@ public class EditorActivity extends AppCompatActivity
         mPriceEditText.setText("");
         mQuantityEditText.setText("");
         mSoldEditText.setText("");
-        mImageView.setImageBitmap(null);
+        mReorderLevelEditText.setText("");
+        mSupplierEditText.setText("");
+        ProductImageLoader.getInstance(this).clear(mImageView);
     }
 
     /**
@@ -541,20 +572,22 @@ public class EditorActivity extends AppCompatActivity
         super.onActivityResult(requestCode, resultCode, data);
 
         ImageView imageView = (ImageView) findViewById(R.id.product_image);
-        Bitmap bitmapImage;
-        Bitmap resizedImage;
 
         try {
             // When image is picked
             if (requestCode == RESULT_LOAD_IMAGE && resultCode == RESULT_OK && data != null) {
 
-                InputStream stream = getContentResolver().openInputStream(data.getData());
-                bitmapImage = BitmapFactory.decodeStream(stream);
-                resizedImage = Bitmap.createScaledBitmap(bitmapImage, 75, 75, true);
-                stream.close();
+                // Decoded straight to the image size, the full photo is never in memory
+                Bitmap image = ProductImageCodec.decodePhoto(getContentResolver(),
+                        data.getData());
+                if (image == null) {
+                    Toast.makeText(this, R.string.editor_image_error, Toast.LENGTH_SHORT).show();
+                    return;
+                }
 
                 // Set the image in ImageView after decoding the string
-                imageView.setImageBitmap(resizedImage);
+                imageView.setImageBitmap(image);
+                mImageChanged = true;
             } else {
                 Toast.makeText(this, R.string.editor_image_not_selected, Toast.LENGTH_SHORT).show();
             }
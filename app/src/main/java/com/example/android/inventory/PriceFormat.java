@@ -0,0 +1,57 @@
+package com.example.android.inventory;
+
+/**
+ * Formats prices and quantities into reusable char buffers, so list rows can be bound without
+ * creating Strings or formatters for every row.
+ */
+public final class PriceFormat {
+
+    /** Buffer size that fits any value written by this class */
+    public static final int MAX_LENGTH = 24;
+
+    private PriceFormat() {}
+
+    /**
+     * Write the price in cents as "$0.00" into the buffer and return the number of chars written.
+     */
+    public static int formatPrice(long cents, char[] buffer) {
+        int position = 0;
+        if (cents < 0) {
+            buffer[position++] = '-';
+            cents = -cents;
+        }
+        buffer[position++] = '$';
+        position = writeDigits(cents / 100, buffer, position);
+        int fraction = (int) (cents % 100);
+        buffer[position++] = '.';
+        buffer[position++] = (char) ('0' + fraction / 10);
+        buffer[position++] = (char) ('0' + fraction % 10);
+        return position;
+    }
+
+    /**
+     * Write the number into the buffer and return the number of chars written.
+     */
+    public static int formatNumber(long value, char[] buffer) {
+        int position = 0;
+        if (value < 0) {
+            buffer[position++] = '-';
+            value = -value;
+        }
+        return writeDigits(value, buffer, position);
+    }
+
+    // Write the digits of a non-negative value at the given position, return the new position.
+    private static int writeDigits(long value, char[] buffer, int position) {
+        int digits = 1;
+        for (long rest = value / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return end;
+    }
+}
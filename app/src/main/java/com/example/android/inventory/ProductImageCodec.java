@@ -0,0 +1,156 @@
+package com.example.android.inventory;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Turns a picked photo into a product image and encodes it for storage.
+ *
+ * Photos are never decoded at full size: the bounds are read first and the photo is decoded
+ * subsampled to at least, but less than twice, the image size. A 12 megapixel photo then
+ * takes about 90 KB of heap instead of 48 MB.
+ */
+final class ProductImageCodec {
+
+    /** Width and height of a product image in pixels */
+    static final int IMAGE_SIZE = 75;
+
+    /** Quality of the lossy WebP encoding of product images */
+    private static final int IMAGE_QUALITY = 80;
+
+    private ProductImageCodec() {}
+
+    /**
+     * Decode the photo at the given URI into a product image, rotated as the camera recorded
+     * it. Returns null if the URI does not hold an image.
+     */
+    static Bitmap decodePhoto(ContentResolver resolver, Uri uri) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeStream(resolver, uri, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = calculateSampleSize(options.outWidth, options.outHeight,
+                IMAGE_SIZE);
+        Bitmap sampled = decodeStream(resolver, uri, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        // Scale and rotate in one step, so only one more bitmap is made
+        Matrix matrix = new Matrix();
+        matrix.setScale((float) IMAGE_SIZE / sampled.getWidth(),
+                (float) IMAGE_SIZE / sampled.getHeight());
+        matrix.postRotate(readRotation(resolver, uri));
+        Bitmap image = Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(),
+                sampled.getHeight(), matrix, true);
+        if (image != sampled) {
+            sampled.recycle();
+        }
+        return image;
+    }
+
+    /**
+     * Encode a product image for the image store.
+     */
+    static byte[] encode(Bitmap image) {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        image.compress(Bitmap.CompressFormat.WEBP, IMAGE_QUALITY, stream);
+        return stream.toByteArray();
+    }
+
+    /**
+     * Largest power of two the image can be subsampled by, keeping both sides at least
+     * maxSize pixels.
+     */
+    static int calculateSampleSize(int width, int height, int maxSize) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= maxSize && height / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    private static Bitmap decodeStream(ContentResolver resolver, Uri uri,
+                                       BitmapFactory.Options options) throws IOException {
+        InputStream stream = resolver.openInputStream(uri);
+        if (stream == null) {
+            throw new FileNotFoundException("Cannot open " + uri);
+        }
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+    }
+
+    // Degrees the photo has to be turned clockwise to be upright
+    private static int readRotation(ContentResolver resolver, Uri uri) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            try {
+                InputStream stream = resolver.openInputStream(uri);
+                if (stream != null) {
+                    try {
+                        return toDegrees(new ExifInterface(stream).getAttributeInt(
+                                ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+                    } finally {
+                        stream.close();
+                    }
+                }
+            } catch (IOException e) {
+                // Not a JPEG, or no EXIF data
+            }
+            return 0;
+        }
+
+        // Before Nougat EXIF data can only be read from files, but the media store has the
+        // orientation of the photos it knows.
+        Cursor cursor = null;
+        try {
+            cursor = resolver.query(uri,
+                    new String[] { MediaStore.Images.ImageColumns.ORIENTATION },
+                    null, null, null);
+            if (cursor != null && cursor.moveToFirst()) {
+                int column = cursor.getColumnIndex(MediaStore.Images.ImageColumns.ORIENTATION);
+                if (column != -1) {
+                    return cursor.getInt(column);
+                }
+            }
+        } catch (IllegalArgumentException | SecurityException e) {
+            // The provider does not know the column
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        return 0;
+    }
+
+    private static int toDegrees(int orientation) {
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                return 90;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                return 180;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                return 270;
+            default:
+                return 0;
+        }
+    }
+}
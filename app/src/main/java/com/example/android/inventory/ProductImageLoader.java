@@ -0,0 +1,345 @@
+package com.example.android.inventory;
+
+import android.app.ActivityManager;
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.support.v4.util.LruCache;
+import android.util.Log;
+import android.widget.ImageView;
+import com.example.android.inventory.data.ProductContract;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Loads product images into {@link ImageView}s off the UI thread.
+ *
+ * Decoded bitmaps are kept in a memory cache bounded by their size in bytes and keyed by the
+ * product id and the image reference, so a new image for a product never hits a stale entry.
+ * Bitmaps dropped from the cache are decoded into again instead of allocating new ones, and a
+ * request is cancelled as soon as its {@link ImageView} is bound to another product.
+ */
+public class ProductImageLoader {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ProductImageLoader.class.getSimpleName();
+
+    /** Fraction of the app's memory class used by the memory cache */
+    private static final int MEMORY_CACHE_DIVIDER = 8;
+
+    /** Number of threads decoding images */
+    private static final int DECODE_THREADS = 2;
+
+    private static ProductImageLoader sInstance;
+
+    private final ContentResolver mResolver;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    private final ExecutorService mExecutor;
+
+    /** Largest width or height a decoded image is allowed to have */
+    private final int mMaxImageSize;
+
+    /** Decoded bitmaps, bounded by their total size in bytes */
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    /** Bitmaps dropped from the memory cache that can be decoded into again */
+    private final LinkedList<SoftReference<Bitmap>> mReusableBitmaps = new LinkedList<>();
+
+    /**
+     * Number of image views each bitmap is shown in. A bitmap still on screen is never reused,
+     * even if it has been dropped from the memory cache. Guarded by itself.
+     */
+    private final IdentityHashMap<Bitmap, Integer> mAttachedBitmaps = new IdentityHashMap<>();
+
+    /**
+     * Return the image loader shared by the whole app.
+     */
+    public static synchronized ProductImageLoader getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ProductImageLoader(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ProductImageLoader(Context context) {
+        mResolver = context.getContentResolver();
+        mMaxImageSize = context.getResources()
+                .getDimensionPixelSize(R.dimen.list_item_layout_width_image);
+
+        ActivityManager activityManager =
+                (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        int cacheBytes = activityManager.getMemoryClass() * 1024 * 1024 / MEMORY_CACHE_DIVIDER;
+        mMemoryCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue,
+                                        Bitmap newValue) {
+                addReusableBitmap(oldValue);
+            }
+        };
+
+        mExecutor = Executors.newFixedThreadPool(DECODE_THREADS, new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    /**
+     * Show the image of the given product in the image view. Must be called on the UI thread.
+     *
+     * @param productId id of the product
+     * @param imageRef  reference of the product image, or null if the product has no image
+     * @param imageView view the image is shown in
+     */
+    public void load(long productId, String imageRef, ImageView imageView) {
+        if (imageRef == null) {
+            cancel(imageView);
+            setBitmap(imageView, null);
+            return;
+        }
+
+        String key = productId + ":" + imageRef;
+        Request running = (Request) imageView.getTag(R.id.tag_image_request);
+        if (running != null && running.mKey.equals(key)) {
+            // The same image is already on its way to this view.
+            return;
+        }
+        cancel(imageView);
+
+        Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            setBitmap(imageView, bitmap);
+            return;
+        }
+
+        // Clear the image of the product this view showed before, until the new one is ready.
+        setBitmap(imageView, null);
+        Request request = new Request(key, productId, imageView);
+        imageView.setTag(R.id.tag_image_request, request);
+        request.mFuture = mExecutor.submit(request);
+    }
+
+    /**
+     * Cancel the image request running for the given view, if any. Must be called on the
+     * UI thread, for example when the view scrolls off screen.
+     */
+    public void cancel(ImageView imageView) {
+        Request request = (Request) imageView.getTag(R.id.tag_image_request);
+        if (request != null) {
+            request.mCancelled = true;
+            request.mFuture.cancel(false);
+            imageView.setTag(R.id.tag_image_request, null);
+        }
+    }
+
+    /**
+     * Cancel the image request of the given view and take its bitmap out of it, so the bitmap
+     * is no longer counted as shown and can be decoded into again once the memory cache drops
+     * it. Must be called on the UI thread, for every view that is recycled or thrown away.
+     */
+    public void clear(ImageView imageView) {
+        cancel(imageView);
+        setBitmap(imageView, null);
+    }
+
+    /**
+     * Release cached bitmaps when the system is low on memory.
+     * See {@link ComponentCallbacks2#onTrimMemory}.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mMemoryCache.evictAll();
+            synchronized (mReusableBitmaps) {
+                mReusableBitmaps.clear();
+            }
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mMemoryCache.trimToSize(mMemoryCache.maxSize() / 2);
+        }
+    }
+
+    // Put a bitmap into the view and keep count of the views each bitmap is shown in.
+    private void setBitmap(ImageView imageView, Bitmap bitmap) {
+        Bitmap previous = (Bitmap) imageView.getTag(R.id.tag_image_bitmap);
+        if (previous == bitmap) {
+            return;
+        }
+        synchronized (mAttachedBitmaps) {
+            if (previous != null) {
+                Integer count = mAttachedBitmaps.remove(previous);
+                if (count != null && count > 1) {
+                    mAttachedBitmaps.put(previous, count - 1);
+                }
+            }
+            if (bitmap != null) {
+                Integer count = mAttachedBitmaps.get(bitmap);
+                mAttachedBitmaps.put(bitmap, count == null ? 1 : count + 1);
+            }
+        }
+        imageView.setTag(R.id.tag_image_bitmap, bitmap);
+        imageView.setImageBitmap(bitmap);
+    }
+
+    private void addReusableBitmap(Bitmap bitmap) {
+        if (!bitmap.isMutable()) {
+            return;
+        }
+        synchronized (mAttachedBitmaps) {
+            if (mAttachedBitmaps.containsKey(bitmap)) {
+                // Still on screen, let the garbage collector have it once it is gone.
+                return;
+            }
+        }
+        synchronized (mReusableBitmaps) {
+            mReusableBitmaps.add(new SoftReference<>(bitmap));
+        }
+    }
+
+    // Take a bitmap out of the reusable set that can hold the image described by options.
+    private Bitmap takeReusableBitmap(BitmapFactory.Options options) {
+        synchronized (mReusableBitmaps) {
+            Iterator<SoftReference<Bitmap>> iterator = mReusableBitmaps.iterator();
+            while (iterator.hasNext()) {
+                Bitmap candidate = iterator.next().get();
+                if (candidate == null || candidate.isRecycled()) {
+                    iterator.remove();
+                } else if (canReuse(candidate, options)) {
+                    iterator.remove();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean canReuse(Bitmap candidate, BitmapFactory.Options options) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            // Any bitmap that is big enough can be decoded into.
+            int width = options.outWidth / options.inSampleSize;
+            int height = options.outHeight / options.inSampleSize;
+            return width * height * 4 <= candidate.getAllocationByteCount();
+        }
+        // Older versions need the exact same size and no subsampling.
+        return candidate.getWidth() == options.outWidth
+                && candidate.getHeight() == options.outHeight
+                && options.inSampleSize == 1;
+    }
+
+    // Decode the image of the product, streaming it from the provider's image file.
+    private Bitmap decode(long productId) throws IOException {
+        Uri uri = ContentUris.withAppendedId(ProductContract.ProductEntry.CONTENT_URI, productId);
+        ParcelFileDescriptor pfd = mResolver.openFileDescriptor(uri, "r");
+        if (pfd == null) {
+            return null;
+        }
+        try {
+            FileDescriptor fd = pfd.getFileDescriptor();
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeFileDescriptor(fd, null, options);
+            if (options.outWidth <= 0 || options.outHeight <= 0) {
+                return null;
+            }
+
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = ProductImageCodec.calculateSampleSize(options.outWidth,
+                    options.outHeight, mMaxImageSize);
+            options.inMutable = true;
+            options.inBitmap = takeReusableBitmap(options);
+            try {
+                return BitmapFactory.decodeFileDescriptor(fd, null, options);
+            } catch (IllegalArgumentException e) {
+                // The reused bitmap did not fit after all, decode into a new one.
+                options.inBitmap = null;
+                return BitmapFactory.decodeFileDescriptor(fd, null, options);
+            }
+        } finally {
+            pfd.close();
+        }
+    }
+
+    /**
+     * Decodes one product image in the background and hands it to its view and the memory
+     * cache on the UI thread. The cache is only changed on the UI thread, where bitmaps taken
+     * from it are attached right away.
+     */
+    private class Request implements Runnable {
+
+        final String mKey;
+        final long mProductId;
+        final ImageView mImageView;
+        volatile boolean mCancelled;
+        Future<?> mFuture;
+
+        Request(String key, long productId, ImageView imageView) {
+            mKey = key;
+            mProductId = productId;
+            mImageView = imageView;
+        }
+
+        @Override
+        public void run() {
+            if (mCancelled) {
+                return;
+            }
+
+            Bitmap bitmap = null;
+            try {
+                bitmap = decode(mProductId);
+            } catch (FileNotFoundException e) {
+                // The product has no image file
+            } catch (IOException e) {
+                Log.w(LOG_TAG, "Failed to load image of product " + mProductId, e);
+            }
+
+            final Bitmap result = bitmap;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    // The view may have been bound to another product in the meantime.
+                    if (!mCancelled && mImageView.getTag(R.id.tag_image_request) == Request.this) {
+                        mImageView.setTag(R.id.tag_image_request, null);
+                        setBitmap(mImageView, result);
+                    }
+                    // Cached only now, once it is attached: a bitmap the cache drops becomes
+                    // reusable, and it must not be decoded into on its way to the view.
+                    if (result != null) {
+                        mMemoryCache.put(mKey, result);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,309 @@
+package com.example.android.inventory;
+
+import android.database.Cursor;
+import android.support.v7.util.DiffUtil;
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductKeyset;
+
+import java.util.Arrays;
+
+/**
+ * Immutable snapshot of the products shown in the catalog, stored column by column. A snapshot
+ * holds the pages of the catalog loaded so far.
+ *
+ * A snapshot is read from a cursor on a background thread, so the cursor can be closed right
+ * away, and it can be compared with the previous snapshot to find the rows that changed.
+ */
+public class ProductList {
+
+    /** Payload of a row change that only touched the quantities of the product */
+    static final Object PAYLOAD_QUANTITIES = new Object();
+
+    /** Columns a snapshot is read from */
+    static final String[] PROJECTION = {
+            ProductEntry._ID,
+            ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductEntry.COLUMN_PRODUCT_PRICE_CENTS,
+            ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductEntry.COLUMN_PRODUCT_SOLD,
+            ProductEntry.COLUMN_PRODUCT_IMAGE};
+
+    // Indices of the columns in PROJECTION
+    private static final int COLUMN_ID = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_PRICE = 2;
+    private static final int COLUMN_QUANTITY = 3;
+    private static final int COLUMN_SOLD = 4;
+    private static final int COLUMN_IMAGE = 5;
+
+    // Bits of mNulls, set for the quantity columns that are null
+    private static final int NULL_QUANTITY = 1;
+    private static final int NULL_SOLD = 2;
+
+    static final ProductList EMPTY = new ProductList(0);
+
+    private final int mSize;
+    private final long[] mIds;
+    private final long[] mVersions;
+    private final String[] mNames;
+    private final long[] mPriceCents;
+    private final int[] mQuantities;
+    private final int[] mSold;
+    private final String[] mImageRefs;
+    private final byte[] mNulls;
+
+    /** True if the catalog may have rows after the last row of this snapshot */
+    private boolean mHasMore;
+
+    /** Snapshot this one was compared with, or null */
+    private ProductList mDiffBase;
+
+    /** Changes from {@link #mDiffBase} to this snapshot, or null */
+    private DiffUtil.DiffResult mDiff;
+
+    private ProductList(int size) {
+        mSize = size;
+        mIds = new long[size];
+        mVersions = new long[size];
+        mNames = new String[size];
+        mPriceCents = new long[size];
+        mQuantities = new int[size];
+        mSold = new int[size];
+        mImageRefs = new String[size];
+        mNulls = new byte[size];
+    }
+
+    /**
+     * Read every row of a cursor queried with {@link #PROJECTION} and a limit of pageSize
+     * rows. A full page means more rows may follow.
+     */
+    static ProductList fromCursor(Cursor cursor, int pageSize) {
+        ProductList list = new ProductList(cursor.getCount());
+        list.mHasMore = list.mSize >= pageSize;
+        int row = 0;
+        while (row < list.mSize && cursor.moveToNext()) {
+            list.mIds[row] = cursor.getLong(COLUMN_ID);
+            list.mNames[row] = cursor.getString(COLUMN_NAME);
+            list.mPriceCents[row] = cursor.getLong(COLUMN_PRICE);
+            list.mQuantities[row] = cursor.getInt(COLUMN_QUANTITY);
+            list.mSold[row] = cursor.getInt(COLUMN_SOLD);
+            list.mImageRefs[row] = cursor.getString(COLUMN_IMAGE);
+            list.mNulls[row] = (byte) ((cursor.isNull(COLUMN_QUANTITY) ? NULL_QUANTITY : 0)
+                    | (cursor.isNull(COLUMN_SOLD) ? NULL_SOLD : 0));
+            list.mVersions[row] = list.computeVersion(row);
+            row++;
+        }
+        return list;
+    }
+
+    /**
+     * Return a snapshot with the rows of the given page after the rows of this one.
+     */
+    ProductList append(ProductList page) {
+        ProductList list = new ProductList(mSize + page.mSize);
+        copyRows(this, list, 0);
+        copyRows(page, list, mSize);
+        list.mHasMore = page.mHasMore;
+        return list;
+    }
+
+    /**
+     * Return a snapshot with changes to single products applied. The changed products are
+     * given by their ids, their current rows by changedRows, ordered by id. A changed product
+     * missing from changedRows was deleted. New products are added at the end if this
+     * snapshot reaches the end of the catalog, otherwise they come with the next page.
+     */
+    ProductList patch(long[] changedIds, ProductList changedRows) {
+        long lastId = mSize == 0 ? 0 : mIds[mSize - 1];
+
+        // Count the rows first, snapshots are built from arrays of the final size
+        int size = 0;
+        for (int row = 0; row < mSize; row++) {
+            if (!contains(changedIds, mIds[row]) || changedRows.indexOfId(mIds[row]) >= 0) {
+                size++;
+            }
+        }
+        for (int row = 0; row < changedRows.mSize; row++) {
+            if (!mHasMore && changedRows.mIds[row] > lastId) {
+                size++;
+            }
+        }
+
+        ProductList list = new ProductList(size);
+        list.mHasMore = mHasMore;
+        int position = 0;
+        for (int row = 0; row < mSize; row++) {
+            if (!contains(changedIds, mIds[row])) {
+                copyRow(this, row, list, position++);
+            } else {
+                int changedRow = changedRows.indexOfId(mIds[row]);
+                if (changedRow >= 0) {
+                    copyRow(changedRows, changedRow, list, position++);
+                }
+            }
+        }
+        for (int row = 0; row < changedRows.mSize; row++) {
+            if (!mHasMore && changedRows.mIds[row] > lastId) {
+                copyRow(changedRows, row, list, position++);
+            }
+        }
+        return list;
+    }
+
+    // Position of the row with the given id, or a negative number. Rows are ordered by id.
+    private int indexOfId(long id) {
+        return Arrays.binarySearch(mIds, 0, mSize, id);
+    }
+
+    private static boolean contains(long[] sortedIds, long id) {
+        return Arrays.binarySearch(sortedIds, id) >= 0;
+    }
+
+    private static void copyRow(ProductList from, int fromRow, ProductList to, int toRow) {
+        to.mIds[toRow] = from.mIds[fromRow];
+        to.mVersions[toRow] = from.mVersions[fromRow];
+        to.mNames[toRow] = from.mNames[fromRow];
+        to.mPriceCents[toRow] = from.mPriceCents[fromRow];
+        to.mQuantities[toRow] = from.mQuantities[fromRow];
+        to.mSold[toRow] = from.mSold[fromRow];
+        to.mImageRefs[toRow] = from.mImageRefs[fromRow];
+        to.mNulls[toRow] = from.mNulls[fromRow];
+    }
+
+    private static void copyRows(ProductList from, ProductList to, int position) {
+        System.arraycopy(from.mIds, 0, to.mIds, position, from.mSize);
+        System.arraycopy(from.mVersions, 0, to.mVersions, position, from.mSize);
+        System.arraycopy(from.mNames, 0, to.mNames, position, from.mSize);
+        System.arraycopy(from.mPriceCents, 0, to.mPriceCents, position, from.mSize);
+        System.arraycopy(from.mQuantities, 0, to.mQuantities, position, from.mSize);
+        System.arraycopy(from.mSold, 0, to.mSold, position, from.mSize);
+        System.arraycopy(from.mImageRefs, 0, to.mImageRefs, position, from.mSize);
+        System.arraycopy(from.mNulls, 0, to.mNulls, position, from.mSize);
+    }
+
+    // Version of the content of a row. Rows with different versions have changed, rows with
+    // the same version are compared field by field to rule out collisions.
+    private long computeVersion(int row) {
+        long version = mNames[row] == null ? 0 : mNames[row].hashCode();
+        version = version * 31 + mPriceCents[row];
+        version = version * 31 + mQuantities[row];
+        version = version * 31 + mSold[row];
+        version = version * 31 + (mImageRefs[row] == null ? 0 : mImageRefs[row].hashCode());
+        return version;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns true if the catalog may have more rows than loaded into this snapshot.
+     */
+    public boolean hasMore() {
+        return mHasMore;
+    }
+
+    public long getId(int position) {
+        return mIds[position];
+    }
+
+    public String getName(int position) {
+        return mNames[position];
+    }
+
+    public long getPriceCents(int position) {
+        return mPriceCents[position];
+    }
+
+    public int getQuantity(int position) {
+        return mQuantities[position];
+    }
+
+    public int getSold(int position) {
+        return mSold[position];
+    }
+
+    public String getImageRef(int position) {
+        return mImageRefs[position];
+    }
+
+    /**
+     * Returns the keyset of the products after the given row, in the given order of the
+     * catalog, or in the ranking of the search for the given first word if the order is null.
+     */
+    ProductKeyset keysetAfter(int position, String sortOrder, String searchWord) {
+        if (sortOrder == null && searchWord != null) {
+            return ProductKeyset.afterSearchResult(searchWord, mIds[position], mNames[position]);
+        }
+        return ProductKeyset.after(sortOrder, mIds[position], mNames[position],
+                (mNulls[position] & NULL_QUANTITY) != 0 ? null : mQuantities[position],
+                (mNulls[position] & NULL_SOLD) != 0 ? null : mSold[position]);
+    }
+
+    /**
+     * Compare this snapshot with the given older one. Meant to run on a background thread.
+     * The result is available through {@link #getDiff(ProductList)}.
+     */
+    void diffFrom(final ProductList old) {
+        mDiff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return old.mSize;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return mSize;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return old.mIds[oldPosition] == mIds[newPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                return old.mVersions[oldPosition] == mVersions[newPosition]
+                        && old.mQuantities[oldPosition] == mQuantities[newPosition]
+                        && old.mSold[oldPosition] == mSold[newPosition]
+                        && sameDetails(old, oldPosition, newPosition);
+            }
+
+            @Override
+            public Object getChangePayload(int oldPosition, int newPosition) {
+                // Only rebind the quantities if nothing else changed, which is the case
+                // for every sale or receipt.
+                return sameDetails(old, oldPosition, newPosition) ? PAYLOAD_QUANTITIES : null;
+            }
+        }, false);
+        mDiffBase = old;
+    }
+
+    // True if everything but the quantities is the same in both rows
+    private boolean sameDetails(ProductList old, int oldPosition, int newPosition) {
+        return old.mPriceCents[oldPosition] == mPriceCents[newPosition]
+                && equals(old.mNames[oldPosition], mNames[newPosition])
+                && equals(old.mImageRefs[oldPosition], mImageRefs[newPosition]);
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Return the changes from the given snapshot to this one, or null if this snapshot was
+     * not compared with it.
+     */
+    DiffUtil.DiffResult getDiff(ProductList old) {
+        return old == mDiffBase ? mDiff : null;
+    }
+
+    /**
+     * Drop the comparison with the older snapshot once it has been applied, so snapshots
+     * do not keep each other alive.
+     */
+    void releaseDiff() {
+        mDiffBase = null;
+        mDiff = null;
+    }
+}
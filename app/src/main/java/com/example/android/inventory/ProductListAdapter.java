@@ -0,0 +1,255 @@
+package com.example.android.inventory;
+
+/**
+ * Created by DK on 10/7/2016.
+ */
+
+import android.content.ContentUris;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.ImageView;
+import android.widget.TextView;
+import android.widget.Toast;
+import com.example.android.inventory.data.ProductContract;
+
+import java.util.List;
+
+/**
+ * {@link ProductListAdapter} is an adapter for a {@link RecyclerView} that uses a
+ * {@link ProductList} of product data as its data source. This adapter knows
+ * how to create list items for each row of product data in the {@link ProductList}.
+ *
+ * When a new snapshot arrives only the rows that changed are rebound, and a row whose
+ * quantities are the only change just gets its quantities updated.
+ *
+ * Binding a row does not allocate: views are kept in a {@link ViewHolder} and numbers are
+ * formatted into buffers owned by the holder.
+ */
+public class ProductListAdapter extends RecyclerView.Adapter<ProductListAdapter.ViewHolder> {
+
+    private final Context mContext;
+
+    private final ProductImageLoader mImageLoader;
+
+    /** Products currently shown */
+    private ProductList mList = ProductList.EMPTY;
+
+    /**
+     * Click listener shared by every row, opens the product in the {@link EditorActivity}.
+     */
+    private final View.OnClickListener mItemClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+
+            // Create new intent to go to {@link EditorActivity}
+            Intent intent = new Intent(mContext, EditorActivity.class);
+
+            // Form the content URI that represents the specific product that was clicked on,
+            // by appending the "id" onto the {@link ProductEntry#CONTENT_URI}.
+            // For example, the URI would be "content://com.example.android.inventory/inventory/2"
+            // if the product with ID 2 was clicked on.
+            intent.setData(ContentUris.withAppendedId
+                    (ProductContract.ProductEntry.CONTENT_URI, holder.mId));
+
+            // Launch the {@link EditorActivity} to display the data for the current product.
+            mContext.startActivity(intent);
+        }
+    };
+
+    /**
+     * Click listener shared by the sold button of every row. The row it belongs to is found
+     * through the {@link ViewHolder} set as the tag of the button.
+     */
+    private final View.OnClickListener mSoldClickListener = new View.OnClickListener() {
+        @Override
+        public void onClick(View view) {
+            ViewHolder holder = (ViewHolder) view.getTag();
+
+            // Subtract 1 from inventory and add 1 to the sold count in one atomic step,
+            // the provider refuses the sale if there is no inventory left.
+            Bundle extras = new Bundle();
+            extras.putLong(ProductContract.EXTRA_PRODUCT_ID, holder.mId);
+            extras.putInt(ProductContract.EXTRA_QUANTITY_DELTA, -1);
+            extras.putInt(ProductContract.EXTRA_SOLD_DELTA, 1);
+            Bundle result = mContext.getContentResolver().call(
+                    ProductContract.ProductEntry.CONTENT_URI, ProductContract.METHOD_ADJUST_STOCK,
+                    null, extras);
+            if (result == null) {
+                // The product was deleted in the meantime
+                return;
+            }
+
+            // Display the current quantities until the list is reloaded
+            holder.bindQuantities(result.getInt(ProductContract.EXTRA_QUANTITY),
+                    result.getInt(ProductContract.EXTRA_SOLD));
+
+            if (!result.getBoolean(ProductContract.EXTRA_ADJUSTED)) {
+                // If quantity is 0 then show Toast saying no more inventory
+                // available for sale.
+                Toast.makeText(mContext, mContext.getString(R.string.editor_no_inventory),
+                        Toast.LENGTH_SHORT).show();
+            }
+        }
+    };
+
+    /**
+     * Constructs a new {@link ProductListAdapter}.
+     *
+     * @param context The context
+     */
+    public ProductListAdapter(Context context) {
+        mContext = context;
+        mImageLoader = ProductImageLoader.getInstance(context);
+        setHasStableIds(true);
+    }
+
+    /**
+     * Show a new snapshot of the products. If the snapshot was compared with the one shown
+     * so far, only the rows that changed are updated.
+     */
+    public void swapList(ProductList list) {
+        if (list == null) {
+            list = ProductList.EMPTY;
+        }
+        if (list == mList) {
+            return;
+        }
+
+        ProductList old = mList;
+        DiffUtil.DiffResult diff = list.getDiff(old);
+        mList = list;
+        list.releaseDiff();
+        if (diff != null) {
+            diff.dispatchUpdatesTo(this);
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return mList.size();
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mList.getId(position);
+    }
+
+    /**
+     * Makes a new blank list item view. No data is set (or bound) to the views yet.
+     */
+    @Override
+    public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(mContext).inflate(R.layout.list_item, parent, false);
+        ViewHolder holder = new ViewHolder(view);
+        view.setTag(holder);
+        view.setOnClickListener(mItemClickListener);
+        holder.mSoldButton.setTag(holder);
+        holder.mSoldButton.setOnClickListener(mSoldClickListener);
+        return holder;
+    }
+
+    /**
+     * This method binds the product data at the given position to the list item layout.
+     * For example, the name for the current product can be set on the name TextView
+     * in the list item layout.
+     */
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position) {
+        long id = mList.getId(position);
+        String imageRef = mList.getImageRef(position);
+
+        // Update the TextViews with the attributes for the current product
+        holder.mNameTextView.setText(mList.getName(position));
+        int priceLength = PriceFormat.formatPrice(mList.getPriceCents(position),
+                holder.mPriceBuffer);
+        holder.mPriceTextView.setText(holder.mPriceBuffer, 0, priceLength);
+        holder.bindQuantities(mList.getQuantity(position), mList.getSold(position));
+
+        // Only ask for the thumbnail if the row now shows another product or image
+        if (id != holder.mId || !equals(imageRef, holder.mImageRef)) {
+            holder.mId = id;
+            holder.mImageRef = imageRef;
+            // The thumbnail is decoded in the background and shows up once it is ready
+            mImageLoader.load(id, imageRef, holder.mThumbnailImageView);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(ViewHolder holder, int position, List<Object> payloads) {
+        if (payloads.size() == 1 && payloads.get(0) == ProductList.PAYLOAD_QUANTITIES) {
+            // Only the quantities of the product changed
+            holder.bindQuantities(mList.getQuantity(position), mList.getSold(position));
+        } else {
+            onBindViewHolder(holder, position);
+        }
+    }
+
+    /**
+     * Called when a list item view scrolls off screen, or the list is torn down. Stops loading
+     * its thumbnail and gives the thumbnail back to the image loader.
+     */
+    @Override
+    public void onViewRecycled(ViewHolder holder) {
+        mImageLoader.clear(holder.mThumbnailImageView);
+        // Forget the bound product, so the thumbnail is asked for again on the next bind
+        holder.mId = -1;
+        holder.mImageRef = null;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Views of a list item together with the product currently bound to them.
+     */
+    static class ViewHolder extends RecyclerView.ViewHolder {
+
+        final TextView mNameTextView;
+        final TextView mPriceTextView;
+        final TextView mQuantityTextView;
+        final TextView mSoldTextView;
+        final ImageView mThumbnailImageView;
+        final Button mSoldButton;
+
+        // Buffers reused every time the row is bound
+        final char[] mPriceBuffer = new char[PriceFormat.MAX_LENGTH];
+        final char[] mQuantityBuffer = new char[PriceFormat.MAX_LENGTH];
+        final char[] mSoldBuffer = new char[PriceFormat.MAX_LENGTH];
+
+        // Product currently bound to the row
+        long mId = -1;
+        String mImageRef;
+        int mQuantity;
+        int mSold;
+
+        ViewHolder(View view) {
+            super(view);
+            // Find individual views that we want to modify in the list item layout
+            mNameTextView = (TextView) view.findViewById(R.id.name);
+            mPriceTextView = (TextView) view.findViewById(R.id.price);
+            mQuantityTextView = (TextView) view.findViewById(R.id.quantity_current);
+            mSoldTextView = (TextView) view.findViewById(R.id.quantity_sold);
+            mThumbnailImageView = (ImageView) view.findViewById(R.id.thumbnail);
+            mSoldButton = (Button) view.findViewById(R.id.listViewSold);
+        }
+
+        void bindQuantities(int quantity, int sold) {
+            mQuantity = quantity;
+            mSold = sold;
+            mQuantityTextView.setText(mQuantityBuffer, 0,
+                    PriceFormat.formatNumber(quantity, mQuantityBuffer));
+            mSoldTextView.setText(mSoldBuffer, 0, PriceFormat.formatNumber(sold, mSoldBuffer));
+        }
+    }
+}
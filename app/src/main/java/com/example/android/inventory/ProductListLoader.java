@@ -0,0 +1,313 @@
+package com.example.android.inventory;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.net.Uri;
+import android.os.Handler;
+import android.support.v4.util.LongSparseArray;
+import android.text.TextUtils;
+import com.example.android.inventory.data.ProductContract;
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+import com.example.android.inventory.data.ProductKeyset;
+
+/**
+ * Loads the catalog as a {@link ProductList} on a background thread, either all products or
+ * the ones matching a search, in the order and with the filter set by {@link #setOrder}.
+ * Products are loaded a page at a time, the next page when the list asks for it with
+ * {@link #loadMore()}.
+ *
+ * Every new snapshot is compared with the one delivered before it while still in the
+ * background, so the UI thread only has to apply the rows that actually changed.
+ */
+public class ProductListLoader extends AsyncTaskLoader<ProductList> {
+
+    /** Number of products loaded per page */
+    private static final int PAGE_SIZE = 100;
+
+    /** Changed products read one by one, beyond this the whole list is reloaded */
+    private static final int MAX_PATCHED_PRODUCTS = 100;
+
+    /** Reloads the catalog whenever the inventory changes */
+    private final ContentObserver mObserver = new ContentObserver(new Handler()) {
+        @Override
+        public boolean deliverSelfNotifications() {
+            return true;
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            // Before Jelly Bean observers are not told what changed
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (!recordChange(uri)) {
+                mReloadAll = true;
+            }
+            onContentChanged();
+        }
+    };
+
+    /** Snapshot last delivered to the UI */
+    private volatile ProductList mList;
+
+    private boolean mObserverRegistered;
+
+    /** Text the products are searched for, or null to load all products */
+    private volatile String mQuery;
+
+    /** Order of the products, one of the SORT_BY_ orders of the contract, or null for _id */
+    private volatile String mSortOrder;
+
+    /** Filter of the products, such as {@link ProductEntry#SELECTION_IN_STOCK}, or null */
+    private volatile String mSelection;
+
+    /** Number of products the list wants loaded */
+    private volatile int mLimit = PAGE_SIZE;
+
+    /**
+     * True if the products already loaded have to be read again, false if only changed
+     * products and the next page have to be read.
+     */
+    private volatile boolean mReloadAll = true;
+
+    /** Products that changed since the last load, with the kind of change */
+    private final LongSparseArray<String> mChanges = new LongSparseArray<>();
+
+    public ProductListLoader(Context context) {
+        super(context);
+    }
+
+    /**
+     * Search the products for the given text, or load all of them if it is empty. The new
+     * result is compared with the one shown, so rows that stay are kept in place.
+     */
+    public void setQuery(String query) {
+        if (TextUtils.isEmpty(query)) {
+            query = null;
+        }
+        if (TextUtils.equals(query, mQuery)) {
+            return;
+        }
+        mQuery = query;
+        mLimit = PAGE_SIZE;
+        mReloadAll = true;
+        onContentChanged();
+    }
+
+    /**
+     * Load the products in the given order and only the ones matching the given selection.
+     * Both are indexed by the provider, so pages in any order cost about the same.
+     *
+     * @param sortOrder one of the SORT_BY_ orders of {@link ProductEntry}, or null to load the
+     *                  products in the order they were added
+     * @param selection {@link ProductEntry#SELECTION_IN_STOCK}, or null for all products
+     */
+    public void setOrder(String sortOrder, String selection) {
+        if (TextUtils.equals(sortOrder, mSortOrder) && TextUtils.equals(selection, mSelection)) {
+            return;
+        }
+        mSortOrder = sortOrder;
+        mSelection = selection;
+        mLimit = PAGE_SIZE;
+        mReloadAll = true;
+        onContentChanged();
+    }
+
+    /**
+     * Load the next page of products, unless all products are loaded or the page is already
+     * being loaded.
+     */
+    public void loadMore() {
+        ProductList list = mList;
+        if (list == null || !list.hasMore() || mLimit > list.size()) {
+            return;
+        }
+        mLimit = list.size() + PAGE_SIZE;
+        onContentChanged();
+    }
+
+    // Remember a change to a single product, so only that product has to be read again.
+    // Returns false if the notification does not tell which product changed.
+    private boolean recordChange(Uri uri) {
+        String change = uri == null ? null : ProductEntry.getChange(uri);
+        if (change == null) {
+            return false;
+        }
+        synchronized (mChanges) {
+            if (mChanges.size() >= MAX_PATCHED_PRODUCTS) {
+                return false;
+            }
+            mChanges.put(ContentUris.parseId(uri), change);
+        }
+        return true;
+    }
+
+    @Override
+    public ProductList loadInBackground() {
+        String query = mQuery;
+        String sortOrder = mSortOrder;
+        String selection = mSelection;
+        int limit = mLimit;
+        boolean reloadAll = mReloadAll;
+        mReloadAll = false;
+        ProductList previous = mList;
+
+        long[] changedIds;
+        long[] queryIds;
+        synchronized (mChanges) {
+            changedIds = new long[mChanges.size()];
+            int queryCount = 0;
+            for (int i = 0; i < mChanges.size(); i++) {
+                changedIds[i] = mChanges.keyAt(i);
+                if (!ProductContract.CHANGE_DELETE.equals(mChanges.valueAt(i))) {
+                    queryCount++;
+                }
+            }
+            // Deleted products do not have to be read
+            queryIds = new long[queryCount];
+            for (int i = 0, j = 0; i < mChanges.size(); i++) {
+                if (!ProductContract.CHANGE_DELETE.equals(mChanges.valueAt(i))) {
+                    queryIds[j++] = mChanges.keyAt(i);
+                }
+            }
+            mChanges.clear();
+        }
+
+        // Search results are ranked and sorted or filtered products move around as their
+        // columns change, so any change may move them around and they are read again. Pages
+        // by _id are only patched in the order they were added.
+        boolean ordered = query != null || sortOrder != null || selection != null;
+        if (query == null && sortOrder == null) {
+            sortOrder = ProductEntry._ID;
+        }
+        ProductList list;
+        if (reloadAll || previous == null || (ordered && changedIds.length > 0)) {
+            Uri uri;
+            if (query != null) {
+                uri = ProductEntry.buildSearchUri(query);
+            } else if (ordered) {
+                uri = ProductEntry.CONTENT_URI;
+            } else {
+                uri = ProductEntry.buildPageUri(0, limit);
+            }
+            list = load(withLimit(uri, limit), selection, null, sortOrder, limit);
+        } else {
+            list = previous;
+            if (changedIds.length > 0) {
+                // Only read the products that changed and patch them into the snapshot
+                list = list.patch(changedIds, loadProducts(queryIds));
+            }
+            if (limit > list.size() && list.hasMore() && list.size() > 0) {
+                // Only read the page after the last product shown, by the columns of its order
+                int pageSize = limit - list.size();
+                ProductKeyset keyset = list.keysetAfter(list.size() - 1, sortOrder,
+                        query == null ? null : ProductEntry.splitSearchText(query)[0]);
+                Uri uri = query == null ? ProductEntry.CONTENT_URI
+                        : ProductEntry.buildSearchUri(query);
+                ProductList page = load(withLimit(uri, pageSize),
+                        DatabaseUtils.concatenateWhere(selection, keyset.getSelection()),
+                        keyset.getSelectionArgs(), sortOrder, pageSize);
+                list = list.append(page);
+            }
+        }
+
+        if (previous != null && list != previous) {
+            list.diffFrom(previous);
+        }
+        return list;
+    }
+
+    private static Uri withLimit(Uri uri, int limit) {
+        if (uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT) != null) {
+            return uri;
+        }
+        return uri.buildUpon()
+                .appendQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                .build();
+    }
+
+    // Load the products with the given ids, ordered by id
+    private ProductList loadProducts(long[] ids) {
+        if (ids.length == 0) {
+            return ProductList.EMPTY;
+        }
+        StringBuilder selection = new StringBuilder(ProductEntry._ID).append(" IN (");
+        String[] selectionArgs = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            selection.append(i == 0 ? "?" : ",?");
+            selectionArgs[i] = String.valueOf(ids[i]);
+        }
+        selection.append(')');
+        return load(ProductEntry.CONTENT_URI, selection.toString(), selectionArgs,
+                ProductEntry._ID, Integer.MAX_VALUE);
+    }
+
+    // Load the products at the given URI, which returns at most limit rows
+    private ProductList load(Uri uri, String selection, String[] selectionArgs,
+                             String sortOrder, int limit) {
+        Cursor cursor = getContext().getContentResolver().query(uri,
+                ProductList.PROJECTION, selection, selectionArgs, sortOrder);
+        if (cursor == null) {
+            return ProductList.EMPTY;
+        }
+        try {
+            return ProductList.fromCursor(cursor, limit);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void onCanceled(ProductList list) {
+        // The canceled load may have been the one reading the changed products
+        mReloadAll = true;
+    }
+
+    @Override
+    public void deliverResult(ProductList list) {
+        if (isReset()) {
+            return;
+        }
+        mList = list;
+        if (isStarted()) {
+            super.deliverResult(list);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserverRegistered) {
+            getContext().getContentResolver().registerContentObserver(ProductEntry.CONTENT_URI,
+                    true, mObserver);
+            mObserverRegistered = true;
+        }
+        if (mList != null) {
+            deliverResult(mList);
+        }
+        if (takeContentChanged() || mList == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        if (mObserverRegistered) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserverRegistered = false;
+        }
+        mList = null;
+    }
+}
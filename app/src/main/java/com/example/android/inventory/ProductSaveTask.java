@@ -0,0 +1,147 @@
+package com.example.android.inventory;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.SQLException;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+import com.example.android.inventory.data.ProductContract;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * Saves a product on a background thread: encodes its image, if it changed, and inserts or
+ * updates the product. The values are validated by the editor before the task starts, the
+ * outcome is shown as a toast.
+ *
+ * The task only holds the application context, so the editor can finish right away without
+ * being kept alive until the product is written.
+ */
+class ProductSaveTask extends AsyncTask<Void, Void, Integer> {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ProductSaveTask.class.getSimpleName();
+
+    /**
+     * Saves run one after the other, in the order the user made them, without waiting for
+     * imports or exports running on the shared executor.
+     */
+    private static final Executor SAVE_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    /**
+     * Receives the timings of every save, for instance from a benchmark. Called on the UI
+     * thread once the product is written.
+     */
+    interface TimingListener {
+
+        /**
+         * @param startupMillis time from opening the editor to the product being written
+         * @param encodeMillis time spent encoding the image, 0 if it did not change
+         * @param writeMillis time spent writing the product to the provider
+         */
+        void onSaveTimed(long startupMillis, long encodeMillis, long writeMillis);
+    }
+
+    private static volatile TimingListener sTimingListener;
+
+    /** Application context, outlives the editor that started the save */
+    private final Context mContext;
+
+    /** Product to update, or null to insert a new one */
+    private final Uri mProductUri;
+
+    private final ContentValues mValues;
+
+    /** Image to encode into the values, or null to leave the image as it is */
+    private final Bitmap mImage;
+
+    /** Time the editor was opened, in {@link SystemClock#elapsedRealtime()} */
+    private final long mStartTime;
+
+    private long mEncodeMillis;
+    private long mWriteMillis;
+
+    /**
+     * @param productUri product to update, or null to insert a new one
+     * @param values validated values of the product
+     * @param image new image of the product, or null if it did not change
+     * @param startTime time the editor was opened, in {@link SystemClock#elapsedRealtime()}
+     */
+    ProductSaveTask(Context context, Uri productUri, ContentValues values, Bitmap image,
+                    long startTime) {
+        mContext = context.getApplicationContext();
+        mProductUri = productUri;
+        mValues = values;
+        mImage = image;
+        mStartTime = startTime;
+    }
+
+    /**
+     * Set the listener receiving the timings of every save, or null to stop timing them.
+     */
+    static void setTimingListener(TimingListener listener) {
+        sTimingListener = listener;
+    }
+
+    /**
+     * Start the save on the save thread.
+     */
+    void start() {
+        executeOnExecutor(SAVE_EXECUTOR);
+    }
+
+    @Override
+    protected Integer doInBackground(Void... params) {
+        long encodeStart = SystemClock.elapsedRealtime();
+        if (mImage != null) {
+            // This converts image into a byteArray so that it can be saved in the database.
+            mValues.put(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE,
+                    ProductImageCodec.encode(mImage));
+        }
+        long writeStart = SystemClock.elapsedRealtime();
+        mEncodeMillis = writeStart - encodeStart;
+
+        ContentResolver resolver = mContext.getContentResolver();
+        try {
+            if (mProductUri == null) {
+                // This is a NEW product, so insert a new product into the provider,
+                // returning the content URI for the new product.
+                Uri newUri = resolver.insert(ProductContract.ProductEntry.CONTENT_URI, mValues);
+                return newUri == null ? R.string.editor_insert_product_failed
+                        : R.string.editor_insert_product_successful;
+            } else {
+                // Otherwise this is an EXISTING product, so update the product with its URI.
+                int rowsAffected = resolver.update(mProductUri, mValues, null, null);
+                return rowsAffected == 0 ? R.string.editor_update_product_failed
+                        : R.string.editor_update_product_successful;
+            }
+        } catch (IllegalArgumentException | SQLException e) {
+            Log.e(LOG_TAG, "Failed to save product", e);
+            return mProductUri == null ? R.string.editor_insert_product_failed
+                    : R.string.editor_update_product_failed;
+        } finally {
+            mWriteMillis = SystemClock.elapsedRealtime() - writeStart;
+        }
+    }
+
+    @Override
+    protected void onPostExecute(Integer message) {
+        Toast.makeText(mContext, message, Toast.LENGTH_SHORT).show();
+
+        long startupMillis = SystemClock.elapsedRealtime() - mStartTime;
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            Log.d(LOG_TAG, "Saved after " + startupMillis + " ms, encoding took "
+                    + mEncodeMillis + " ms, writing " + mWriteMillis + " ms");
+        }
+        TimingListener listener = sTimingListener;
+        if (listener != null) {
+            listener.onSaveTimed(startupMillis, mEncodeMillis, mWriteMillis);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package com.example.android.inventory;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.support.v7.app.ActionBar;
+import android.support.v7.app.AppCompatActivity;
+import android.widget.Toast;
+import com.example.android.inventory.data.ProductExporter;
+import com.example.android.inventory.data.ProductImporter;
+import com.example.android.inventory.data.ProductTransfer;
+import com.example.android.inventory.data.PurchaseOrderWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+
+/**
+ * Imports products from a file or exports them to one on a background thread, or writes the
+ * purchase orders of the products low on stock. The progress is shown as the subtitle of the
+ * app bar, the outcome as a toast.
+ */
+class ProductTransferTask extends AsyncTask<Void, Long, String>
+        implements ProductTransfer.ProgressListener {
+
+    /** Application context, outlives the activity that started the transfer */
+    private final Context mContext;
+
+    /** Activity showing the progress, not kept alive by the transfer */
+    private final WeakReference<AppCompatActivity> mActivity;
+
+    /** File to import, or null when exporting */
+    private final Uri mImportUri;
+
+    /** File to export to, or null when importing */
+    private final File mExportFile;
+
+    /** Directory to write purchase orders to, or null when importing or exporting */
+    private final File mOrderDirectory;
+
+    private final int mFormat;
+
+    private ProductTransferTask(AppCompatActivity activity, Uri importUri, File exportFile,
+                                File orderDirectory, int format) {
+        mContext = activity.getApplicationContext();
+        mActivity = new WeakReference<>(activity);
+        mImportUri = importUri;
+        mExportFile = exportFile;
+        mOrderDirectory = orderDirectory;
+        mFormat = format;
+    }
+
+    /**
+     * Create a task importing the products in the given file.
+     */
+    static ProductTransferTask forImport(AppCompatActivity activity, Uri uri, int format) {
+        return new ProductTransferTask(activity, uri, null, null, format);
+    }
+
+    /**
+     * Create a task exporting all products to the given file.
+     */
+    static ProductTransferTask forExport(AppCompatActivity activity, File file, int format) {
+        return new ProductTransferTask(activity, null, file, null, format);
+    }
+
+    /**
+     * Create a task writing a purchase order per supplier into the given directory.
+     */
+    static ProductTransferTask forPurchaseOrders(AppCompatActivity activity, File directory) {
+        return new ProductTransferTask(activity, null, null, directory, 0);
+    }
+
+    @Override
+    protected String doInBackground(Void... params) {
+        ContentResolver resolver = mContext.getContentResolver();
+        try {
+            if (mOrderDirectory != null) {
+                int orders = new PurchaseOrderWriter(resolver).writeOrders(mOrderDirectory);
+                return mContext.getString(R.string.purchase_orders_done, orders,
+                        mOrderDirectory.getPath());
+            } else if (mImportUri != null) {
+                InputStream in = resolver.openInputStream(mImportUri);
+                if (in == null) {
+                    return mContext.getString(R.string.import_failed);
+                }
+                try {
+                    ProductImporter importer = new ProductImporter(resolver, this);
+                    long imported = importer.importProducts(in, mFormat);
+                    return mContext.getString(R.string.import_done, imported,
+                            importer.getRejectedCount());
+                } finally {
+                    in.close();
+                }
+            } else {
+                OutputStream out = new FileOutputStream(mExportFile);
+                try {
+                    long exported = new ProductExporter(resolver, this)
+                            .exportProducts(out, mFormat);
+                    return mContext.getString(R.string.export_done, exported,
+                            mExportFile.getPath());
+                } finally {
+                    out.close();
+                }
+            }
+        } catch (IOException | SQLException e) {
+            if (mOrderDirectory != null) {
+                return mContext.getString(R.string.purchase_orders_failed);
+            }
+            return mContext.getString(mImportUri != null
+                    ? R.string.import_failed : R.string.export_failed);
+        }
+    }
+
+    @Override
+    public void onProgress(long rows, long rejected, long elapsedMillis) {
+        publishProgress(rows, elapsedMillis);
+    }
+
+    @Override
+    protected void onProgressUpdate(Long... values) {
+        long rows = values[0];
+        long elapsedMillis = values[1];
+        long rowsPerSecond = elapsedMillis == 0 ? 0 : rows * 1000 / elapsedMillis;
+        setSubtitle(mContext.getString(R.string.transfer_progress, rows, rowsPerSecond));
+    }
+
+    @Override
+    protected void onPostExecute(String message) {
+        setSubtitle(null);
+        Toast.makeText(mContext, message, Toast.LENGTH_LONG).show();
+    }
+
+    private void setSubtitle(String subtitle) {
+        AppCompatActivity activity = mActivity.get();
+        ActionBar actionBar = activity == null ? null : activity.getSupportActionBar();
+        if (actionBar != null) {
+            actionBar.setSubtitle(subtitle);
+        }
+    }
+}
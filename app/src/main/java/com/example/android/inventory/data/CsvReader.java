@@ -0,0 +1,102 @@
+package com.example.android.inventory.data;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads comma separated values one record at a time. Fields may be quoted with double quotes,
+ * in which case they can contain commas, line breaks and doubled quotes.
+ *
+ * Only the current record is held in memory, so files of any size can be read.
+ */
+class CsvReader {
+
+    private final Reader mReader;
+
+    private final char[] mBuffer = new char[8192];
+    private int mPosition;
+    private int mLimit;
+
+    /** Fields of the current record, reused for every record */
+    private final List<String> mFields = new ArrayList<>();
+    private final StringBuilder mField = new StringBuilder();
+
+    CsvReader(Reader reader) {
+        mReader = reader;
+    }
+
+    /**
+     * Read the next record. Returns null at the end of the input. The returned list is
+     * reused by the next call.
+     */
+    List<String> readRecord() throws IOException {
+        mFields.clear();
+        int c = read();
+        if (c == -1) {
+            return null;
+        }
+
+        while (true) {
+            mField.setLength(0);
+            if (c == '"') {
+                // Quoted field, runs until a quote that is not doubled
+                while (true) {
+                    c = read();
+                    if (c == -1) {
+                        throw new IOException("Unterminated quoted field");
+                    }
+                    if (c == '"') {
+                        c = read();
+                        if (c != '"') {
+                            break;
+                        }
+                    }
+                    mField.append((char) c);
+                }
+            } else {
+                while (c != ',' && c != '\n' && c != '\r' && c != -1) {
+                    mField.append((char) c);
+                    c = read();
+                }
+            }
+            mFields.add(mField.toString());
+
+            if (c == ',') {
+                c = read();
+            } else if (c == '\r' || c == '\n' || c == -1) {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                return mFields;
+            } else {
+                throw new IOException("Unexpected character after quoted field");
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition++];
+    }
+
+    private int peek() throws IOException {
+        if (mPosition == mLimit && !fill()) {
+            return -1;
+        }
+        return mBuffer[mPosition];
+    }
+
+    private boolean fill() throws IOException {
+        int count = mReader.read(mBuffer, 0, mBuffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        mPosition = 0;
+        mLimit = count;
+        return true;
+    }
+}
@@ -1,8 +1,14 @@
 package com.example.android.inventory.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
+
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by DK on 8/27/2016.
@@ -30,6 +36,137 @@ public final class ProductContract {
      */
     public static final String PATH_PRODUCTS = "inventory";
 
+    /**
+     * Path appended to the products path for searches, followed by the search text
+     */
+    public static final String PATH_SEARCH = "search";
+
+    /**
+     * Path appended to the products path for the products below their reorder level
+     */
+    public static final String PATH_LOW_STOCK = "low_stock";
+
+    /**
+     * Path appended to the products path for the totals of the whole inventory
+     */
+    public static final String PATH_SUMMARY = "summary";
+
+    /**
+     * Path appended to the products path for the history of stock movements
+     */
+    public static final String PATH_MOVEMENTS = "movements";
+
+    /**
+     * Path of the store locations, appended to the base content URI
+     */
+    public static final String PATH_LOCATIONS = "locations";
+
+    /**
+     * Path appended to the URI of a location for the stock kept there
+     */
+    public static final String PATH_STOCK = "stock";
+
+    /**
+     * Query parameter limiting the number of rows returned by a query
+     */
+    public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+    /**
+     * Query parameter of {@link ProductEntry#CONTENT_URI} that only returns the products with
+     * a larger _id, ordered by _id. Paging with it costs the same for every page, unlike an
+     * offset which has to skip all earlier rows.
+     */
+    public static final String QUERY_PARAMETER_AFTER_ID = "after_id";
+
+    /**
+     * Query parameter of the item URIs observers are notified with, telling what happened to
+     * the product: {@link #CHANGE_INSERT}, {@link #CHANGE_UPDATE} or {@link #CHANGE_DELETE}.
+     * A notification for {@link ProductEntry#CONTENT_URI} itself means any products may have
+     * changed.
+     */
+    public static final String QUERY_PARAMETER_CHANGE = "change";
+
+    // Values of {@link #QUERY_PARAMETER_CHANGE}
+    public static final String CHANGE_INSERT = "insert";
+    public static final String CHANGE_UPDATE = "update";
+    public static final String CHANGE_DELETE = "delete";
+
+    /**
+     * Method for {@link ContentResolver#call} that atomically adds {@link #EXTRA_QUANTITY_DELTA}
+     * to the quantity and {@link #EXTRA_SOLD_DELTA} to the quantity sold of the product with id
+     * {@link #EXTRA_PRODUCT_ID}. The change is rejected if the quantity would go negative.
+     *
+     * Returns null if there is no such product. Otherwise the returned Bundle holds
+     * {@link #EXTRA_ADJUSTED}, and {@link #EXTRA_QUANTITY} and {@link #EXTRA_SOLD} with the
+     * quantities of the product after the call.
+     *
+     * With {@link #EXTRA_LOCATION_ID} the adjustment is made to the stock of the product at
+     * that location, which must not go negative, and the returned quantities are the ones at
+     * the location. The totals of the product change along with it. Returns null as well if
+     * there is no such location.
+     *
+     * Adjustments are buffered and written to the database together shortly after. Queries
+     * made in the meantime already include them. Every adjustment is kept as a stock
+     * movement, with the {@link #EXTRA_REASON} if one is given. Without one it counts as a
+     * sale if it sells units, as a receipt if it adds units and as a removal otherwise.
+     */
+    public static final String METHOD_ADJUST_STOCK = "adjust_stock";
+
+    /**
+     * Method for {@link ContentResolver#call} that writes all buffered stock adjustments to
+     * the stock movement ledger before it returns. They are added to the quantities of the
+     * products a while later, in the background.
+     */
+    public static final String METHOD_FLUSH_STOCK = "flush_stock";
+
+    /**
+     * Method for {@link ContentResolver#call} that returns the counters of the cache of
+     * products read by id: {@link #EXTRA_CACHE_HITS}, {@link #EXTRA_CACHE_MISSES},
+     * {@link #EXTRA_CACHE_EVICTIONS}, {@link #EXTRA_CACHE_SIZE} and
+     * {@link #EXTRA_CACHE_MAX_SIZE}.
+     */
+    public static final String METHOD_ROW_CACHE_STATS = "row_cache_stats";
+
+    // Keys of the extras returned by {@link #METHOD_ROW_CACHE_STATS}.
+    public static final String EXTRA_CACHE_HITS = "cache_hits";
+    public static final String EXTRA_CACHE_MISSES = "cache_misses";
+    public static final String EXTRA_CACHE_EVICTIONS = "cache_evictions";
+    public static final String EXTRA_CACHE_SIZE = "cache_size";
+    public static final String EXTRA_CACHE_MAX_SIZE = "cache_max_size";
+
+    /**
+     * Method for {@link ContentResolver#call} that returns the latency histograms of the
+     * provider. The result holds a {@link android.os.Bundle} for every operation and URI that
+     * was used, under keys like "query.products" or "update.product", with
+     * {@link #EXTRA_STATS_COUNT} operations, their {@link #EXTRA_STATS_TOTAL_US} and
+     * {@link #EXTRA_STATS_MAX_US} time, the {@link #EXTRA_STATS_ROWS} returned or written, for
+     * queries the {@link #EXTRA_STATS_WINDOWS} of rows the cursors needed at least,
+     * percentiles and the counts of the {@link #EXTRA_STATS_BUCKETS}, where bucket i counts
+     * the operations that took at least 2^i and less than 2^(i+1) microseconds.
+     */
+    public static final String METHOD_PROVIDER_STATS = "provider_stats";
+
+    // Keys of the extras returned by {@link #METHOD_PROVIDER_STATS} for each operation.
+    public static final String EXTRA_STATS_COUNT = "count";
+    public static final String EXTRA_STATS_TOTAL_US = "total_us";
+    public static final String EXTRA_STATS_MAX_US = "max_us";
+    public static final String EXTRA_STATS_ROWS = "rows";
+    public static final String EXTRA_STATS_WINDOWS = "windows";
+    public static final String EXTRA_STATS_P50_US = "p50_us";
+    public static final String EXTRA_STATS_P90_US = "p90_us";
+    public static final String EXTRA_STATS_P99_US = "p99_us";
+    public static final String EXTRA_STATS_BUCKETS = "buckets";
+
+    // Keys of the extras passed to and returned by {@link #METHOD_ADJUST_STOCK}.
+    public static final String EXTRA_PRODUCT_ID = "product_id";
+    public static final String EXTRA_QUANTITY_DELTA = "quantity_delta";
+    public static final String EXTRA_SOLD_DELTA = "sold_delta";
+    public static final String EXTRA_REASON = "reason";
+    public static final String EXTRA_LOCATION_ID = "location_id";
+    public static final String EXTRA_ADJUSTED = "adjusted";
+    public static final String EXTRA_QUANTITY = "quantity";
+    public static final String EXTRA_SOLD = "sold";
+
     /**
      * Inner class that defines constant values for the inventory database table.
      * Each entry in the table represents a single product.
@@ -54,6 +191,152 @@ public final class ProductContract {
         // Name of database table for inventory
         public final static String TABLE_NAME = "inventory";
 
+        // Name of the full-text index on the product names (only for use in the database).
+        public final static String SEARCH_TABLE_NAME = "inventory_fts";
+
+        /**
+         * The content URI of the products whose quantity is below their reorder level, by
+         * default ordered by supplier and name. The products are found through an index, so
+         * the query does not read the other products.
+         */
+        public static final Uri LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI,
+                PATH_LOW_STOCK);
+
+        /**
+         * Returns the URI observers are notified with when the product with the given id had
+         * the given kind of change.
+         */
+        public static Uri buildChangeUri(long id, String change) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_CHANGE, change)
+                    .build();
+        }
+
+        /**
+         * Returns the kind of change a notification URI reports for a single product, or null
+         * if the notification is not about a single product.
+         */
+        public static String getChange(Uri uri) {
+            List<String> segments = uri.getPathSegments();
+            if (segments.size() != 2 || !PATH_PRODUCTS.equals(segments.get(0))
+                    || !TextUtils.isDigitsOnly(segments.get(1))) {
+                return null;
+            }
+            return uri.getQueryParameter(QUERY_PARAMETER_CHANGE);
+        }
+
+        /**
+         * Returns the URI of the page of at most limit products that follows the product with
+         * the given id, in order of _id. Use 0 for the first page.
+         */
+        public static Uri buildPageUri(long afterId, int limit) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_AFTER_ID, String.valueOf(afterId))
+                    .appendQueryParameter(QUERY_PARAMETER_LIMIT, String.valueOf(limit))
+                    .build();
+        }
+
+        /**
+         * Returns the price in cents of the product at the current row of a cursor that
+         * includes {@link #COLUMN_PRODUCT_PRICE_CENTS}.
+         */
+        public static long getPriceCents(Cursor cursor) {
+            return cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_PRODUCT_PRICE_CENTS));
+        }
+
+        /**
+         * Parse a price such as "12", "12.5" or "$12.50" into cents. Digits beyond the cents
+         * are rounded half up.
+         *
+         * @throws NumberFormatException if the text is not a price
+         */
+        public static long parsePriceCents(String text) {
+            String price = text.trim();
+            if (price.startsWith("$")) {
+                price = price.substring(1);
+            }
+            int point = price.indexOf('.');
+            String whole = point == -1 ? price : price.substring(0, point);
+            String fraction = point == -1 ? "" : price.substring(point + 1);
+            if ((whole.isEmpty() && fraction.isEmpty()) || !isAsciiDigits(whole)
+                    || !isAsciiDigits(fraction) || whole.length() > 15) {
+                throw new NumberFormatException("Invalid price " + text);
+            }
+
+            long cents = whole.isEmpty() ? 0 : Long.parseLong(whole) * 100;
+            if (fraction.length() > 0) {
+                cents += (fraction.charAt(0) - '0') * 10;
+            }
+            if (fraction.length() > 1) {
+                cents += fraction.charAt(1) - '0';
+            }
+            if (fraction.length() > 2 && fraction.charAt(2) >= '5') {
+                cents++;
+            }
+            return cents;
+        }
+
+        // Whether the text only has the digits 0-9. TextUtils.isDigitsOnly() passes other
+        // digits too, which the arithmetic of parsePriceCents() gets wrong.
+        private static boolean isAsciiDigits(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c < '0' || c > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Format a price in cents as a decimal number with two digits after the point, such
+         * as "12.50".
+         */
+        public static String formatPriceCents(long cents) {
+            StringBuilder text = new StringBuilder(24);
+            if (cents < 0) {
+                text.append('-');
+                cents = -cents;
+            }
+            long fraction = cents % 100;
+            text.append(cents / 100).append('.');
+            if (fraction < 10) {
+                text.append('0');
+            }
+            return text.append(fraction).toString();
+        }
+
+        /**
+         * Returns the URI of the products whose name has words starting with the words of the
+         * given text, best matches first. For example "red ap" finds "Red Apples".
+         */
+        public static Uri buildSearchUri(String text) {
+            return CONTENT_URI.buildUpon().appendPath(PATH_SEARCH).appendPath(text).build();
+        }
+
+        /**
+         * Split search text into lower case words made of letters and digits, which is how
+         * the full-text index splits the product names and how {@link #buildSearchUri} finds
+         * them.
+         */
+        public static String[] splitSearchText(String text) {
+            if (text == null) {
+                return new String[0];
+            }
+            ArrayList<String> words = new ArrayList<>();
+            int start = -1;
+            for (int i = 0; i <= text.length(); i++) {
+                boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+                if (wordChar && start == -1) {
+                    start = i;
+                } else if (!wordChar && start != -1) {
+                    words.add(text.substring(start, i).toLowerCase());
+                    start = -1;
+                }
+            }
+            return words.toArray(new String[words.size()]);
+        }
+
         // Unique ID number for the product (only for use in the database table).
         // Type: INTEGER
         public final static String _ID = BaseColumns._ID;
@@ -62,20 +345,216 @@ public final class ProductContract {
         // Type: TEXT
         public final static String COLUMN_PRODUCT_NAME = "name";
 
-        // Product price.
-        // Type: Double
-        public final static String COLUMN_PRODUCT_PRICE = "price";
+        // Product price in cents, so prices and their sums are exact. Read and write it with
+        // {@link #getPriceCents}, {@link #parsePriceCents} and {@link #formatPriceCents}.
+        // Type: Integer
+        public final static String COLUMN_PRODUCT_PRICE_CENTS = "price_cents";
 
-        // Product quantity.
+        // Product quantity, in total across all locations. Stock that is not assigned to any
+        // location only counts here.
         // Type: Integer
         public final static String COLUMN_PRODUCT_QUANTITY = "quantity";
 
-        // Product quantity sold.
+        // Product quantity sold, in total across all locations.
         // Type: Integer
         public final static String COLUMN_PRODUCT_SOLD = "sold";
 
-        // Product image.
-        // Type: byte[]
+        // Product image. The table only holds the reference (hash) of the image file kept by
+        // {@link ProductImageStore}. Callers pass the encoded image bytes as a byte[] on insert
+        // and update, and read the image back by opening the product URI with
+        // {@link ContentResolver#openInputStream}.
+        // Type: TEXT
         public final static String COLUMN_PRODUCT_IMAGE = "image";
+
+        // Quantity below which the product has to be reordered, or null if it is never
+        // reordered.
+        // Type: Integer
+        public final static String COLUMN_PRODUCT_REORDER_LEVEL = "reorder_level";
+
+        // Name of the supplier the product is ordered from.
+        // Type: TEXT
+        public final static String COLUMN_PRODUCT_SUPPLIER = "supplier";
+
+        // 1 if the quantity is below the reorder level, otherwise 0. Kept up to date by the
+        // database, read only.
+        // Type: Integer
+        public final static String COLUMN_PRODUCT_LOW_STOCK = "low_stock";
+
+        // Orders of the catalog. Each one follows an index, so a page of products is read
+        // without sorting the table first. The _id breaks ties, so pages do not overlap.
+        public final static String SORT_BY_NAME = COLUMN_PRODUCT_NAME + " COLLATE NOCASE, " + _ID;
+        public final static String SORT_BY_QUANTITY = COLUMN_PRODUCT_QUANTITY + ", " + _ID;
+        public final static String SORT_BY_SOLD = COLUMN_PRODUCT_SOLD + " DESC, " + _ID + " DESC";
+
+        // Selection of the products in stock, which can be combined with any of the orders.
+        public final static String SELECTION_IN_STOCK = COLUMN_PRODUCT_QUANTITY + ">0";
+    }
+
+    /**
+     * Inner class that defines constant values for the inventory summary table. The table has
+     * a single row holding the totals of all products. Triggers update it with every change
+     * to the inventory table, so reading the totals does not depend on the number of products.
+     */
+    public static final class SummaryEntry implements BaseColumns {
+
+        // The content URI to read the totals. It is only ever notified through
+        // {@link ProductEntry#CONTENT_URI}, so observe that URI to keep the totals current.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI,
+                PATH_SUMMARY);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for the totals.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS + "/" + PATH_SUMMARY;
+
+        // Name of database table for the totals
+        public final static String TABLE_NAME = "inventory_summary";
+
+        // Number of products.
+        // Type: Integer
+        public final static String COLUMN_PRODUCT_COUNT = "product_count";
+
+        // Sum of the quantities of all products.
+        // Type: Integer
+        public final static String COLUMN_UNITS_ON_HAND = "units_on_hand";
+
+        // Sum of the quantities sold of all products.
+        // Type: Integer
+        public final static String COLUMN_UNITS_SOLD = "units_sold";
+
+        // Sum of price times quantity of all products, in cents.
+        // Type: Integer
+        public final static String COLUMN_STOCK_VALUE_CENTS = "stock_value_cents";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock movements table. Each entry is
+     * a change of the quantities of a product. Entries are only ever appended, and dropped
+     * once they are older than the retention time of the history.
+     */
+    public static final class StockMovementEntry implements BaseColumns {
+
+        // The content URI to read the stock movements, in the order they happened. The
+        // movements cannot be written through the provider.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(ProductEntry.CONTENT_URI,
+                PATH_MOVEMENTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of stock movements.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_PRODUCTS + "/" + PATH_MOVEMENTS;
+
+        // Name of database table for the stock movements
+        public final static String TABLE_NAME = "stock_movements";
+
+        // The _id of the product that was changed.
+        // Type: Integer
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        // Change of the quantity.
+        // Type: Integer
+        public final static String COLUMN_QUANTITY_DELTA = "quantity_delta";
+
+        // Change of the quantity sold.
+        // Type: Integer
+        public final static String COLUMN_SOLD_DELTA = "sold_delta";
+
+        // Why the quantities changed, one of the REASON_ values.
+        // Type: String
+        public final static String COLUMN_REASON = "reason";
+
+        // Time of the change, in milliseconds since the epoch.
+        // Type: Integer
+        public final static String COLUMN_TIME = "time";
+
+        // The _id of the location whose stock was changed, or null if the change was not
+        // made at a location.
+        // Type: Integer
+        public final static String COLUMN_LOCATION_ID = "location_id";
+
+        // Possible values for the reason of a movement.
+        public final static String REASON_SALE = "sale";
+        public final static String REASON_RECEIPT = "receipt";
+        public final static String REASON_REMOVAL = "removal";
+        public final static String REASON_EDIT = "edit";
+    }
+
+    /**
+     * Inner class that defines constant values for the locations table. Each entry is a
+     * store or another place stock is kept, such as a back room.
+     */
+    public static final class LocationEntry implements BaseColumns {
+
+        // The content URI to access the locations in the provider.
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI,
+                PATH_LOCATIONS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of locations.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single location.
+         */
+        public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS;
+
+        // Name of database table for locations
+        public final static String TABLE_NAME = "locations";
+
+        /**
+         * Returns the URI of the stock kept at the location with the given id, with one
+         * {@link LocationStockEntry} row per product that was ever stocked there.
+         */
+        public static Uri buildStockUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id).buildUpon()
+                    .appendPath(PATH_STOCK).build();
+        }
+
+        // Unique ID number for the location (only for use in the database table).
+        // Type: INTEGER
+        public final static String _ID = BaseColumns._ID;
+
+        // Name of the location, unique among the locations.
+        // Type: TEXT
+        public final static String COLUMN_LOCATION_NAME = "name";
+    }
+
+    /**
+     * Inner class that defines constant values for the stock kept at each location. Each entry
+     * holds the quantities of one product at one location. Triggers add every change of them
+     * to the totals of the product, so the totals are never summed up again. Deleting a
+     * location leaves its stock in the totals, where it is no longer assigned to a location.
+     */
+    public static final class LocationStockEntry implements BaseColumns {
+
+        /**
+         * The MIME type of {@link LocationEntry#buildStockUri} for the stock of a location.
+         */
+        public static final String CONTENT_LIST_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE +
+                "/" + CONTENT_AUTHORITY + "/" + PATH_LOCATIONS + "/" + PATH_STOCK;
+
+        // Name of database table for the stock at the locations
+        public final static String TABLE_NAME = "location_stock";
+
+        // The _id of the location.
+        // Type: Integer
+        public final static String COLUMN_LOCATION_ID = "location_id";
+
+        // The _id of the product.
+        // Type: Integer
+        public final static String COLUMN_PRODUCT_ID = "product_id";
+
+        // Quantity of the product at the location.
+        // Type: Integer
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        // Quantity of the product sold at the location.
+        // Type: Integer
+        public final static String COLUMN_SOLD = "sold";
     }
 }
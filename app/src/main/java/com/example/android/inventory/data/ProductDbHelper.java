@@ -1,8 +1,17 @@
 package com.example.android.inventory.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import com.example.android.inventory.R;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by DK on 8/27/2016.
@@ -17,33 +26,331 @@ public class ProductDbHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "inventory.db";
 
     // Database version. If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 1;
+    // Version 2 moved product images out of the inventory table into the {@link ProductImageStore}.
+    // Version 3 added the full-text index on product names.
+    // Version 4 added the summary table with the totals of all products.
+    // Version 5 added the reorder level, the supplier and the low stock flag.
+    // Version 6 stores prices and the stock value as whole cents instead of REAL.
+    // Version 7 added the table tracking the backfills of the {@link SchemaMigrator}.
+    // Version 8 added the stock movement ledger.
+    // Version 9 added the locations and the stock kept at each of them.
+    // Version 10 added the indexes of the catalog orders.
+    private static final int DATABASE_VERSION = 10;
+
+    // Largest number of image rows moved out of the table per backfill chunk of version 2, so
+    // only a few images are in memory at a time.
+    private static final int IMAGE_MIGRATION_CHUNK_SIZE = 50;
+
+    // Store that holds the product image files referenced from the inventory table.
+    private final ProductImageStore mImageStore;
+
+    // Runs the schema steps of every version and the backfills they leave behind.
+    private final SchemaMigrator mMigrator;
+
+    // Compiled statements of the hot write paths, for the schema of the open database.
+    private final StatementCache mStatements = new StatementCache();
+
+    // Set while the backfill of version 2 still has image bytes to move out of the table.
+    private volatile boolean mMovingImages;
+
+    // Settings applied to the connection when the database is opened, see res/values/database.xml.
+    private final int mSynchronous;
+    private final int mMmapSizeKb;
+    private final int mWalAutocheckpointPages;
+    private final int mJournalSizeLimitKb;
 
     // Constructs a new instance of {@link ProductDbHelper}.
     // @param context of the app
     public ProductDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        mImageStore = new ProductImageStore(context);
+        mSynchronous = context.getResources().getInteger(R.integer.database_synchronous);
+        mMmapSizeKb = context.getResources().getInteger(R.integer.database_mmap_size_kb);
+        mWalAutocheckpointPages = context.getResources().getInteger(
+                R.integer.database_wal_autocheckpoint_pages);
+        mJournalSizeLimitKb = context.getResources().getInteger(
+                R.integer.database_journal_size_limit_kb);
+        mMigrator = new SchemaMigrator(createSteps(), context.getResources().getInteger(
+                R.integer.database_backfill_chunk_size));
+
+        // With write-ahead logging readers get connections of their own and no longer wait
+        // for the writer, nor the writer for them.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    // Returns the store that holds the product image files.
+    public ProductImageStore getImageStore() {
+        return mImageStore;
+    }
+
+    // Returns the cache of compiled write statements.
+    StatementCache getStatementCache() {
+        return mStatements;
+    }
+
+    // Returns true while some products may still hold image bytes instead of a reference to
+    // the image store. Queries read their images as ProductSchema.IMAGE_REF meanwhile.
+    boolean isMovingImages() {
+        return mMovingImages;
+    }
+
+    // Continue the backfills left by an upgrade on a background thread. The listener is told
+    // after every chunk, as the chunk changed products behind the back of the provider.
+    void startBackfills(SchemaMigrator.Listener listener) {
+        mMigrator.startBackfills(this, listener);
     }
 
     // This is called when the database is created for the first time.
     @Override
     public void onCreate(SQLiteDatabase db) {
-        // Create a String that contains the SQL statement to create the inventory table
-        String SQL_CREATE_PRODUCTS_TABLE = "CREATE TABLE " + ProductContract.ProductEntry.TABLE_NAME + " ("
-                + ProductContract.ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
-                + ProductContract.ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
-                + ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE + " REAL, "
-                + ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER, "
-                + ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD + " INTEGER, "
-                + ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE + " BLOB);";
-
-        // Execute the SQL statement
-        db.execSQL(SQL_CREATE_PRODUCTS_TABLE);
+        // Create the tables, indexes and triggers of the current version
+        for (String statement : ProductSchema.create()) {
+            db.execSQL(statement);
+        }
+        SchemaMigrator.createProgressTable(db);
     }
 
     // This is called when the database needs to be upgraded.
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to be done here.
+        // The steps run one version at a time, rows they rewrite are backfilled afterwards.
+        mMigrator.upgrade(db, oldVersion, newVersion);
+    }
+
+    // The schema steps, in the order of the versions they introduce. The summary of version 4
+    // is created in its current form by the version 6 step, version 7 only added the progress
+    // table, which every upgrade creates.
+    private List<SchemaMigrator.Step> createSteps() {
+        List<SchemaMigrator.Step> steps = new ArrayList<>();
+        steps.add(new SchemaMigrator.Step(2) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                // Until the backfill reaches them, products read as having no image
+                execSQL(db, ProductSchema.imageIndex());
+                mMovingImages = true;
+            }
+
+            @Override
+            boolean hasBackfill() {
+                return true;
+            }
+
+            @Override
+            long backfill(SQLiteDatabase db, long afterId, int limit) {
+                long reached = moveImagesToStore(db, afterId,
+                        Math.min(limit, IMAGE_MIGRATION_CHUNK_SIZE));
+                if (reached < 0) {
+                    mMovingImages = false;
+                }
+                return reached;
+            }
+
+            @Override
+            Object getLock() {
+                // The provider may release an image the chunk has stored but not committed yet
+                return mImageStore.getLock();
+            }
+
+            @Override
+            boolean freesSpace() {
+                return true;
+            }
+        });
+        steps.add(new SchemaMigrator.Step(3) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                execSQL(db, ProductSchema.searchIndex());
+            }
+
+            @Override
+            boolean hasBackfill() {
+                return true;
+            }
+
+            @Override
+            long backfill(SQLiteDatabase db, long afterId, int limit) {
+                return fillSearchIndex(db, afterId, limit);
+            }
+        });
+        steps.add(new SchemaMigrator.Step(5) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                db.execSQL("ALTER TABLE " + ProductContract.ProductEntry.TABLE_NAME
+                        + " ADD COLUMN " + ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL
+                        + " INTEGER;");
+                db.execSQL("ALTER TABLE " + ProductContract.ProductEntry.TABLE_NAME
+                        + " ADD COLUMN " + ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER
+                        + " TEXT;");
+                db.execSQL("ALTER TABLE " + ProductContract.ProductEntry.TABLE_NAME
+                        + " ADD COLUMN " + ProductContract.ProductEntry.COLUMN_PRODUCT_LOW_STOCK
+                        + " INTEGER NOT NULL DEFAULT 0;");
+                execSQL(db, ProductSchema.lowStockIndex());
+            }
+        });
+        steps.add(new SchemaMigrator.Step(6) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                // Products cannot be shown or edited without their price, so the prices are
+                // moved in the upgrade. A single UPDATE of one column is quick.
+                execSQL(db, ProductSchema.priceCents());
+            }
+        });
+        steps.add(new SchemaMigrator.Step(8) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                execSQL(db, ProductSchema.stockLedger());
+            }
+        });
+        steps.add(new SchemaMigrator.Step(9) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                // Existing stock is not assigned to any location, so nothing is rewritten
+                execSQL(db, ProductSchema.locations());
+            }
+        });
+        steps.add(new SchemaMigrator.Step(10) {
+            @Override
+            void migrate(SQLiteDatabase db) {
+                execSQL(db, ProductSchema.catalogIndexes());
+            }
+        });
+        return steps;
+    }
+
+    // This is called when the database has been opened, before it is created or upgraded, so
+    // the upgrade already runs with the settings of the connection.
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        if (!db.isReadOnly()) {
+            configure(db);
+        }
+    }
+
+    // This is called after the database has been opened (and created or upgraded if needed).
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        // Statements compiled before may not fit the schema the database was opened with
+        mStatements.clear();
+        if (!db.isReadOnly()) {
+            if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+                // Before Jelly Bean the helper cannot be told to open the database in WAL mode,
+                // and does not call onConfigure().
+                db.enableWriteAheadLogging();
+                configure(db);
+            }
+            foldStockLedger(db);
+        }
+        if (!mMovingImages) {
+            // The image backfill of an earlier run may not have finished
+            mMovingImages = SchemaMigrator.isBackfillPending(db, 2);
+        }
+    }
+
+    // Apply the settings of res/values/database.xml to the connection. Writes in WAL mode only
+    // need to be synced at checkpoints to survive a crash (NORMAL), a checkpoint runs once the
+    // log has grown by this many pages, and the log file is truncated back to the limit after
+    // it.
+    //
+    // Pragmas are set per connection, and only reach the primary connection of the pool: the
+    // connections SQLiteDatabase opens for concurrent readers get its own settings and nothing
+    // else. All writes and so all commits and checkpoints go through the primary connection,
+    // so the first three settings take full effect. Memory-mapped reads only apply to reads
+    // that run on it, see MixedAccessBenchmark for what the other readers miss.
+    private void configure(SQLiteDatabase db) {
+        setPragma(db, "synchronous", mSynchronous);
+        setPragma(db, "wal_autocheckpoint", mWalAutocheckpointPages);
+        setPragma(db, "journal_size_limit", mJournalSizeLimitKb * 1024L);
+        // Ignored by SQLite versions that do not support memory-mapped I/O
+        setPragma(db, "mmap_size", mMmapSizeKb * 1024L);
+    }
+
+    // Set a pragma of the connection. Pragmas return their new value as a row, so they are
+    // run as a query, execSQL() refuses statements that return rows.
+    private static void setPragma(SQLiteDatabase db, String pragma, long value) {
+        Cursor cursor = db.rawQuery("PRAGMA " + pragma + "=" + value, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Add the names of the products in (afterId, end of the chunk] to the search index. Products
+    // written since the upgrade were indexed by the triggers already.
+    private static long fillSearchIndex(SQLiteDatabase db, long afterId, int limit) {
+        long chunkEnd = SchemaMigrator.findChunkEnd(db, afterId, limit);
+        if (chunkEnd < 0) {
+            return -1;
+        }
+        String table = ProductContract.ProductEntry.TABLE_NAME;
+        String search = ProductContract.ProductEntry.SEARCH_TABLE_NAME;
+        String id = ProductContract.ProductEntry._ID;
+        String name = ProductContract.ProductEntry.COLUMN_PRODUCT_NAME;
+        db.execSQL("INSERT INTO " + search + " (docid, " + name + ") SELECT " + id + ", " + name
+                + " FROM " + table + " WHERE " + id + ">? AND " + id + "<=? AND NOT EXISTS"
+                + " (SELECT 1 FROM " + search + " WHERE docid=" + table + "." + id + ")",
+                new Object[] { afterId, chunkEnd });
+        return chunkEnd;
+    }
+
+    // The tail of the ledger only lives in memory while the app runs. Movements appended by
+    // an earlier run that ended before folding them are added to the quantities here, before
+    // anything reads them.
+    private static void foldStockLedger(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            execSQL(db, ProductSchema.foldLedger());
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Run the statements of a part of the schema, in order.
+    private static void execSQL(SQLiteDatabase db, String[] statements) {
+        for (String statement : statements) {
+            db.execSQL(statement);
+        }
+    }
+
+    // Version 1 kept the PNG bytes in the image column. Write the images of the products in
+    // (afterId, end of the chunk] to the image store and replace the bytes with the reference
+    // to the file. Images saved since the upgrade are references already and stay as they are.
+    private long moveImagesToStore(SQLiteDatabase db, long afterId, int limit) {
+        long chunkEnd = SchemaMigrator.findChunkEnd(db, afterId, limit);
+        if (chunkEnd < 0) {
+            return -1;
+        }
+        String id = ProductContract.ProductEntry._ID;
+        Cursor cursor = db.query(ProductContract.ProductEntry.TABLE_NAME, new String[] {
+                        id, ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE},
+                id + ">? AND " + id + "<=? AND typeof("
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE + ")='blob'",
+                new String[] { String.valueOf(afterId), String.valueOf(chunkEnd) },
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                long productId = cursor.getLong(0);
+                String ref;
+                try {
+                    ref = mImageStore.put(cursor.getBlob(1));
+                } catch (IOException e) {
+                    // Roll back the chunk, it is retried the next time the provider starts
+                    throw new SQLiteException("Failed to move image of product " + productId
+                            + " into the image store: " + e.getMessage());
+                }
+                ContentValues values = new ContentValues();
+                values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE, ref);
+                db.update(ProductContract.ProductEntry.TABLE_NAME, values, id + "=?",
+                        new String[] { String.valueOf(productId) });
+            }
+        } finally {
+            cursor.close();
+        }
+        return chunkEnd;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,172 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.os.SystemClock;
+import android.util.JsonWriter;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Exports the products to a CSV or JSON file (see {@link ProductTransfer}).
+ *
+ * Rows are written as the cursor moves forward over them, so the export never holds more
+ * than the cursor window in memory.
+ */
+public class ProductExporter {
+
+    /** Columns exported, in the order of the CSV columns */
+    private static final String[] PROJECTION = {
+            ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD};
+
+    /** Names of the exported columns in the file */
+    private static final String[] FIELDS = {
+            ProductTransfer.FIELD_NAME,
+            ProductTransfer.FIELD_PRICE,
+            ProductTransfer.FIELD_QUANTITY,
+            ProductTransfer.FIELD_SOLD};
+
+    private static final int COLUMN_NAME = 0;
+    private static final int COLUMN_PRICE = 1;
+
+    private final ContentResolver mResolver;
+    private final ProductTransfer.ProgressListener mListener;
+
+    /**
+     * @param listener receives progress reports, or null
+     */
+    public ProductExporter(ContentResolver resolver, ProductTransfer.ProgressListener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Write all products to the stream, which is flushed but not closed.
+     * Returns the number of products written.
+     */
+    public long exportProducts(OutputStream out, int format) throws IOException {
+        Cursor cursor = mResolver.query(ProductContract.ProductEntry.CONTENT_URI, PROJECTION,
+                null, null, ProductContract.ProductEntry._ID);
+        if (cursor == null) {
+            throw new IOException("Failed to query products");
+        }
+
+        long startTime = SystemClock.elapsedRealtime();
+        long rows = 0;
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, "UTF-8"));
+        try {
+            JsonWriter json = null;
+            if (format == ProductTransfer.FORMAT_JSON) {
+                json = new JsonWriter(writer);
+                json.beginArray();
+            } else {
+                writeCsvHeader(writer);
+            }
+
+            while (cursor.moveToNext()) {
+                if (json != null) {
+                    writeJsonRow(json, cursor);
+                } else {
+                    writeCsvRow(writer, cursor);
+                }
+                rows++;
+                if (mListener != null && rows % ProductTransfer.PROGRESS_INTERVAL == 0) {
+                    mListener.onProgress(rows, 0, SystemClock.elapsedRealtime() - startTime);
+                }
+            }
+
+            if (json != null) {
+                json.endArray();
+                json.flush();
+            }
+            writer.flush();
+        } finally {
+            cursor.close();
+        }
+
+        if (mListener != null) {
+            mListener.onProgress(rows, 0, SystemClock.elapsedRealtime() - startTime);
+        }
+        return rows;
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < FIELDS.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(FIELDS[i]);
+        }
+        writer.write("\r\n");
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        for (int i = 0; i < PROJECTION.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            if (cursor.isNull(i)) {
+                continue;
+            }
+            if (i == COLUMN_NAME) {
+                writeCsvText(writer, cursor.getString(i));
+            } else if (i == COLUMN_PRICE) {
+                writer.write(ProductContract.ProductEntry.formatPriceCents(cursor.getLong(i)));
+            } else {
+                writer.write(String.valueOf(cursor.getLong(i)));
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * Write a CSV text field, quoted if it contains characters that would end the field.
+     */
+    static void writeCsvText(Writer writer, String text) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(JsonWriter json, Cursor cursor) throws IOException {
+        json.beginObject();
+        for (int i = 0; i < PROJECTION.length; i++) {
+            json.name(FIELDS[i]);
+            if (cursor.isNull(i)) {
+                json.nullValue();
+            } else if (i == COLUMN_NAME) {
+                json.value(cursor.getString(i));
+            } else if (i == COLUMN_PRICE) {
+                // Written as a number with exactly two decimals
+                json.value(new BigDecimal(BigInteger.valueOf(cursor.getLong(i)), 2));
+            } else {
+                json.value(cursor.getLong(i));
+            }
+        }
+        json.endObject();
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.android.inventory.data;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Content-addressed file store for product images.
+ *
+ * Every image is written once to a file named after the SHA-1 hash of its bytes, so products
+ * that share the same picture also share the same file. The inventory table only keeps the
+ * hash (see {@link ProductContract.ProductEntry#COLUMN_PRODUCT_IMAGE}), which keeps image
+ * bytes out of every row scan and cursor window.
+ */
+public class ProductImageStore {
+
+    /** Tag for the log messages */
+    public static final String LOG_TAG = ProductImageStore.class.getSimpleName();
+
+    /** Name of the directory (inside the app's files directory) that holds the images */
+    private static final String IMAGE_DIRECTORY = "product_images";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /** Directory that holds one file per distinct image */
+    private final File mDirectory;
+
+    /**
+     * Lock held while an image reference is written or released, so an image file is never
+     * deleted while another thread is about to point a product at it.
+     */
+    private final Object mLock = new Object();
+
+    public ProductImageStore(Context context) {
+        mDirectory = new File(context.getFilesDir(), IMAGE_DIRECTORY);
+    }
+
+    /**
+     * Store the given image bytes and return the reference to save in the inventory table.
+     * If an identical image is already stored, the existing file is reused.
+     */
+    public String put(byte[] image) throws IOException {
+        String ref = hash(image);
+        File file = getFile(ref);
+
+        // Identical image is already on disk, nothing to write.
+        if (file.exists() && file.length() == image.length) {
+            return ref;
+        }
+
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            throw new IOException("Cannot create image directory " + mDirectory);
+        }
+
+        // Write to a temporary file first and rename it, so a crash half way through
+        // never leaves a truncated image behind the final name.
+        File tempFile = new File(mDirectory, ref + ".tmp");
+        FileOutputStream out = new FileOutputStream(tempFile);
+        try {
+            out.write(image);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            tempFile.delete();
+            throw new IOException("Cannot move image into place " + file);
+        }
+        return ref;
+    }
+
+    /**
+     * Return the lock that writers of image references hold from storing or releasing an
+     * image until the rows that point to it are committed. It is taken before the database
+     * transaction begins.
+     */
+    public Object getLock() {
+        return mLock;
+    }
+
+    /**
+     * Return the file holding the image with the given reference.
+     * The file might not exist if the reference is unknown.
+     */
+    public File getFile(String ref) {
+        return new File(mDirectory, ref);
+    }
+
+    /**
+     * Delete the image with the given reference. Callers must hold {@link #getLock} and make
+     * sure that no product still points to it.
+     */
+    public void delete(String ref) {
+        File file = getFile(ref);
+        if (file.exists() && !file.delete()) {
+            Log.w(LOG_TAG, "Failed to delete unused image " + ref);
+        }
+    }
+
+    /**
+     * Return true if the given string looks like a reference produced by {@link #put}.
+     */
+    public static boolean isValidRef(String ref) {
+        if (ref == null || ref.length() != 40) {
+            return false;
+        }
+        for (int i = 0; i < ref.length(); i++) {
+            char c = ref.charAt(i);
+            if ((c < '0' || c > '9') && (c < 'a' || c > 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Hex encoded SHA-1 of the image bytes.
+    private static String hash(byte[] image) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Android runtime ships SHA-1.
+            throw new IllegalStateException(e);
+        }
+        byte[] bytes = digest.digest(image);
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0x0f];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0x0f];
+        }
+        return new String(hex);
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.os.SystemClock;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Imports products from a CSV or JSON file (see {@link ProductTransfer}) through the
+ * {@link ProductProvider}.
+ *
+ * The file is parsed as it is read and only one batch of rows is held in memory at a time,
+ * each batch is inserted in one transaction with {@link ContentResolver#bulkInsert}. Rows
+ * that break the rules of the provider are skipped and counted instead of failing the import.
+ */
+public class ProductImporter {
+
+    /** Number of rows inserted per transaction */
+    private static final int BATCH_SIZE = 500;
+
+    private final ContentResolver mResolver;
+    private final ProductTransfer.ProgressListener mListener;
+
+    private final ContentValues[] mBatch = new ContentValues[BATCH_SIZE];
+    private int mBatchSize;
+
+    private long mRows;
+    private long mRejected;
+    private long mImported;
+    private long mStartTime;
+
+    /**
+     * @param listener receives progress reports, or null
+     */
+    public ProductImporter(ContentResolver resolver, ProductTransfer.ProgressListener listener) {
+        mResolver = resolver;
+        mListener = listener;
+    }
+
+    /**
+     * Import the products in the stream, which is read to the end but not closed.
+     * Returns the number of products imported.
+     */
+    public long importProducts(InputStream in, int format) throws IOException {
+        mRows = 0;
+        mRejected = 0;
+        mImported = 0;
+        mBatchSize = 0;
+        mStartTime = SystemClock.elapsedRealtime();
+
+        Reader reader = new InputStreamReader(in, "UTF-8");
+        if (format == ProductTransfer.FORMAT_JSON) {
+            readJson(reader);
+        } else {
+            readCsv(reader);
+        }
+        insertBatch();
+        reportProgress();
+        return mImported;
+    }
+
+    /**
+     * Returns the number of rows skipped by the last import because they were invalid.
+     */
+    public long getRejectedCount() {
+        return mRejected;
+    }
+
+    private void readCsv(Reader reader) throws IOException {
+        CsvReader csv = new CsvReader(reader);
+        List<String> header = csv.readRecord();
+        if (header == null) {
+            return;
+        }
+
+        int nameColumn = -1;
+        int priceColumn = -1;
+        int quantityColumn = -1;
+        int soldColumn = -1;
+        for (int i = 0; i < header.size(); i++) {
+            // Files saved by spreadsheets may start with a byte order mark
+            String field = header.get(i).replace("\uFEFF", "").trim();
+            if (ProductTransfer.FIELD_NAME.equalsIgnoreCase(field)) {
+                nameColumn = i;
+            } else if (ProductTransfer.FIELD_PRICE.equalsIgnoreCase(field)) {
+                priceColumn = i;
+            } else if (ProductTransfer.FIELD_QUANTITY.equalsIgnoreCase(field)) {
+                quantityColumn = i;
+            } else if (ProductTransfer.FIELD_SOLD.equalsIgnoreCase(field)) {
+                soldColumn = i;
+            }
+        }
+        if (nameColumn == -1 || priceColumn == -1) {
+            throw new IOException("CSV header needs a " + ProductTransfer.FIELD_NAME
+                    + " and a " + ProductTransfer.FIELD_PRICE + " column");
+        }
+
+        List<String> record;
+        while ((record = csv.readRecord()) != null) {
+            if (record.size() == 1 && record.get(0).isEmpty()) {
+                // Blank line
+                continue;
+            }
+            addRow(field(record, nameColumn), field(record, priceColumn),
+                    field(record, quantityColumn), field(record, soldColumn));
+        }
+    }
+
+    private static String field(List<String> record, int column) {
+        return column >= 0 && column < record.size() ? record.get(column) : null;
+    }
+
+    // JsonReader throws IllegalStateException for a token it did not expect, so the tokens
+    // are checked first. A file that is not an array fails the import, rows that are not
+    // objects are skipped and counted like invalid products.
+    private void readJson(Reader reader) throws IOException {
+        JsonReader json = new JsonReader(reader);
+        JsonToken start = json.peek();
+        if (start != JsonToken.BEGIN_ARRAY) {
+            throw new IOException("JSON file needs an array of products, found " + start);
+        }
+        json.beginArray();
+        while (json.hasNext()) {
+            if (json.peek() != JsonToken.BEGIN_OBJECT) {
+                json.skipValue();
+                rejectRow();
+                continue;
+            }
+
+            String name = null;
+            String price = null;
+            String quantity = null;
+            String sold = null;
+
+            json.beginObject();
+            while (json.hasNext()) {
+                String field = json.nextName();
+                if (ProductTransfer.FIELD_NAME.equals(field)) {
+                    name = nextValue(json);
+                } else if (ProductTransfer.FIELD_PRICE.equals(field)) {
+                    price = nextValue(json);
+                } else if (ProductTransfer.FIELD_QUANTITY.equals(field)) {
+                    quantity = nextValue(json);
+                } else if (ProductTransfer.FIELD_SOLD.equals(field)) {
+                    sold = nextValue(json);
+                } else {
+                    json.skipValue();
+                }
+            }
+            json.endObject();
+
+            addRow(name, price, quantity, sold);
+        }
+        json.endArray();
+    }
+
+    // Read a string or number as text, anything else as null
+    private static String nextValue(JsonReader json) throws IOException {
+        JsonToken token = json.peek();
+        if (token == JsonToken.STRING || token == JsonToken.NUMBER) {
+            return json.nextString();
+        }
+        json.skipValue();
+        return null;
+    }
+
+    private void addRow(String name, String price, String quantity, String sold)
+            throws IOException {
+        ContentValues values = toValues(name, price, quantity, sold);
+        if (values == null) {
+            rejectRow();
+            return;
+        }
+        mRows++;
+        mBatch[mBatchSize++] = values;
+        if (mBatchSize == BATCH_SIZE) {
+            insertBatch();
+        }
+        if (mRows % ProductTransfer.PROGRESS_INTERVAL == 0) {
+            reportProgress();
+        }
+    }
+
+    private void rejectRow() {
+        mRows++;
+        mRejected++;
+        if (mRows % ProductTransfer.PROGRESS_INTERVAL == 0) {
+            reportProgress();
+        }
+    }
+
+    /**
+     * Convert the fields of a row into the values of a new product, or return null if they
+     * do not make a valid product.
+     */
+    private static ContentValues toValues(String name, String price, String quantity,
+                                          String sold) {
+        ContentValues values = new ContentValues();
+        try {
+            if (!TextUtils.isEmpty(name) && !TextUtils.isEmpty(name.trim())) {
+                values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME, name.trim());
+            }
+            if (!TextUtils.isEmpty(price)) {
+                values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS,
+                        ProductContract.ProductEntry.parsePriceCents(price));
+            }
+            if (!TextUtils.isEmpty(quantity)) {
+                values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                        Integer.valueOf(quantity.trim()));
+            }
+            if (!TextUtils.isEmpty(sold)) {
+                values.put(ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD,
+                        Integer.valueOf(sold.trim()));
+            }
+            // Same rules as a product entered in the editor
+            ProductProvider.validateProduct(values);
+        } catch (IllegalArgumentException e) {
+            // Also thrown for numbers that cannot be parsed
+            return null;
+        }
+        return values;
+    }
+
+    private void insertBatch() throws IOException {
+        if (mBatchSize == 0) {
+            return;
+        }
+        ContentValues[] batch = mBatchSize == BATCH_SIZE
+                ? mBatch : Arrays.copyOf(mBatch, mBatchSize);
+        int inserted = mResolver.bulkInsert(ProductContract.ProductEntry.CONTENT_URI, batch);
+        if (inserted != mBatchSize) {
+            throw new IOException("Failed to insert products after row " + mRows);
+        }
+        mImported += inserted;
+        Arrays.fill(mBatch, null);
+        mBatchSize = 0;
+    }
+
+    private void reportProgress() {
+        if (mListener != null) {
+            mListener.onProgress(mRows, mRejected, SystemClock.elapsedRealtime() - mStartTime);
+        }
+    }
+}
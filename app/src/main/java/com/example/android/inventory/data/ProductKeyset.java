@@ -0,0 +1,95 @@
+package com.example.android.inventory.data;
+
+/**
+ * Selection of the products that come after a given product in one of the orders of the
+ * catalog, to read the next page of a sorted, filtered or searched catalog from where the
+ * last page ended. Like {@link ProductContract#QUERY_PARAMETER_AFTER_ID} does for pages by
+ * _id, this makes every page cost about the same, while reading the catalog again with a
+ * larger limit reads all earlier pages again.
+ *
+ * The selection compares the columns of the order with the values of the last product read,
+ * and _id breaks ties. It starts with a range on the first column, so the index of the order
+ * finds the first product of the page directly. NULL quantities come before all others, as
+ * SQLite sorts them.
+ */
+public final class ProductKeyset {
+
+    private static final String ID = ProductContract.ProductEntry._ID;
+    private static final String NAME = ProductContract.ProductEntry.COLUMN_PRODUCT_NAME;
+    private static final String QUANTITY = ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY;
+    private static final String SOLD = ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD;
+
+    private final String mSelection;
+    private final String[] mSelectionArgs;
+
+    private ProductKeyset(String selection, String... selectionArgs) {
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+    }
+
+    /**
+     * Returns the products after the given product in the given order.
+     *
+     * @param sortOrder one of the SORT_BY_ orders of {@link ProductContract.ProductEntry}, or
+     *                  null for the order of _id
+     * @param quantity  quantity of the product, or null if it has none
+     * @param sold      quantity sold of the product, or null if it has none
+     */
+    public static ProductKeyset after(String sortOrder, long id, String name, Integer quantity,
+                                      Integer sold) {
+        String lastId = String.valueOf(id);
+        if (sortOrder == null || sortOrder.equals(ID)) {
+            return new ProductKeyset(ID + ">?", lastId);
+        }
+        switch (sortOrder) {
+            case ProductContract.ProductEntry.SORT_BY_NAME:
+                return new ProductKeyset(NAME + ">=? COLLATE NOCASE AND (" + NAME
+                        + ">? COLLATE NOCASE OR " + ID + ">?)", name, name, lastId);
+            case ProductContract.ProductEntry.SORT_BY_QUANTITY:
+                if (quantity == null) {
+                    // All products with a quantity follow the ones without
+                    return new ProductKeyset("(" + QUANTITY + " IS NOT NULL OR " + ID + ">?)",
+                            lastId);
+                }
+                String lastQuantity = String.valueOf(quantity);
+                return new ProductKeyset(QUANTITY + ">=? AND (" + QUANTITY + ">? OR " + ID
+                        + ">?)", lastQuantity, lastQuantity, lastId);
+            case ProductContract.ProductEntry.SORT_BY_SOLD:
+                // Descending, so products without a quantity sold come last
+                if (sold == null) {
+                    return new ProductKeyset(SOLD + " IS NULL AND " + ID + "<?", lastId);
+                }
+                String lastSold = String.valueOf(sold);
+                return new ProductKeyset("(" + SOLD + "<=? AND (" + SOLD + "<? OR " + ID
+                        + "<?) OR " + SOLD + " IS NULL)", lastSold, lastSold, lastId);
+            default:
+                throw new IllegalArgumentException("No keyset for order " + sortOrder);
+        }
+    }
+
+    /**
+     * Returns the search results after the given product, in the order the provider ranks
+     * the results of a search: names starting with the first word of the search first, then
+     * shorter names. The rank and length of the given product are computed by SQLite, so they
+     * match the order exactly.
+     *
+     * @param firstWord first word of the search, as the provider splits the search text
+     */
+    public static ProductKeyset afterSearchResult(String firstWord, long id, String name) {
+        String pattern = firstWord + "%";
+        String rank = "CASE WHEN " + NAME + " LIKE ? THEN 0 ELSE 1 END";
+        String lastRank = "CASE WHEN ? LIKE ? THEN 0 ELSE 1 END";
+        String length = "length(" + NAME + ")";
+        return new ProductKeyset(rank + ">=" + lastRank + " AND (" + rank + ">" + lastRank
+                + " OR " + length + ">length(?) OR (" + length + "=length(?) AND " + ID + ">?))",
+                pattern, name, pattern, pattern, name, pattern, name, name, String.valueOf(id));
+    }
+
+    public String getSelection() {
+        return mSelection;
+    }
+
+    public String[] getSelectionArgs() {
+        return mSelectionArgs;
+    }
+}
@@ -4,16 +4,34 @@ package com.example.android.inventory.data;
  * Created by DK on 10/1/2016.
  */
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.content.ContentProvider;
 import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.support.v4.util.LongSparseArray;
+import android.text.format.DateUtils;
 import android.util.Log;
+import com.example.android.inventory.R;
 
-import static com.example.android.inventory.R.id.price;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
 
 /**
  * {@link ContentProvider} for Inventory app.
@@ -29,6 +47,31 @@ public class ProductProvider extends ContentProvider {
     /** URI matcher code for the content URI for a single product in the inventory table */
     private static final int PRODUCTS_ID = 101;
 
+    /** URI matcher code for the content URI for a search of the inventory table */
+    private static final int PRODUCTS_SEARCH = 102;
+
+    /** URI matcher code for the content URI for the totals of the inventory */
+    private static final int SUMMARY = 103;
+
+    /** URI matcher code for the content URI for the products below their reorder level */
+    private static final int PRODUCTS_LOW_STOCK = 104;
+
+    /** URI matcher code for the content URI for the history of stock movements */
+    private static final int MOVEMENTS = 105;
+
+    /** URI matcher code for the content URI for the locations table */
+    private static final int LOCATIONS = 106;
+
+    /** URI matcher code for the content URI for a single location */
+    private static final int LOCATIONS_ID = 107;
+
+    /** URI matcher code for the content URI for the stock at a single location */
+    private static final int LOCATION_STOCK = 108;
+
+    /** Names of the URI matches in the provider stats, by code minus {@link #PRODUCTS} */
+    private static final String[] MATCH_NAMES = {"products", "product", "search", "summary",
+            "low_stock", "movements", "locations", "location", "location_stock"};
+
     /**
      * UriMatcher object to match a content URI to a corresponding code.
      * The input passed into the constructor represents the code to return for the root URI.
@@ -45,16 +88,102 @@ public class ProductProvider extends ContentProvider {
                 ProductContract.PATH_PRODUCTS, PRODUCTS);
         sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
                 ProductContract.PATH_PRODUCTS + "/#", PRODUCTS_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SEARCH + "/*",
+                PRODUCTS_SEARCH);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_SUMMARY, SUMMARY);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_LOW_STOCK,
+                PRODUCTS_LOW_STOCK);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_PRODUCTS + "/" + ProductContract.PATH_MOVEMENTS, MOVEMENTS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_LOCATIONS, LOCATIONS);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_LOCATIONS + "/#", LOCATIONS_ID);
+        sUriMatcher.addURI(ProductContract.CONTENT_AUTHORITY,
+                ProductContract.PATH_LOCATIONS + "/#/" + ProductContract.PATH_STOCK,
+                LOCATION_STOCK);
     }
 
     /** Database helper object */
     private ProductDbHelper mDbHelper;
+
+    /** Store holding the product image files referenced from the inventory table */
+    private ProductImageStore mImageStore;
+
+    /** Lock of {@link #mImageStore}, shared with the backfill that moves images into it */
+    private Object mImageLock;
+
+    /** Cache of products read by id */
+    private ProductRowCache mRowCache;
+
+    /** Buffer collecting stock adjustments until they are written together */
+    private StockWriteBuffer mStockBuffer;
+
+    /** Latency histograms of the provider operations */
+    private ProviderStats mStats;
+
+    /** Compiled statements of the inserts and updates of products */
+    private StatementCache mStatements;
+
+    /**
+     * Set while the current thread runs {@link #applyBatch}. Changes made by the operations
+     * are only recorded in it, and a single notification is sent at the end of the batch.
+     */
+    private final ThreadLocal<boolean[]> mBatchChanged = new ThreadLocal<>();
+
+    /**
+     * Largest number of products a single write reports to observers one by one. Writes
+     * touching more products report a change of the whole table instead.
+     */
+    private static final int MAX_ROW_NOTIFICATIONS = 100;
+
+    /** Columns that can be given when inserting products, in the order they are bound */
+    private static final String[] INSERT_COLUMNS = {
+            ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER};
+
+    /** Bits of the {@link #INSERT_COLUMNS} holding integers: price, quantity, sold, reorder */
+    private static final int INTEGER_COLUMNS = 1 << 1 | 1 << 2 | 1 << 3 | 1 << 5;
+
+    /** Insert of all {@link #INSERT_COLUMNS}, columns a product leaves out are bound to null */
+    private static final String INSERT_SQL = buildInsertSql();
+
     /**
      * Initialize the provider and the database helper object.
      */
     @Override
     public boolean onCreate() {
         mDbHelper = new ProductDbHelper(getContext());
+        mImageStore = mDbHelper.getImageStore();
+        mImageLock = mImageStore.getLock();
+        mStatements = mDbHelper.getStatementCache();
+        mRowCache = new ProductRowCache(
+                getContext().getResources().getInteger(R.integer.product_row_cache_size));
+        mStockBuffer = new StockWriteBuffer(mDbHelper, mRowCache, getContext().getResources()
+                .getInteger(R.integer.stock_movement_retention_days) * DateUtils.DAY_IN_MILLIS);
+        mStats = new ProviderStats(MATCH_NAMES,
+                getContext().getResources().getInteger(R.integer.provider_slow_query_ms),
+                getContext().getResources().getInteger(R.integer.provider_stats_dump_interval_s)
+                        * 1000L,
+                new File(getContext().getFilesDir(), ProviderStats.DUMP_FILE_NAME));
+        // Rows rewritten by an upgrade backfill drop out of the cache, and the lists reload
+        // to show them in their new form.
+        mDbHelper.startBackfills(new SchemaMigrator.Listener() {
+            @Override
+            public void onBackfillChunk() {
+                mRowCache.invalidate(null);
+                getContext().getContentResolver().notifyChange(
+                        ProductContract.ProductEntry.CONTENT_URI, null);
+            }
+        });
         // Make sure the variable is a global variable, so it can be referenced from other
         // ContentProvider methods.
         return true;
@@ -67,6 +196,8 @@ public class ProductProvider extends ContentProvider {
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
                         String sortOrder) {
+        long startNanos = System.nanoTime();
+
         // Get readable database
         SQLiteDatabase database = mDbHelper.getReadableDatabase();
 
@@ -80,56 +211,448 @@ public class ProductProvider extends ContentProvider {
                 // For the PRODUCTS code, query the inventory table directly with the given
                 // projection, selection, selection arguments, and sort order. The cursor
                 // could contain multiple rows of the inventory table.
-                cursor = database.query(ProductContract.ProductEntry.TABLE_NAME, projection,
-                        selection, selectionArgs, null, null, sortOrder);
+                String afterId = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_AFTER_ID);
+                if (afterId != null) {
+                    // Page by key: continue after the given _id, in order of _id
+                    selection = DatabaseUtils.concatenateWhere(selection,
+                            ProductContract.ProductEntry._ID + ">?");
+                    selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                            new String[] { String.valueOf(parseQueryParameter(uri, afterId)) });
+                    sortOrder = ProductContract.ProductEntry._ID;
+                }
                 break;
             case PRODUCTS_ID:
                 // For the PRODUCTS_ID code, extract out the ID from the URI.
-                selection = ProductContract.ProductEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-
                 // This will perform a query on the inventory table where the _id equals to
                 // return a Cursor containing that row of the table.
-                cursor = database.query(ProductContract.ProductEntry.TABLE_NAME, projection,
-                        selection, selectionArgs, null, null, sortOrder);
+                selection = ProductContract.ProductEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                break;
+            case PRODUCTS_SEARCH:
+                // For the PRODUCTS_SEARCH code, only keep the products found in the
+                // full-text index and rank them, unless the caller asks for another order.
+                String[] words = ProductContract.ProductEntry.splitSearchText(
+                        uri.getLastPathSegment());
+                if (words.length == 0) {
+                    selection = "0";
+                    break;
+                }
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        ProductContract.ProductEntry._ID + " IN (SELECT docid FROM "
+                                + ProductContract.ProductEntry.SEARCH_TABLE_NAME + " WHERE "
+                                + ProductContract.ProductEntry.SEARCH_TABLE_NAME + " MATCH ?)");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] { buildMatchQuery(words) });
+                if (sortOrder == null) {
+                    sortOrder = buildSearchOrder(words);
+                }
+                break;
+            case PRODUCTS_LOW_STOCK:
+                // For the PRODUCTS_LOW_STOCK code, only keep the products flagged by the
+                // triggers, which the low stock index finds without reading the others.
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_LOW_STOCK + "=1");
+                if (sortOrder == null) {
+                    sortOrder = ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", "
+                            + ProductContract.ProductEntry.COLUMN_PRODUCT_NAME;
+                }
+                break;
+            case SUMMARY:
+                // For the SUMMARY code, read the single row of totals kept by the triggers
+                break;
+            case MOVEMENTS:
+                // For the MOVEMENTS code, read the ledger in the order it was written,
+                // including the adjustments still waiting to be appended.
+                mStockBuffer.flush();
+                if (sortOrder == null) {
+                    sortOrder = ProductContract.StockMovementEntry._ID;
+                }
+                break;
+            case LOCATIONS:
+                break;
+            case LOCATIONS_ID:
+                selection = ProductContract.LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                break;
+            case LOCATION_STOCK:
+                // For the LOCATION_STOCK code, only keep the rows of the location in the URI,
+                // which the (location, product) index finds.
+                selection = DatabaseUtils.concatenateWhere(selection,
+                        ProductContract.LocationStockEntry.COLUMN_LOCATION_ID + "=?");
+                selectionArgs = DatabaseUtils.appendSelectionArgs(selectionArgs,
+                        new String[] { String.valueOf(parseLocationId(uri)) });
                 break;
             default:
                 throw new IllegalArgumentException("Cannot query unknown URI " + uri);
         }
 
+        String limit = uri.getQueryParameter(ProductContract.QUERY_PARAMETER_LIMIT);
+        if (limit != null) {
+            limit = String.valueOf(parseQueryParameter(uri, limit));
+        }
+
+        // Stock movements that are not folded into the stored quantities yet are added to
+        // the quantities read. Queries only share the read lock, so they do not wait for
+        // each other.
+        Lock readLock = mStockBuffer.getLock().readLock();
+        readLock.lock();
+        while (needsCompaction(uri, match, projection, selection, sortOrder)) {
+            // Folding needs the write lock, which cannot be taken while holding the read lock
+            readLock.unlock();
+            mStockBuffer.compact();
+            readLock.lock();
+        }
+        String table = getTableName(match);
+        // Until the backfill of version 2 has moved all images into the image store, some
+        // products still hold the image bytes, which readers and the row cache do not expect
+        boolean movingImages = mDbHelper.isMovingImages()
+                && table.equals(ProductContract.ProductEntry.TABLE_NAME);
+        if (movingImages) {
+            projection = readImageRefs(projection);
+        }
+        try {
+            if (match == LOCATION_STOCK) {
+                cursor = database.query(table, projection,
+                        selection, selectionArgs, null, null, sortOrder, limit);
+                cursor = mStockBuffer.mergeLocation(cursor, parseLocationId(uri));
+            } else if (match == MOVEMENTS || match == LOCATIONS || match == LOCATIONS_ID) {
+                cursor = database.query(table, projection,
+                        selection, selectionArgs, null, null, sortOrder, limit);
+            } else if (match == SUMMARY) {
+                cursor = database.query(table, projection,
+                        selection, selectionArgs, null, null, sortOrder, limit);
+                cursor = mStockBuffer.mergeSummary(database, cursor);
+            } else if (match == PRODUCTS_ID && !movingImages
+                    && ProductRowCache.canServe(projection)) {
+                // Single products are served from the cache when possible
+                cursor = mRowCache.query(database, ContentUris.parseId(uri), projection);
+                cursor = mStockBuffer.merge(cursor);
+            } else {
+                cursor = database.query(table, projection,
+                        selection, selectionArgs, null, null, sortOrder, limit);
+                cursor = mStockBuffer.merge(cursor);
+            }
+        } finally {
+            readLock.unlock();
+        }
+        // The SQL is only built again if the query was slow and gets logged with its plan
+        mStats.recordQuery(match - PRODUCTS, startNanos, cursor, database, table, projection,
+                selection, selectionArgs, sortOrder, limit);
+
         // Set notification URI on the Cursor,
         // so we know what content URI the Cursor was created for.
         // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        // Search results, low stock products, totals, stock movements and the stock at a
+        // location change with any product, so they watch the whole table.
+        cursor.setNotificationUri(getContext().getContentResolver(),
+                match == PRODUCTS_SEARCH || match == PRODUCTS_LOW_STOCK || match == SUMMARY
+                        || match == MOVEMENTS || match == LOCATION_STOCK
+                        ? ProductContract.ProductEntry.CONTENT_URI : uri);
 
         // Return the cursor
         return cursor;
     }
 
+    /**
+     * Return the projection with the image column read as {@link ProductSchema#IMAGE_REF}.
+     * A projection of all columns stays as it is, the app always names the columns it reads.
+     */
+    private static String[] readImageRefs(String[] projection) {
+        if (projection == null) {
+            return null;
+        }
+        String[] columns = projection.clone();
+        for (int i = 0; i < columns.length; i++) {
+            if (ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE.equals(columns[i])) {
+                columns[i] = ProductSchema.IMAGE_REF + " AS "
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Return the table queried for the given URI match.
+     */
+    private static String getTableName(int match) {
+        switch (match) {
+            case SUMMARY:
+                return ProductContract.SummaryEntry.TABLE_NAME;
+            case MOVEMENTS:
+                return ProductContract.StockMovementEntry.TABLE_NAME;
+            case LOCATIONS:
+            case LOCATIONS_ID:
+                return ProductContract.LocationEntry.TABLE_NAME;
+            case LOCATION_STOCK:
+                return ProductContract.LocationStockEntry.TABLE_NAME;
+            default:
+                return ProductContract.ProductEntry.TABLE_NAME;
+        }
+    }
+
+    /**
+     * Return true if the query has to wait for the stock movements to be folded into the
+     * stored quantities. Call while holding the read lock of the stock buffer.
+     */
+    private boolean needsCompaction(Uri uri, int match, String[] projection, String selection,
+                                    String sortOrder) {
+        switch (match) {
+            case SUMMARY:
+            case MOVEMENTS:
+            case LOCATIONS:
+            case LOCATIONS_ID:
+                return false;
+            case LOCATION_STOCK:
+                return mStockBuffer.needsLocationCompaction(parseLocationId(uri), projection,
+                        selection, sortOrder);
+            default:
+                return mStockBuffer.needsCompaction(projection, selection, sortOrder);
+        }
+    }
+
+    /**
+     * Return the location id of a {@link #LOCATION_STOCK} URI.
+     */
+    private static long parseLocationId(Uri uri) {
+        return Long.parseLong(uri.getPathSegments().get(1));
+    }
+
+    /**
+     * Parse a numeric query parameter, which cannot be negative.
+     */
+    private static long parseQueryParameter(Uri uri, String value) {
+        try {
+            long number = Long.parseLong(value);
+            if (number >= 0) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        throw new IllegalArgumentException("Invalid query parameter in " + uri);
+    }
+
+    /**
+     * Build the MATCH expression finding names that have a word starting with each of the
+     * given words.
+     */
+    private static String buildMatchQuery(String[] words) {
+        StringBuilder query = new StringBuilder();
+        for (String word : words) {
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            query.append(word).append('*');
+        }
+        return query.toString();
+    }
+
+    /**
+     * Build the order of search results: names starting with the first word come first,
+     * then shorter names, which are closer to what was typed.
+     */
+    private static String buildSearchOrder(String[] words) {
+        // The words only hold letters and digits, so they need no escaping for LIKE
+        return "CASE WHEN " + ProductContract.ProductEntry.COLUMN_PRODUCT_NAME + " LIKE "
+                + DatabaseUtils.sqlEscapeString(words[0] + "%") + " THEN 0 ELSE 1 END, length("
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_NAME + "), "
+                + ProductContract.ProductEntry._ID;
+    }
+
     /**
      * Insert new data into the provider with the given ContentValues.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
+        Uri newUri;
         switch (match) {
             case PRODUCTS:
-                return insertProduct(uri, values);
+                newUri = insertProduct(uri, values);
+                break;
+            case LOCATIONS:
+                newUri = insertLocation(uri, values);
+                break;
             default:
                 throw new IllegalArgumentException("insertion is not supported for " + uri);
         }
+        mStats.record(match - PRODUCTS, ProviderStats.OP_INSERT, startNanos,
+                newUri == null ? 0 : 1);
+        return newUri;
     }
 
     private Uri insertProduct(Uri uri, ContentValues values) {
+        validateProduct(values);
+
+        // Gets the database in write mode
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        long id;
+        Set<String> storedImages = new HashSet<>();
+        synchronized (mImageLock) {
+            // Move the image bytes into the image store, the table only keeps the reference
+            ContentValues row = storeImage(values, storedImages);
+            if (row == null) {
+                return null;
+            }
+
+            // Insert the new product with the given values
+            id = insertRow(db, row);
+            if (id == -1) {
+                // No product refers to the stored image
+                releaseImages(db, storedImages);
+            }
+        }
+        // If the ID is -1, then the insertion failed. Log an error and return null.
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        // Notify all listeners that the product was added
+        // uri: content://com.example.android.inventory/inventory/2?change=insert
+        notifyChange(ProductContract.ProductEntry.buildChangeUri(id,
+                ProductContract.CHANGE_INSERT));
+
+        // Once we know the ID of the new row in the table,
+        // return the new URI with the ID appended ot the end of it
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    private Uri insertLocation(Uri uri, ContentValues values) {
+        validateLocation(values);
+        if (values.getAsString(ProductContract.LocationEntry.COLUMN_LOCATION_NAME) == null) {
+            throw new IllegalArgumentException("Location requires a name");
+        }
+
+        long id = mDbHelper.getWritableDatabase().insert(
+                ProductContract.LocationEntry.TABLE_NAME, null, values);
+        // The insert fails as well if another location has the name already
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+        Uri newUri = ContentUris.withAppendedId(uri, id);
+        notifyChange(newUri);
+        return newUri;
+    }
+
+    /**
+     * Check that the values only set the name of a location, and that it is not null if they
+     * do, throw an {@link IllegalArgumentException} if they do not.
+     */
+    private static void validateLocation(ContentValues values) {
+        for (String column : values.keySet()) {
+            if (!ProductContract.LocationEntry.COLUMN_LOCATION_NAME.equals(column)) {
+                throw new IllegalArgumentException("Unknown column " + column);
+            }
+        }
+        if (values.containsKey(ProductContract.LocationEntry.COLUMN_LOCATION_NAME)
+                && values.getAsString(ProductContract.LocationEntry.COLUMN_LOCATION_NAME) == null) {
+            throw new IllegalArgumentException("Location requires a name");
+        }
+    }
+
+    /**
+     * Insert a product with the cached insert statement, unless the values have columns it
+     * does not bind. Return the new _id, or -1 if the insert failed.
+     */
+    private long insertRow(SQLiteDatabase db, ContentValues values) {
+        if (getColumnBits(values) == -1) {
+            // Unknown columns, let the database report them
+            return db.insert(ProductContract.ProductEntry.TABLE_NAME, null, values);
+        }
+        db.beginTransaction();
+        try {
+            SQLiteStatement statement = mStatements.acquire(db,
+                    StatementCache.SHAPE_INSERT_PRODUCT, INSERT_SQL);
+            bindInsert(statement, values);
+            long id = statement.executeInsert();
+            db.setTransactionSuccessful();
+            return id;
+        } catch (SQLException e) {
+            // Failing like SQLiteDatabase.insert() does
+            Log.e(LOG_TAG, "Error inserting " + values, e);
+            return -1;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static String buildInsertSql() {
+        StringBuilder sql = new StringBuilder("INSERT INTO ")
+                .append(ProductContract.ProductEntry.TABLE_NAME).append(" (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i == 0 ? "" : ",").append(INSERT_COLUMNS[i]);
+        }
+        sql.append(") VALUES (");
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            sql.append(i == 0 ? "?" : ",?");
+        }
+        return sql.append(')').toString();
+    }
+
+    // Columns missing from the values are bound to null, which is what leaving them out of an
+    // insert would store.
+    private static void bindInsert(SQLiteStatement statement, ContentValues values) {
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            bindColumn(statement, i + 1, values, i);
+        }
+    }
+
+    // Bind the value of the {@link #INSERT_COLUMNS} at the given position as the type of its
+    // column, like the stock writes bind their numbers. The values are validated already,
+    // anything else, like a missing value, is bound as it is.
+    private static void bindColumn(SQLiteStatement statement, int index, ContentValues values,
+                                   int column) {
+        String name = INSERT_COLUMNS[column];
+        if ((INTEGER_COLUMNS & 1 << column) != 0) {
+            Long value = values.getAsLong(name);
+            if (value != null) {
+                statement.bindLong(index, value);
+                return;
+            }
+        } else if (values.get(name) instanceof String) {
+            statement.bindString(index, values.getAsString(name));
+            return;
+        }
+        DatabaseUtils.bindObjectToProgram(statement, index, values.get(name));
+    }
+
+    /**
+     * Return the bits of the {@link #INSERT_COLUMNS} the values hold, bit i for column i, or
+     * -1 if they hold any other column.
+     */
+    private static int getColumnBits(ContentValues values) {
+        int bits = 0;
+        for (String column : values.keySet()) {
+            int i = 0;
+            while (i < INSERT_COLUMNS.length && !INSERT_COLUMNS[i].equals(column)) {
+                i++;
+            }
+            if (i == INSERT_COLUMNS.length) {
+                return -1;
+            }
+            bits |= 1 << i;
+        }
+        return bits;
+    }
+
+    /**
+     * Check that the values describe a valid new product, throw an
+     * {@link IllegalArgumentException} if they do not.
+     */
+    static void validateProduct(ContentValues values) {
         // Check that the name is not null
         String name =  values.getAsString(ProductContract.ProductEntry.COLUMN_PRODUCT_NAME);
         if (name == null) {
             throw new IllegalArgumentException("Product requires a name");
         }
 
-        // Check the price is valid
-        Double price = values.getAsDouble(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE);
-        if (price == null) {
+        // Check the price is valid, a whole number of cents
+        Long price = values.getAsLong(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS);
+        if (price == null || price < 0) {
             throw new IllegalArgumentException("Product requires valid price");
         }
 
@@ -141,24 +664,178 @@ public class ProductProvider extends ContentProvider {
             throw new IllegalArgumentException("Invalid entry for quantity");
         }
 
-        // Gets the database in write mode
+        validateReorderLevel(values);
+    }
+
+    /**
+     * Check the reorder level if it is given, and that the values do not set the low stock
+     * flag, which only the database writes.
+     */
+    private static void validateReorderLevel(ContentValues values) {
+        if (values.containsKey(ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL)) {
+            Integer level = values.getAsInteger(
+                    ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL);
+            if (level != null && level < 0) {
+                throw new IllegalArgumentException("Invalid entry for reorder level");
+            }
+        }
+        if (values.containsKey(ProductContract.ProductEntry.COLUMN_PRODUCT_LOW_STOCK)) {
+            throw new IllegalArgumentException("Low stock flag cannot be written");
+        }
+    }
+
+    /**
+     * Insert many products in a single transaction, reusing one compiled statement for every
+     * row. Observers are notified once, after all rows are in. If a row is invalid none of
+     * the rows are inserted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        long startNanos = System.nanoTime();
+        final int match = sUriMatcher.match(uri);
+        if (match != PRODUCTS) {
+            throw new IllegalArgumentException("insertion is not supported for " + uri);
+        }
+        int inserted = insertProducts(uri, values);
+        mStats.record(match - PRODUCTS, ProviderStats.OP_BULK_INSERT, startNanos, inserted);
+        return inserted;
+    }
+
+    private int insertProducts(Uri uri, ContentValues[] values) {
+        for (ContentValues row : values) {
+            validateProduct(row);
+            if (getColumnBits(row) == -1) {
+                throw new IllegalArgumentException("Unknown column in " + row);
+            }
+        }
+
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        Set<String> storedImages = new HashSet<>();
+        synchronized (mImageLock) {
+            boolean inserted = false;
+            db.beginTransaction();
+            try {
+                SQLiteStatement statement = mStatements.acquire(db,
+                        StatementCache.SHAPE_INSERT_PRODUCT, INSERT_SQL);
+                for (ContentValues product : values) {
+                    ContentValues row = storeImage(product, storedImages);
+                    if (row == null) {
+                        return 0;
+                    }
+                    bindInsert(statement, row);
+                    statement.executeInsert();
+                }
+                db.setTransactionSuccessful();
+                inserted = true;
+            } finally {
+                db.endTransaction();
+                if (!inserted) {
+                    // The rows were rolled back, the images stored for them have no owner
+                    releaseImages(db, storedImages);
+                }
+            }
+        }
 
-        // Insert the new product with the given values
-        long id = db.insert(ProductContract.ProductEntry.TABLE_NAME, null, values);
-        // If the ID is -1, then the insertion failed. Log an error and return null.
-        if (id == -1) {
-            Log.e(LOG_TAG, "Failed to insert row for " + uri);
-            return null;
+        if (values.length != 0) {
+            notifyChange(uri);
         }
+        return values.length;
+    }
 
-        // Notify all listeners that the data has changed for the product content URI
-        // uri: content://com.example.android.inventory/inventory
-        getContext().getContentResolver().notifyChange(uri, null);
 
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended ot the end of it
-        return ContentUris.withAppendedId(uri, id);
+    /**
+     * Apply the operations in a single transaction, either all of them take effect or none
+     * does. Observers are notified once, after the last operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        boolean[] changed = new boolean[1];
+        ContentProviderResult[] results;
+
+        // Take the locks the operations may need before the database, in the order the
+        // operations take them, so no other thread can hold one of them while waiting for
+        // this transaction.
+        Lock stockLock = mStockBuffer.getLock().writeLock();
+        stockLock.lock();
+        try {
+            synchronized (mImageLock) {
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                db.beginTransaction();
+                mBatchChanged.set(changed);
+                try {
+                    results = super.applyBatch(operations);
+                    db.setTransactionSuccessful();
+                } finally {
+                    mBatchChanged.remove();
+                    db.endTransaction();
+                    // Products were removed from the cache as they were written, but other
+                    // threads could cache them again until the transaction ended.
+                    mRowCache.invalidate(null);
+                }
+            }
+        } finally {
+            stockLock.unlock();
+        }
+
+        if (changed[0]) {
+            getContext().getContentResolver().notifyChange(
+                    ProductContract.ProductEntry.CONTENT_URI, null);
+        }
+        return results;
+    }
+
+    /**
+     * Return the ids of the products a write to the given URI and selection is about to
+     * change, or null if there are too many to report one by one.
+     */
+    private static long[] queryChangedIds(SQLiteDatabase db, Uri uri, String selection,
+                                          String[] selectionArgs) {
+        if (sUriMatcher.match(uri) == PRODUCTS_ID) {
+            return new long[] { ContentUris.parseId(uri) };
+        }
+        Cursor cursor = db.query(ProductContract.ProductEntry.TABLE_NAME,
+                new String[] { ProductContract.ProductEntry._ID }, selection, selectionArgs,
+                null, null, null, String.valueOf(MAX_ROW_NOTIFICATIONS + 1));
+        try {
+            if (cursor.getCount() > MAX_ROW_NOTIFICATIONS) {
+                return null;
+            }
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Notify observers that the given products had the given kind of change, or that any
+     * product may have changed if ids is null.
+     */
+    private void notifyRows(long[] ids, String change) {
+        if (ids == null) {
+            notifyChange(ProductContract.ProductEntry.CONTENT_URI);
+            return;
+        }
+        for (long id : ids) {
+            notifyChange(ProductContract.ProductEntry.buildChangeUri(id, change));
+        }
+    }
+
+    /**
+     * Notify observers that the data at the given URI changed. Inside {@link #applyBatch}
+     * the change is only recorded, the batch sends one notification when it is done.
+     */
+    private void notifyChange(Uri uri) {
+        boolean[] batchChanged = mBatchChanged.get();
+        if (batchChanged != null) {
+            batchChanged[0] = true;
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
     }
 
     /**
@@ -167,20 +844,48 @@ public class ProductProvider extends ContentProvider {
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection,
                       String[] selectionArgs) {
+        long startNanos = System.nanoTime();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case PRODUCTS:
-                return updateProduct(uri, contentValues, selection, selectionArgs);
+                break;
             case PRODUCTS_ID:
                 // For the PRODUCT_ID code, extract out the ID from the URI,
                 // so we know which row to update. Selection will be "_id=?" and selection
                 // arguments will be a String array containing the acutal ID.
                 selection = ProductContract.ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updateProduct(uri, contentValues, selection, selectionArgs);
+                break;
+            case LOCATIONS:
+                break;
+            case LOCATIONS_ID:
+                selection = ProductContract.LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                break;
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
+        int rowsUpdated = match == LOCATIONS || match == LOCATIONS_ID
+                ? updateLocation(contentValues, selection, selectionArgs)
+                : updateProduct(uri, contentValues, selection, selectionArgs);
+        mStats.record(match - PRODUCTS, ProviderStats.OP_UPDATE, startNanos, rowsUpdated);
+        return rowsUpdated;
+    }
+
+    /**
+     * Rename the locations matching the selection. Return the number of locations renamed.
+     */
+    private int updateLocation(ContentValues values, String selection, String[] selectionArgs) {
+        validateLocation(values);
+        if (values.size() == 0) {
+            return 0;
+        }
+        int rowsUpdated = mDbHelper.getWritableDatabase().update(
+                ProductContract.LocationEntry.TABLE_NAME, values, selection, selectionArgs);
+        if (rowsUpdated != 0) {
+            notifyChange(ProductContract.LocationEntry.CONTENT_URI);
+        }
+        return rowsUpdated;
     }
 
     /**
@@ -199,11 +904,12 @@ public class ProductProvider extends ContentProvider {
             }
         }
 
-        // If the {@link ProductEntry#COLUMN_PRODUCT_PRICE} key is present,
+        // If the {@link ProductEntry#COLUMN_PRODUCT_PRICE_CENTS} key is present,
         // check the price value is valid.
-        if (values.containsKey(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE)) {
-            Double price = values.getAsDouble(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE);
-            if (price == null) {
+        if (values.containsKey(ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS)) {
+            Long price = values.getAsLong(
+                    ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS);
+            if (price == null || price < 0) {
                 throw new IllegalArgumentException("Product requires valid price");
             }
         }
@@ -218,33 +924,142 @@ public class ProductProvider extends ContentProvider {
             }
         }
 
+        validateReorderLevel(values);
+
         // If there are no values to update, then don't try to update the database
         if (values.size() == 0) {
             return 0;
         }
 
-        // Otherwise, get writeable database to update the data
+        // Setting the quantities replaces them, so the tail of the ledger has to be folded
+        // first and no new adjustments may come in until the update is done. The change is
+        // kept in the ledger as an edit.
+        if (values.containsKey(ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY)
+                || values.containsKey(ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD)) {
+            Lock stockLock = mStockBuffer.getLock().writeLock();
+            stockLock.lock();
+            try {
+                mStockBuffer.compact();
+                SQLiteDatabase db = mDbHelper.getWritableDatabase();
+                LongSparseArray<int[]> before = mStockBuffer.readQuantities(db, selection,
+                        selectionArgs);
+                int rowsUpdated = writeProduct(uri, values, selection, selectionArgs);
+                if (rowsUpdated != 0) {
+                    mStockBuffer.recordEdits(db, before, values);
+                }
+                return rowsUpdated;
+            } finally {
+                stockLock.unlock();
+            }
+        }
+        return writeProduct(uri, values, selection, selectionArgs);
+    }
+
+    /**
+     * Write validated values to the products matching the selection.
+     */
+    private int writeProduct(Uri uri, ContentValues values, String selection,
+                             String[] selectionArgs) {
+        // Get writeable database to update the data
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = db.update(ProductContract.ProductEntry.TABLE_NAME, values,
-                selection, selectionArgs);
+        // Find the products about to change, so each one can be reported to the observers
+        long[] ids = queryChangedIds(db, uri, selection, selectionArgs);
 
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+        int rowsUpdated;
+        if (values.containsKey(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE)) {
+            // The image is replaced, so remember the images used so far. They are deleted
+            // afterwards if no other product shares them.
+            Set<String> oldImages = queryImages(db, selection, selectionArgs);
+            Set<String> storedImages = new HashSet<>();
+            synchronized (mImageLock) {
+                ContentValues row = storeImage(values, storedImages);
+                if (row == null) {
+                    return 0;
+                }
+                boolean updated = false;
+                try {
+                    rowsUpdated = updateRows(db, uri, row, selection, selectionArgs);
+                    updated = rowsUpdated != 0;
+                } finally {
+                    if (!updated) {
+                        releaseImages(db, storedImages);
+                    }
+                }
+            }
+            releaseImages(db, oldImages);
+        } else {
+            // Perform the update on the database and get the number of rows affected
+            rowsUpdated = updateRows(db, uri, values, selection, selectionArgs);
+        }
+
+        // If 1 or more rows were updated, then notify all listeners that the updated
+        // products have changed
         if (rowsUpdated !=0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            mRowCache.invalidate(ids);
+            notifyRows(ids, ProductContract.CHANGE_UPDATE);
         }
 
         // Return the number of rows updated
         return rowsUpdated;
     }
 
+    /**
+     * Update the products matching the selection. Updates of a single product, which the
+     * editor makes, use the cached statement for the columns they set, others are left to
+     * {@link SQLiteDatabase#update}.
+     */
+    private int updateRows(SQLiteDatabase db, Uri uri, ContentValues values, String selection,
+                           String[] selectionArgs) {
+        int columns = sUriMatcher.match(uri) == PRODUCTS_ID ? getColumnBits(values) : -1;
+        if (columns <= 0) {
+            return db.update(ProductContract.ProductEntry.TABLE_NAME, values, selection,
+                    selectionArgs);
+        }
+        db.beginTransaction();
+        try {
+            int shape = StatementCache.SHAPE_UPDATE_PRODUCT | columns;
+            SQLiteStatement statement = mStatements.get(db, shape);
+            if (statement == null) {
+                statement = mStatements.put(db, shape, buildUpdateSql(columns));
+            }
+            int index = 1;
+            for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+                if ((columns & 1 << i) != 0) {
+                    bindColumn(statement, index++, values, i);
+                }
+            }
+            statement.bindLong(index, ContentUris.parseId(uri));
+            int rowsUpdated = statement.executeUpdateDelete();
+            db.setTransactionSuccessful();
+            return rowsUpdated;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Update by _id of the {@link #INSERT_COLUMNS} with the given bits, in the order of the array
+    private static String buildUpdateSql(int columns) {
+        StringBuilder sql = new StringBuilder("UPDATE ")
+                .append(ProductContract.ProductEntry.TABLE_NAME).append(" SET ");
+        String separator = "";
+        for (int i = 0; i < INSERT_COLUMNS.length; i++) {
+            if ((columns & 1 << i) != 0) {
+                sql.append(separator).append(INSERT_COLUMNS[i]).append("=?");
+                separator = ",";
+            }
+        }
+        return sql.append(" WHERE ").append(ProductContract.ProductEntry._ID).append("=?")
+                .toString();
+    }
+
     /**
      * Delete the data at the given selection and selection arguments.
      */
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        long startNanos = System.nanoTime();
+
         // Get writeable database
         SQLiteDatabase db = mDbHelper.getWritableDatabase();
 
@@ -255,30 +1070,222 @@ public class ProductProvider extends ContentProvider {
         switch (match) {
             case PRODUCTS:
                 // Delete all rows that match the selection and selection args
-                rowsDeleted = db.delete(ProductContract.ProductEntry.TABLE_NAME,
-                        selection, selectionArgs);
                 break;
             case PRODUCTS_ID:
                 // Delete a single row given by the ID in the URI
                 selection = ProductContract.ProductEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = db.delete(ProductContract.ProductEntry.TABLE_NAME,
-                        selection, selectionArgs);
                 break;
+            case LOCATIONS_ID:
+                selection = ProductContract.LocationEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                // Fall through
+            case LOCATIONS:
+                rowsDeleted = deleteLocations(selection, selectionArgs);
+                mStats.record(match - PRODUCTS, ProviderStats.OP_DELETE, startNanos, rowsDeleted);
+                return rowsDeleted;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
         }
 
-        // If 1 or more rows were deleted, then notify all listeners that the data at the
-        // given URI has changed
+        // Remember the images of the deleted products, so the files can be removed
+        // once no other product uses them.
+        Set<String> oldImages = queryImages(db, selection, selectionArgs);
+        long[] ids = queryChangedIds(db, uri, selection, selectionArgs);
+        rowsDeleted = db.delete(ProductContract.ProductEntry.TABLE_NAME,
+                selection, selectionArgs);
+        releaseImages(db, oldImages);
+
+        // If 1 or more rows were deleted, then notify all listeners that the deleted
+        // products are gone
         if (rowsDeleted !=0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            mRowCache.invalidate(ids);
+            notifyRows(ids, ProductContract.CHANGE_DELETE);
         }
+        mStats.record(match - PRODUCTS, ProviderStats.OP_DELETE, startNanos, rowsDeleted);
 
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Delete the locations matching the selection. Their stock stays in the totals of the
+     * products, no longer assigned to a location. Return the number of locations deleted.
+     */
+    private int deleteLocations(String selection, String[] selectionArgs) {
+        // Adjustments at the locations are folded into their stock before it is dropped, and
+        // no new ones may come in until the locations are gone.
+        Lock stockLock = mStockBuffer.getLock().writeLock();
+        stockLock.lock();
+        try {
+            mStockBuffer.compact();
+            int rowsDeleted = mDbHelper.getWritableDatabase().delete(
+                    ProductContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+            if (rowsDeleted != 0) {
+                notifyChange(ProductContract.LocationEntry.CONTENT_URI);
+            }
+            return rowsDeleted;
+        } finally {
+            stockLock.unlock();
+        }
+    }
+
+    /**
+     * Run one of the provider methods declared in {@link ProductContract}.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (ProductContract.METHOD_ADJUST_STOCK.equals(method)) {
+            if (extras == null || !extras.containsKey(ProductContract.EXTRA_PRODUCT_ID)) {
+                throw new IllegalArgumentException("Stock adjustment requires a product id");
+            }
+            long id = extras.getLong(ProductContract.EXTRA_PRODUCT_ID);
+            long locationId = extras.getLong(ProductContract.EXTRA_LOCATION_ID,
+                    StockWriteBuffer.NO_LOCATION);
+
+            // The adjustment is buffered and written together with others shortly after,
+            // queries already see it.
+            Bundle result = mStockBuffer.adjust(id, locationId,
+                    extras.getInt(ProductContract.EXTRA_QUANTITY_DELTA),
+                    extras.getInt(ProductContract.EXTRA_SOLD_DELTA),
+                    extras.getString(ProductContract.EXTRA_REASON));
+            if (result != null && result.getBoolean(ProductContract.EXTRA_ADJUSTED)) {
+                notifyChange(ProductContract.ProductEntry.buildChangeUri(id,
+                        ProductContract.CHANGE_UPDATE));
+            }
+            return result;
+        }
+        if (ProductContract.METHOD_FLUSH_STOCK.equals(method)) {
+            // Folding is left to the thread of the buffer, callers may be on the UI thread
+            mStockBuffer.flush();
+            return null;
+        }
+        if (ProductContract.METHOD_ROW_CACHE_STATS.equals(method)) {
+            return mRowCache.getStats();
+        }
+        if (ProductContract.METHOD_PROVIDER_STATS.equals(method)) {
+            return mStats.getStats();
+        }
+        throw new IllegalArgumentException("Unknown method " + method);
+    }
+
+    /**
+     * Write buffered stock adjustments before the process may be killed, and give back the
+     * memory of cached products.
+     */
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        mStockBuffer.flush();
+        mRowCache.trimMemory(level);
+    }
+
+    @Override
+    public void shutdown() {
+        mStockBuffer.flush();
+        super.shutdown();
+    }
+
+    /**
+     * Open the image of a single product for reading. The file is served straight from the
+     * image store, so callers can stream it without copying it through a cursor.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        if (sUriMatcher.match(uri) != PRODUCTS_ID) {
+            throw new FileNotFoundException("Cannot open file for " + uri);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Product images are read-only: " + uri);
+        }
+
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String ref;
+        try {
+            ref = DatabaseUtils.stringForQuery(db, "SELECT "
+                    + ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE + " FROM "
+                    + ProductContract.ProductEntry.TABLE_NAME + " WHERE "
+                    + ProductContract.ProductEntry._ID + "=?",
+                    new String[] { String.valueOf(ContentUris.parseId(uri)) });
+        } catch (SQLiteDoneException e) {
+            // No such product
+            ref = null;
+        }
+        if (!ProductImageStore.isValidRef(ref)) {
+            throw new FileNotFoundException("No image for " + uri);
+        }
+
+        File file = mImageStore.getFile(ref);
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    /**
+     * If the values carry image bytes, write them to the image store and return a copy of the
+     * values with the bytes replaced by the reference to the stored file, which is added to
+     * stored. The values of the caller are left as they are, so they can be written again.
+     * Return the values themselves if they carry no image bytes, or null if the image could
+     * not be stored. Call while holding {@link #mImageLock}, and release the stored images if
+     * the write does not commit.
+     */
+    private ContentValues storeImage(ContentValues values, Set<String> stored) {
+        byte[] image = values.getAsByteArray(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE);
+        if (image == null) {
+            return values;
+        }
+        try {
+            String ref = mImageStore.put(image);
+            stored.add(ref);
+            ContentValues copy = new ContentValues(values);
+            copy.put(ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE, ref);
+            return copy;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to store product image", e);
+            return null;
+        }
+    }
+
+    /**
+     * Return the distinct image references of the products matching the selection.
+     */
+    private Set<String> queryImages(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        Set<String> images = new HashSet<>();
+        // Images the backfill of version 2 has not moved yet are not in the image store
+        Cursor cursor = db.query(true, ProductContract.ProductEntry.TABLE_NAME,
+                new String[] { ProductSchema.IMAGE_REF },
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                String ref = cursor.getString(0);
+                if (ref != null) {
+                    images.add(ref);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return images;
+    }
+
+    /**
+     * Delete the given image files unless a product still refers to them.
+     */
+    private void releaseImages(SQLiteDatabase db, Set<String> images) {
+        synchronized (mImageLock) {
+            for (String ref : images) {
+                if (!ProductImageStore.isValidRef(ref)) {
+                    continue;
+                }
+                long users = DatabaseUtils.queryNumEntries(db,
+                        ProductContract.ProductEntry.TABLE_NAME,
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE + "=?",
+                        new String[] { ref });
+                if (users == 0) {
+                    mImageStore.delete(ref);
+                }
+            }
+        }
+    }
+
     /**
      * Returns the MIME type of data for the content URI.
      */
@@ -290,6 +1297,20 @@ public class ProductProvider extends ContentProvider {
                 return ProductContract.ProductEntry.CONTENT_LIST_TYPE;
             case PRODUCTS_ID:
                 return ProductContract.ProductEntry.CONTENT_ITEM_TYPE;
+            case PRODUCTS_SEARCH:
+                return ProductContract.ProductEntry.CONTENT_LIST_TYPE;
+            case PRODUCTS_LOW_STOCK:
+                return ProductContract.ProductEntry.CONTENT_LIST_TYPE;
+            case SUMMARY:
+                return ProductContract.SummaryEntry.CONTENT_ITEM_TYPE;
+            case MOVEMENTS:
+                return ProductContract.StockMovementEntry.CONTENT_LIST_TYPE;
+            case LOCATIONS:
+                return ProductContract.LocationEntry.CONTENT_LIST_TYPE;
+            case LOCATIONS_ID:
+                return ProductContract.LocationEntry.CONTENT_ITEM_TYPE;
+            case LOCATION_STOCK:
+                return ProductContract.LocationStockEntry.CONTENT_LIST_TYPE;
             default:
                 throw new IllegalArgumentException("Unknown URI " + uri + " with match " + match);
         }
@@ -0,0 +1,225 @@
+package com.example.android.inventory.data;
+
+import android.content.ComponentCallbacks2;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+import android.support.v4.util.LruCache;
+
+/**
+ * Read-through cache of single products read by id, so products that are opened again and
+ * again do not have to be queried every time.
+ *
+ * The cache holds the values stored in the inventory table. The provider removes a product
+ * whenever it writes to it, and a row read from the database is only cached if no product
+ * was removed while it was being read, so the cache never brings back an old row.
+ */
+class ProductRowCache {
+
+    /** Columns of a cached product, the columns of the inventory table */
+    private static final String[] COLUMNS = {
+            ProductContract.ProductEntry._ID,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_LOW_STOCK};
+
+    private final LruCache<Long, Row> mCache;
+
+    /** Incremented whenever products are removed from the cache */
+    private long mGeneration;
+
+    /**
+     * @param maxSize number of products kept
+     */
+    ProductRowCache(int maxSize) {
+        mCache = new LruCache<>(maxSize);
+    }
+
+    /**
+     * Returns true if a query with the given projection can be answered from the cache.
+     */
+    static boolean canServe(String[] projection) {
+        if (projection == null) {
+            return true;
+        }
+        for (String column : projection) {
+            if (indexOfColumn(column) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOfColumn(String column) {
+        for (int i = 0; i < COLUMNS.length; i++) {
+            if (COLUMNS[i].equals(column)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return a cursor over the product with the given id, read from the cache or else from
+     * the database. Only call with projections accepted by {@link #canServe(String[])}.
+     */
+    Cursor query(SQLiteDatabase db, long id, String[] projection) {
+        Row row = mCache.get(id);
+        if (row == null) {
+            row = load(db, id);
+        }
+
+        if (projection == null) {
+            projection = COLUMNS;
+        }
+        MatrixCursor cursor = new MatrixCursor(projection, 1);
+        if (row != null) {
+            Object[] values = new Object[projection.length];
+            for (int i = 0; i < projection.length; i++) {
+                values[i] = row.getValue(indexOfColumn(projection[i]));
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    // Read a product from the database and cache it, returns null if there is no such product
+    private Row load(SQLiteDatabase db, long id) {
+        long generation;
+        synchronized (this) {
+            generation = mGeneration;
+        }
+
+        Row row;
+        Cursor cursor = db.query(ProductContract.ProductEntry.TABLE_NAME, COLUMNS,
+                ProductContract.ProductEntry._ID + "=?", new String[] { String.valueOf(id) },
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            row = new Row(cursor);
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (this) {
+            // Products written while the row was read may include this one
+            if (generation == mGeneration) {
+                mCache.put(id, row);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Remove the given products from the cache, or all products if ids is null. Call after
+     * the products were written.
+     */
+    synchronized void invalidate(long[] ids) {
+        mGeneration++;
+        if (ids == null) {
+            mCache.evictAll();
+            return;
+        }
+        for (long id : ids) {
+            mCache.remove(id);
+        }
+    }
+
+    /**
+     * Release cached products when the system is low on memory.
+     */
+    void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
+    }
+
+    /**
+     * Returns the counters of the cache in the format described by
+     * {@link ProductContract#METHOD_ROW_CACHE_STATS}.
+     */
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        stats.putInt(ProductContract.EXTRA_CACHE_HITS, mCache.hitCount());
+        stats.putInt(ProductContract.EXTRA_CACHE_MISSES, mCache.missCount());
+        stats.putInt(ProductContract.EXTRA_CACHE_EVICTIONS, mCache.evictionCount());
+        stats.putInt(ProductContract.EXTRA_CACHE_SIZE, mCache.size());
+        stats.putInt(ProductContract.EXTRA_CACHE_MAX_SIZE, mCache.maxSize());
+        return stats;
+    }
+
+    /**
+     * Values of a cached product. Numbers are kept unboxed, with a bit per column telling
+     * whether the value is null.
+     */
+    private static final class Row {
+
+        private final long mId;
+        private final String mName;
+        private final long mPriceCents;
+        private final long mQuantity;
+        private final long mSold;
+        private final String mImage;
+        private final long mReorderLevel;
+        private final String mSupplier;
+        private final long mLowStock;
+
+        /** Bit (1 << column index) set for every numeric column that is null */
+        private final int mNulls;
+
+        Row(Cursor cursor) {
+            mId = cursor.getLong(0);
+            mName = cursor.getString(1);
+            mPriceCents = cursor.getLong(2);
+            mQuantity = cursor.getLong(3);
+            mSold = cursor.getLong(4);
+            mImage = cursor.getString(5);
+            mReorderLevel = cursor.getLong(6);
+            mSupplier = cursor.getString(7);
+            mLowStock = cursor.getLong(8);
+            int nulls = 0;
+            for (int column = 2; column <= 6; column++) {
+                if (column != 5 && cursor.isNull(column)) {
+                    nulls |= 1 << column;
+                }
+            }
+            mNulls = nulls;
+        }
+
+        Object getValue(int column) {
+            if ((mNulls & (1 << column)) != 0) {
+                return null;
+            }
+            switch (column) {
+                case 0:
+                    return mId;
+                case 1:
+                    return mName;
+                case 2:
+                    return mPriceCents;
+                case 3:
+                    return mQuantity;
+                case 4:
+                    return mSold;
+                case 5:
+                    return mImage;
+                case 6:
+                    return mReorderLevel;
+                case 7:
+                    return mSupplier;
+                default:
+                    return mLowStock;
+            }
+        }
+    }
+}
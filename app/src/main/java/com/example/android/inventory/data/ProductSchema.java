@@ -0,0 +1,417 @@
+package com.example.android.inventory.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Statements creating the tables, indexes and triggers of the inventory database, and the
+ * statements writing the stock ledger.
+ *
+ * {@link ProductDbHelper} runs the schema to create a new database and, a part at a time, in
+ * the upgrade steps that introduced it, {@link StockWriteBuffer} runs the ledger statements.
+ * They only use the constants of {@link ProductContract} and no Android classes, so the
+ * benchmarks and tests of the data layer run the very same statements on a plain JVM.
+ */
+final class ProductSchema {
+
+    /** Table with the single row holding the _id of the last folded movement */
+    static final String LEDGER_TABLE_NAME = "stock_ledger";
+    static final String COLUMN_FOLDED_THROUGH = "folded_through";
+
+    /** Appends a movement, bound by {@code StockWriteBuffer.Movement.bind()} */
+    static final String INSERT_MOVEMENT_SQL = "INSERT INTO "
+            + ProductContract.StockMovementEntry.TABLE_NAME + " ("
+            + ProductContract.StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+            + ProductContract.StockMovementEntry.COLUMN_QUANTITY_DELTA + ", "
+            + ProductContract.StockMovementEntry.COLUMN_SOLD_DELTA + ", "
+            + ProductContract.StockMovementEntry.COLUMN_REASON + ", "
+            + ProductContract.StockMovementEntry.COLUMN_TIME + ", "
+            + ProductContract.StockMovementEntry.COLUMN_LOCATION_ID + ") VALUES (?,?,?,?,?,?)";
+
+    /** Adds deltas to the quantities of a product */
+    static final String FOLD_PRODUCT_SQL = "UPDATE "
+            + ProductContract.ProductEntry.TABLE_NAME + " SET "
+            + ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY + "=COALESCE("
+            + ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY + ",0)+?, "
+            + ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD + "=COALESCE("
+            + ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD + ",0)+? WHERE "
+            + ProductContract.ProductEntry._ID + "=?";
+
+    /** Adds deltas to the stock of a product at a location */
+    static final String FOLD_LOCATION_SQL = "UPDATE "
+            + ProductContract.LocationStockEntry.TABLE_NAME + " SET "
+            + ProductContract.LocationStockEntry.COLUMN_QUANTITY + "="
+            + ProductContract.LocationStockEntry.COLUMN_QUANTITY + "+?, "
+            + ProductContract.LocationStockEntry.COLUMN_SOLD + "="
+            + ProductContract.LocationStockEntry.COLUMN_SOLD + "+? WHERE "
+            + ProductContract.LocationStockEntry.COLUMN_LOCATION_ID + "=? AND "
+            + ProductContract.LocationStockEntry.COLUMN_PRODUCT_ID + "=?";
+
+    /** Moves the folded position to the last movement in the ledger */
+    static final String MARK_FOLDED_SQL = "UPDATE " + LEDGER_TABLE_NAME + " SET "
+            + COLUMN_FOLDED_THROUGH + "=(SELECT ifnull(max("
+            + ProductContract.StockMovementEntry._ID + "),0) FROM "
+            + ProductContract.StockMovementEntry.TABLE_NAME + ")";
+
+    /**
+     * Drops the folded movements older than a time, bound as the second argument, among as
+     * many of the oldest movements as the first argument allows. Only a chunk of the oldest
+     * movements is looked at, so a compaction does not read the whole history.
+     */
+    static final String EXPIRE_MOVEMENTS_SQL = "DELETE FROM "
+            + ProductContract.StockMovementEntry.TABLE_NAME + " WHERE "
+            + ProductContract.StockMovementEntry._ID + " IN (SELECT "
+            + ProductContract.StockMovementEntry._ID + " FROM "
+            + ProductContract.StockMovementEntry.TABLE_NAME + " WHERE "
+            + ProductContract.StockMovementEntry._ID + "<=(SELECT " + COLUMN_FOLDED_THROUGH
+            + " FROM " + LEDGER_TABLE_NAME + ") ORDER BY " + ProductContract.StockMovementEntry._ID
+            + " LIMIT ?) AND " + ProductContract.StockMovementEntry.COLUMN_TIME + "<?";
+
+    /** Price in dollars, as a REAL number, kept by versions before 6 and emptied since */
+    static final String COLUMN_PRICE_DOLLARS = "price";
+
+    /** Price in dollars of {@link #COLUMN_PRICE_DOLLARS} as whole cents, to the nearest cent */
+    static final String PRICE_DOLLARS_TO_CENTS = "CAST(round(" + COLUMN_PRICE_DOLLARS
+            + "*100) AS INTEGER)";
+
+    /**
+     * Image reference of a product. Version 1 kept the image bytes in the same column, which
+     * the backfill of version 2 moves into the image store, and rows it has not reached yet
+     * read as NULL instead of bytes no reader expects.
+     */
+    static final String IMAGE_REF = "CASE WHEN typeof("
+            + ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE + ")='blob' THEN NULL ELSE "
+            + ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE + " END";
+
+    private ProductSchema() {}
+
+    /**
+     * Returns the statements creating the schema of a new database, in order.
+     */
+    static List<String> create() {
+        List<String> statements = new ArrayList<>();
+        statements.add(productsTable());
+        Collections.addAll(statements, imageIndex());
+        Collections.addAll(statements, searchIndex());
+        Collections.addAll(statements, summary());
+        Collections.addAll(statements, lowStockIndex());
+        Collections.addAll(statements, stockLedger());
+        Collections.addAll(statements, locations());
+        Collections.addAll(statements, catalogIndexes());
+        return statements;
+    }
+
+    /**
+     * The inventory table, in the form of the current version.
+     */
+    static String productsTable() {
+        return "CREATE TABLE " + ProductContract.ProductEntry.TABLE_NAME + " ("
+                + ProductContract.ProductEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_NAME + " TEXT NOT NULL, "
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS + " INTEGER, "
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY + " INTEGER, "
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD + " INTEGER, "
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE + " TEXT, "
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL + " INTEGER, "
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER + " TEXT, "
+                + ProductContract.ProductEntry.COLUMN_PRODUCT_LOW_STOCK
+                + " INTEGER NOT NULL DEFAULT 0);";
+    }
+
+    /**
+     * Index on the image reference, so the provider can cheaply tell whether an image file is
+     * still used by any product before deleting it.
+     */
+    static String[] imageIndex() {
+        return new String[] {
+                "CREATE INDEX IF NOT EXISTS " + ProductContract.ProductEntry.TABLE_NAME
+                        + "_image_idx ON " + ProductContract.ProductEntry.TABLE_NAME + " ("
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_IMAGE + ");"};
+    }
+
+    /**
+     * Full-text index on the product names. The docid of every entry is the _id of its
+     * product, triggers keep the index in step with the inventory table.
+     */
+    static String[] searchIndex() {
+        String table = ProductContract.ProductEntry.TABLE_NAME;
+        String search = ProductContract.ProductEntry.SEARCH_TABLE_NAME;
+        String id = ProductContract.ProductEntry._ID;
+        String name = ProductContract.ProductEntry.COLUMN_PRODUCT_NAME;
+
+        return new String[] {
+                "CREATE VIRTUAL TABLE " + search + " USING fts4(" + name + ");",
+                "CREATE TRIGGER " + search + "_insert AFTER INSERT ON " + table
+                        + " BEGIN INSERT INTO " + search + " (docid, " + name + ") VALUES (new."
+                        + id + ", new." + name + "); END;",
+                "CREATE TRIGGER " + search + "_update AFTER UPDATE OF " + name + " ON " + table
+                        + " BEGIN UPDATE " + search + " SET " + name + "=new." + name
+                        + " WHERE docid=old." + id + "; END;",
+                "CREATE TRIGGER " + search + "_delete AFTER DELETE ON " + table
+                        + " BEGIN DELETE FROM " + search + " WHERE docid=old." + id + "; END;"};
+    }
+
+    /**
+     * Summary table with the totals of all products, filled from the products already in the
+     * inventory table. Triggers add the difference every row makes, so the totals are never
+     * computed by reading the whole table again.
+     */
+    static String[] summary() {
+        String table = ProductContract.ProductEntry.TABLE_NAME;
+        String summary = ProductContract.SummaryEntry.TABLE_NAME;
+        String price = ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS;
+        String quantity = ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        String sold = ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD;
+        String count = ProductContract.SummaryEntry.COLUMN_PRODUCT_COUNT;
+        String onHand = ProductContract.SummaryEntry.COLUMN_UNITS_ON_HAND;
+        String unitsSold = ProductContract.SummaryEntry.COLUMN_UNITS_SOLD;
+        String value = ProductContract.SummaryEntry.COLUMN_STOCK_VALUE_CENTS;
+
+        return new String[] {
+                "CREATE TABLE " + summary + " ("
+                        + ProductContract.SummaryEntry._ID + " INTEGER PRIMARY KEY, "
+                        + count + " INTEGER NOT NULL, "
+                        + onHand + " INTEGER NOT NULL, "
+                        + unitsSold + " INTEGER NOT NULL, "
+                        + value + " INTEGER NOT NULL);",
+                "INSERT INTO " + summary + " SELECT 1, count(*), ifnull(sum(" + quantity
+                        + "),0), ifnull(sum(" + sold + "),0), ifnull(sum(" + price + "*"
+                        + quantity + "),0) FROM " + table + ";",
+                "CREATE TRIGGER " + summary + "_insert AFTER INSERT ON " + table
+                        + " BEGIN UPDATE " + summary + " SET "
+                        + count + "=" + count + "+1, "
+                        + onHand + "=" + onHand + "+ifnull(new." + quantity + ",0), "
+                        + unitsSold + "=" + unitsSold + "+ifnull(new." + sold + ",0), "
+                        + value + "=" + value + "+ifnull(new." + price + "*new." + quantity
+                        + ",0); END;",
+                "CREATE TRIGGER " + summary + "_update AFTER UPDATE OF " + price + ", "
+                        + quantity + ", " + sold + " ON " + table
+                        + " BEGIN UPDATE " + summary + " SET "
+                        + onHand + "=" + onHand + "+ifnull(new." + quantity + ",0)-ifnull(old."
+                        + quantity + ",0), "
+                        + unitsSold + "=" + unitsSold + "+ifnull(new." + sold
+                        + ",0)-ifnull(old." + sold + ",0), "
+                        + value + "=" + value + "+ifnull(new." + price + "*new." + quantity
+                        + ",0)-ifnull(old." + price + "*old." + quantity + ",0); END;",
+                "CREATE TRIGGER " + summary + "_delete AFTER DELETE ON " + table
+                        + " BEGIN UPDATE " + summary + " SET "
+                        + count + "=" + count + "-1, "
+                        + onHand + "=" + onHand + "-ifnull(old." + quantity + ",0), "
+                        + unitsSold + "=" + unitsSold + "-ifnull(old." + sold + ",0), "
+                        + value + "=" + value + "-ifnull(old." + price + "*old." + quantity
+                        + ",0); END;"};
+    }
+
+    /**
+     * Version 6: prices in whole cents instead of a REAL number of dollars. The prices are
+     * moved over by a single UPDATE before the summary is rebuilt, so no product is ever
+     * read without its price and the summary adds up the moved prices once instead of in its
+     * triggers. SQLite on older devices cannot drop columns, so the old column stays,
+     * emptied.
+     */
+    static String[] priceCents() {
+        String table = ProductContract.ProductEntry.TABLE_NAME;
+        String summary = ProductContract.SummaryEntry.TABLE_NAME;
+        String priceCents = ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS;
+        String[] statements = {
+                "DROP TRIGGER IF EXISTS " + summary + "_insert;",
+                "DROP TRIGGER IF EXISTS " + summary + "_update;",
+                "DROP TRIGGER IF EXISTS " + summary + "_delete;",
+                "DROP TABLE IF EXISTS " + summary + ";",
+                "ALTER TABLE " + table + " ADD COLUMN " + priceCents + " INTEGER;",
+                "UPDATE " + table + " SET " + priceCents + "=" + PRICE_DOLLARS_TO_CENTS + ", "
+                        + COLUMN_PRICE_DOLLARS + "=NULL WHERE " + COLUMN_PRICE_DOLLARS
+                        + " IS NOT NULL;"};
+        List<String> all = new ArrayList<>();
+        Collections.addAll(all, statements);
+        Collections.addAll(all, summary());
+        return all.toArray(new String[all.size()]);
+    }
+
+    /**
+     * Index of the products below their reorder level, grouped by supplier. Partial indexes
+     * need a newer SQLite than older devices ship, so triggers keep a low stock flag that
+     * leads the index instead. The flag is only written when the quantity or the reorder
+     * level changes, so the other triggers on those columns are not run again.
+     */
+    static String[] lowStockIndex() {
+        String table = ProductContract.ProductEntry.TABLE_NAME;
+        String id = ProductContract.ProductEntry._ID;
+        String quantity = ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        String level = ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL;
+        String lowStock = ProductContract.ProductEntry.COLUMN_PRODUCT_LOW_STOCK;
+
+        return new String[] {
+                "CREATE INDEX " + table + "_low_stock_idx ON " + table + " ("
+                        + lowStock + ", "
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER + ", "
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_NAME + ");",
+                // New products start out with the flag cleared
+                "CREATE TRIGGER " + table + "_low_stock_insert AFTER INSERT ON " + table
+                        + " WHEN new." + level + " IS NOT NULL"
+                        + " BEGIN UPDATE " + table + " SET " + lowStock + "=(ifnull(new."
+                        + quantity + ",0)<new." + level + ") WHERE " + id + "=new." + id
+                        + "; END;",
+                "CREATE TRIGGER " + table + "_low_stock_update AFTER UPDATE OF " + quantity
+                        + ", " + level + " ON " + table
+                        + " BEGIN UPDATE " + table + " SET " + lowStock + "=(new." + level
+                        + " IS NOT NULL AND ifnull(new." + quantity + ",0)<new." + level
+                        + ") WHERE " + id + "=new." + id + "; END;"};
+    }
+
+    /**
+     * Append-only table of stock movements, and the position up to which they are included
+     * in the quantities of the products. The quantities are a snapshot of all movements up
+     * to that position, the movements after it are the tail the {@link StockWriteBuffer}
+     * adds to them until it folds them in.
+     */
+    static String[] stockLedger() {
+        String movements = ProductContract.StockMovementEntry.TABLE_NAME;
+        return new String[] {
+                "CREATE TABLE " + movements + " ("
+                        + ProductContract.StockMovementEntry._ID
+                        + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + ProductContract.StockMovementEntry.COLUMN_PRODUCT_ID
+                        + " INTEGER NOT NULL, "
+                        + ProductContract.StockMovementEntry.COLUMN_QUANTITY_DELTA
+                        + " INTEGER NOT NULL, "
+                        + ProductContract.StockMovementEntry.COLUMN_SOLD_DELTA
+                        + " INTEGER NOT NULL, "
+                        + ProductContract.StockMovementEntry.COLUMN_REASON + " TEXT NOT NULL, "
+                        + ProductContract.StockMovementEntry.COLUMN_TIME
+                        + " INTEGER NOT NULL);",
+                // History of a single product, and the tail of each product when folding
+                "CREATE INDEX " + movements + "_product_idx ON " + movements + " ("
+                        + ProductContract.StockMovementEntry.COLUMN_PRODUCT_ID + ", "
+                        + ProductContract.StockMovementEntry._ID + ");",
+                "CREATE TABLE " + LEDGER_TABLE_NAME + " ("
+                        + COLUMN_FOLDED_THROUGH + " INTEGER NOT NULL);",
+                "INSERT INTO " + LEDGER_TABLE_NAME + " VALUES (0);"};
+    }
+
+    /**
+     * Statements folding the movements an earlier run appended but did not fold, to be run
+     * in one transaction. Movements made at a location are added to the stock there, which
+     * the triggers add to the totals, the others are added to the totals directly. The
+     * adjustments created the stock rows before the movements were made, unless the location
+     * was deleted since.
+     */
+    static String[] foldLedger() {
+        String table = ProductContract.ProductEntry.TABLE_NAME;
+        String stock = ProductContract.LocationStockEntry.TABLE_NAME;
+        String movements = ProductContract.StockMovementEntry.TABLE_NAME;
+        String productId = ProductContract.StockMovementEntry.COLUMN_PRODUCT_ID;
+        String locationId = ProductContract.StockMovementEntry.COLUMN_LOCATION_ID;
+        String quantityDelta = ProductContract.StockMovementEntry.COLUMN_QUANTITY_DELTA;
+        String soldDelta = ProductContract.StockMovementEntry.COLUMN_SOLD_DELTA;
+        String unfolded = ProductContract.StockMovementEntry._ID + ">(SELECT "
+                + COLUMN_FOLDED_THROUGH + " FROM " + LEDGER_TABLE_NAME + ")";
+        String locationTail = " FROM " + movements + " WHERE " + locationId + "=" + stock + "."
+                + ProductContract.LocationStockEntry.COLUMN_LOCATION_ID + " AND " + productId
+                + "=" + stock + "." + ProductContract.LocationStockEntry.COLUMN_PRODUCT_ID
+                + " AND " + unfolded;
+        String tail = " FROM " + movements + " WHERE " + productId + "=" + table + "."
+                + ProductContract.ProductEntry._ID + " AND " + locationId + " IS NULL AND "
+                + unfolded;
+
+        return new String[] {
+                "UPDATE " + stock + " SET "
+                        + ProductContract.LocationStockEntry.COLUMN_QUANTITY + "="
+                        + ProductContract.LocationStockEntry.COLUMN_QUANTITY + "+(SELECT sum("
+                        + quantityDelta + ")" + locationTail + "), "
+                        + ProductContract.LocationStockEntry.COLUMN_SOLD + "="
+                        + ProductContract.LocationStockEntry.COLUMN_SOLD + "+(SELECT sum("
+                        + soldDelta + ")" + locationTail + ")"
+                        + " WHERE EXISTS (SELECT 1" + locationTail + ");",
+                "UPDATE " + table + " SET "
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY + "=ifnull("
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY + ",0)+(SELECT sum("
+                        + quantityDelta + ")" + tail + "), "
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD + "=ifnull("
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD + ",0)+(SELECT sum("
+                        + soldDelta + ")" + tail + ") WHERE " + ProductContract.ProductEntry._ID
+                        + " IN (SELECT " + productId + " FROM " + movements + " WHERE "
+                        + locationId + " IS NULL AND " + unfolded + ");",
+                MARK_FOLDED_SQL};
+    }
+
+    /**
+     * Locations and the stock of the products at each of them, and the location column of
+     * the ledger. The stock at a location is a partition of the totals of the product:
+     * triggers add every change of it to the totals, which run their own triggers for the
+     * summary and the low stock flag in turn. Rows are only removed together with their
+     * product or location, so there is no trigger for deletes, which leaves the stock of a
+     * deleted location in the totals without a location.
+     */
+    static String[] locations() {
+        String locations = ProductContract.LocationEntry.TABLE_NAME;
+        String stock = ProductContract.LocationStockEntry.TABLE_NAME;
+        String table = ProductContract.ProductEntry.TABLE_NAME;
+        String locationId = ProductContract.LocationStockEntry.COLUMN_LOCATION_ID;
+        String productId = ProductContract.LocationStockEntry.COLUMN_PRODUCT_ID;
+        String quantity = ProductContract.LocationStockEntry.COLUMN_QUANTITY;
+        String sold = ProductContract.LocationStockEntry.COLUMN_SOLD;
+        String productQuantity = ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY;
+        String productSold = ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD;
+
+        return new String[] {
+                "CREATE TABLE " + locations + " ("
+                        + ProductContract.LocationEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                        + ProductContract.LocationEntry.COLUMN_LOCATION_NAME
+                        + " TEXT NOT NULL UNIQUE);",
+                // The unique constraint is the index on (location, product) that finds the
+                // stock of a location, the second index finds the locations of a product.
+                "CREATE TABLE " + stock + " ("
+                        + ProductContract.LocationStockEntry._ID + " INTEGER PRIMARY KEY, "
+                        + locationId + " INTEGER NOT NULL, "
+                        + productId + " INTEGER NOT NULL, "
+                        + quantity + " INTEGER NOT NULL DEFAULT 0, "
+                        + sold + " INTEGER NOT NULL DEFAULT 0, "
+                        + "UNIQUE (" + locationId + ", " + productId + "));",
+                "CREATE INDEX " + stock + "_product_idx ON " + stock + " (" + productId + ");",
+                "ALTER TABLE " + ProductContract.StockMovementEntry.TABLE_NAME
+                        + " ADD COLUMN " + ProductContract.StockMovementEntry.COLUMN_LOCATION_ID
+                        + " INTEGER;",
+                "CREATE TRIGGER " + stock + "_insert AFTER INSERT ON " + stock
+                        + " WHEN new." + quantity + "<>0 OR new." + sold + "<>0"
+                        + " BEGIN UPDATE " + table + " SET "
+                        + productQuantity + "=ifnull(" + productQuantity + ",0)+new." + quantity
+                        + ", " + productSold + "=ifnull(" + productSold + ",0)+new." + sold
+                        + " WHERE " + ProductContract.ProductEntry._ID + "=new." + productId
+                        + "; END;",
+                "CREATE TRIGGER " + stock + "_update AFTER UPDATE OF " + quantity + ", "
+                        + sold + " ON " + stock
+                        + " WHEN new." + quantity + "<>old." + quantity + " OR new." + sold
+                        + "<>old." + sold
+                        + " BEGIN UPDATE " + table + " SET "
+                        + productQuantity + "=ifnull(" + productQuantity + ",0)+new." + quantity
+                        + "-old." + quantity + ", "
+                        + productSold + "=ifnull(" + productSold + ",0)+new." + sold + "-old."
+                        + sold + " WHERE " + ProductContract.ProductEntry._ID + "=new."
+                        + productId + "; END;",
+                "CREATE TRIGGER " + table + "_location_stock_delete AFTER DELETE ON " + table
+                        + " BEGIN DELETE FROM " + stock + " WHERE " + productId + "=old."
+                        + ProductContract.ProductEntry._ID + "; END;",
+                "CREATE TRIGGER " + locations + "_delete AFTER DELETE ON " + locations
+                        + " BEGIN DELETE FROM " + stock + " WHERE " + locationId + "=old."
+                        + ProductContract.LocationEntry._ID + "; END;"};
+    }
+
+    /**
+     * Indexes the catalog is read in the order of, one per order offered in
+     * {@link ProductContract.ProductEntry}. The rowid at the end of every index entry is the
+     * _id that breaks ties, and the quantity index also finds the products in stock. Every
+     * stock adjustment folded into a product updates the quantity and sold indexes as well.
+     */
+    static String[] catalogIndexes() {
+        String table = ProductContract.ProductEntry.TABLE_NAME;
+        return new String[] {
+                "CREATE INDEX " + table + "_name_idx ON " + table + " ("
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_NAME + " COLLATE NOCASE);",
+                "CREATE INDEX " + table + "_quantity_idx ON " + table + " ("
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY + ");",
+                "CREATE INDEX " + table + "_sold_idx ON " + table + " ("
+                        + ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD + ");"};
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.android.inventory.data;
+
+/**
+ * Shared definitions of the product import and export file formats.
+ *
+ * Both formats carry the fields {@link #FIELD_NAME}, {@link #FIELD_PRICE},
+ * {@link #FIELD_QUANTITY} and {@link #FIELD_SOLD}. A CSV file starts with a header line naming
+ * its columns, a JSON file is an array with one object per product.
+ */
+public final class ProductTransfer {
+
+    private ProductTransfer() {}
+
+    /** Comma separated values with a header line */
+    public static final int FORMAT_CSV = 0;
+
+    /** JSON array of product objects */
+    public static final int FORMAT_JSON = 1;
+
+    // Names of the fields in the files
+    public static final String FIELD_NAME = "name";
+    public static final String FIELD_PRICE = "price";
+    public static final String FIELD_QUANTITY = "quantity";
+    public static final String FIELD_SOLD = "sold";
+
+    /** Number of rows between two progress reports */
+    static final int PROGRESS_INTERVAL = 1000;
+
+    /**
+     * Receives progress reports while products are imported or exported. Called on the
+     * thread doing the transfer.
+     */
+    public interface ProgressListener {
+        /**
+         * @param rows number of rows read so far
+         * @param rejected number of those rows that were invalid and skipped
+         * @param elapsedMillis time since the transfer started
+         */
+        void onProgress(long rows, long rejected, long elapsedMillis);
+    }
+
+    /**
+     * Return the format a file is in, judging by its MIME type or name.
+     */
+    public static int formatOf(String mimeType, String name) {
+        if ((mimeType != null && mimeType.contains("json"))
+                || (name != null && name.toLowerCase().endsWith(".json"))) {
+            return FORMAT_JSON;
+        }
+        return FORMAT_CSV;
+    }
+}
@@ -0,0 +1,333 @@
+package com.example.android.inventory.data;
+
+import android.database.AbstractWindowedCursor;
+import android.database.Cursor;
+import android.database.CursorWindow;
+import android.database.CursorWrapper;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histograms of the provider operations, kept per operation and URI match.
+ *
+ * Recording an operation only adds to a few {@link AtomicLongArray} slots, it takes no lock
+ * and allocates nothing. Latencies fall into buckets by powers of two microseconds, bucket i
+ * counting the operations that took less than 2^(i+1) us and at least 2^i us. Percentiles
+ * are read off the buckets when a snapshot is taken, so they are upper bounds accurate to a
+ * factor of two.
+ *
+ * Queries also count the cursor windows their rows need. A window holds as many rows as fit
+ * into its fixed capacity, and every further one is filled by running the query again from
+ * the row it starts at, so queries needing more than one window per call return too much.
+ * How many bytes a window holds is not exposed by {@link CursorWindow}, so its rows stand in.
+ *
+ * Queries slower than the threshold are logged with their query plan, and the histograms are
+ * written to a file every now and then. Both happen on a background thread of their own.
+ */
+class ProviderStats {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = ProviderStats.class.getSimpleName();
+
+    // Operations of the provider that are measured.
+    static final int OP_QUERY = 0;
+    static final int OP_INSERT = 1;
+    static final int OP_BULK_INSERT = 2;
+    static final int OP_UPDATE = 3;
+    static final int OP_DELETE = 4;
+    private static final String[] OPERATION_NAMES =
+            {"query", "insert", "bulk_insert", "update", "delete"};
+
+    /** Number of latency buckets, the last one counts everything from 2^31 us on */
+    static final int BUCKETS = 32;
+
+    // Totals kept next to the buckets of every histogram.
+    private static final int TOTAL_COUNT = 0;
+    private static final int TOTAL_MICROS = 1;
+    private static final int TOTAL_ROWS = 2;
+    private static final int TOTAL_WINDOWS = 3;
+    private static final int MAX_MICROS = 4;
+    private static final int TOTALS = 5;
+
+    /** Name of the file the histograms are written to, in the files directory of the app */
+    static final String DUMP_FILE_NAME = "provider_stats.json";
+
+    /** Names of the URI matches, by match index */
+    private final String[] mMatchNames;
+
+    /** Buckets of all histograms, the histogram of a match and operation after another */
+    private final AtomicLongArray mBuckets;
+    private final AtomicLongArray mTotals;
+
+    private final long mSlowQueryMicros;
+    private final long mDumpIntervalMs;
+    private final File mDumpFile;
+
+    /** Thread the query plans are read and the dumps are written on */
+    private final Handler mHandler;
+
+    /** Number of operations recorded when the histograms were last written */
+    private long mDumpedCount;
+
+    private final Runnable mDumpRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dump();
+            mHandler.postDelayed(this, mDumpIntervalMs);
+        }
+    };
+
+    /**
+     * @param matchNames names of the URI matches, the match index given to
+     *                   {@link #record} is the position of its name
+     * @param slowQueryMs time from which on queries are logged with their plan
+     * @param dumpIntervalMs time between writes of the dump file, 0 to never write it
+     */
+    ProviderStats(String[] matchNames, long slowQueryMs, long dumpIntervalMs, File dumpFile) {
+        mMatchNames = matchNames;
+        int histograms = matchNames.length * OPERATION_NAMES.length;
+        mBuckets = new AtomicLongArray(histograms * BUCKETS);
+        mTotals = new AtomicLongArray(histograms * TOTALS);
+        mSlowQueryMicros = slowQueryMs * 1000;
+        mDumpIntervalMs = dumpIntervalMs;
+        mDumpFile = dumpFile;
+
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        if (dumpIntervalMs > 0) {
+            mHandler.postDelayed(mDumpRunnable, dumpIntervalMs);
+        }
+    }
+
+    /**
+     * Record an operation that started at the given {@link System#nanoTime()} and ended now,
+     * and return how long it took in microseconds.
+     */
+    long record(int match, int operation, long startNanos, long rows) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int histogram = match * OPERATION_NAMES.length + operation;
+        mBuckets.incrementAndGet(histogram * BUCKETS + bucketOf(micros));
+
+        int totals = histogram * TOTALS;
+        mTotals.incrementAndGet(totals + TOTAL_COUNT);
+        mTotals.addAndGet(totals + TOTAL_MICROS, micros);
+        mTotals.addAndGet(totals + TOTAL_ROWS, rows);
+        long max;
+        do {
+            max = mTotals.get(totals + MAX_MICROS);
+        } while (micros > max && !mTotals.compareAndSet(totals + MAX_MICROS, max, micros));
+        return micros;
+    }
+
+    // Returns the bucket of a latency: the power of two microseconds it is at least, at most
+    // the last bucket.
+    static int bucketOf(long micros) {
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros | 1));
+    }
+
+    /**
+     * Record a query and, if it was slow, log it with its plan. The plan is read on the
+     * background thread, so the caller does not wait for it.
+     */
+    void recordQuery(int match, long startNanos, Cursor cursor, final SQLiteDatabase db,
+                     String table, String[] projection, String selection,
+                     final String[] selectionArgs, String sortOrder, String limit) {
+        // Counting the rows fills the first window
+        int rows = cursor.getCount();
+        final long micros = record(match, OP_QUERY, startNanos, rows);
+        mTotals.addAndGet((match * OPERATION_NAMES.length + OP_QUERY) * TOTALS + TOTAL_WINDOWS,
+                windowsOf(rows, windowRowsOf(cursor)));
+        if (micros < mSlowQueryMicros) {
+            return;
+        }
+        final String sql = SQLiteQueryBuilder.buildQueryString(false, table, projection,
+                selection, null, null, sortOrder, limit);
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Log.w(LOG_TAG, "Slow query (" + micros / 1000 + " ms): " + sql + "\n"
+                        + explain(db, sql, selectionArgs));
+            }
+        });
+    }
+
+    // Returns the number of rows in the first window of the cursor, or 0 if it has none.
+    private static int windowRowsOf(Cursor cursor) {
+        while (!(cursor instanceof AbstractWindowedCursor) && cursor instanceof CursorWrapper) {
+            cursor = ((CursorWrapper) cursor).getWrappedCursor();
+        }
+        if (cursor instanceof AbstractWindowedCursor) {
+            CursorWindow window = ((AbstractWindowedCursor) cursor).getWindow();
+            if (window != null) {
+                return window.getNumRows();
+            }
+        }
+        return 0;
+    }
+
+    // Returns the number of windows the rows of a query need, given how many of them the
+    // first window holds. Rows of later windows may be larger, so this is a lower bound. A
+    // cursor without a window of its own is copied into one when it is sent to the client.
+    static long windowsOf(int rows, int windowRows) {
+        if (rows == 0) {
+            return 0;
+        }
+        if (windowRows <= 0 || windowRows >= rows) {
+            return 1;
+        }
+        return (rows + windowRows - 1) / windowRows;
+    }
+
+    // Returns the plan SQLite chooses for the query, one step per line.
+    private static String explain(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        StringBuilder plan = new StringBuilder();
+        try {
+            Cursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            try {
+                // The last column describes the step
+                int detail = cursor.getColumnCount() - 1;
+                while (cursor.moveToNext()) {
+                    plan.append("  ").append(cursor.getString(detail)).append('\n');
+                }
+            } finally {
+                cursor.close();
+            }
+        } catch (SQLiteException e) {
+            plan.append("  No plan: ").append(e.getMessage());
+        }
+        return plan.toString();
+    }
+
+    /**
+     * Returns a snapshot of the histograms in the format described by
+     * {@link ProductContract#METHOD_PROVIDER_STATS}.
+     */
+    Bundle getStats() {
+        Bundle stats = new Bundle();
+        for (int match = 0; match < mMatchNames.length; match++) {
+            for (int operation = 0; operation < OPERATION_NAMES.length; operation++) {
+                int histogram = match * OPERATION_NAMES.length + operation;
+                long count = mTotals.get(histogram * TOTALS + TOTAL_COUNT);
+                if (count == 0) {
+                    continue;
+                }
+                long[] buckets = readBuckets(histogram);
+                Bundle entry = new Bundle();
+                entry.putLong(ProductContract.EXTRA_STATS_COUNT, count);
+                entry.putLong(ProductContract.EXTRA_STATS_TOTAL_US,
+                        mTotals.get(histogram * TOTALS + TOTAL_MICROS));
+                entry.putLong(ProductContract.EXTRA_STATS_MAX_US,
+                        mTotals.get(histogram * TOTALS + MAX_MICROS));
+                entry.putLong(ProductContract.EXTRA_STATS_ROWS,
+                        mTotals.get(histogram * TOTALS + TOTAL_ROWS));
+                entry.putLong(ProductContract.EXTRA_STATS_WINDOWS,
+                        mTotals.get(histogram * TOTALS + TOTAL_WINDOWS));
+                entry.putLong(ProductContract.EXTRA_STATS_P50_US, percentile(buckets, 0.5));
+                entry.putLong(ProductContract.EXTRA_STATS_P90_US, percentile(buckets, 0.9));
+                entry.putLong(ProductContract.EXTRA_STATS_P99_US, percentile(buckets, 0.99));
+                entry.putLongArray(ProductContract.EXTRA_STATS_BUCKETS, buckets);
+                stats.putBundle(OPERATION_NAMES[operation] + "." + mMatchNames[match], entry);
+            }
+        }
+        return stats;
+    }
+
+    private long[] readBuckets(int histogram) {
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = mBuckets.get(histogram * BUCKETS + i);
+        }
+        return buckets;
+    }
+
+    // Returns the upper bound of the bucket the given fraction of the operations falls into.
+    // The buckets are read one after another while operations are recorded, so their sum
+    // is taken again instead of trusting the count.
+    static long percentile(long[] buckets, double fraction) {
+        long total = 0;
+        for (long count : buckets) {
+            total += count;
+        }
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && buckets[i] != 0) {
+                return 1L << (i + 1);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Write the histograms to the dump file, unless nothing was recorded since the last time.
+     * The file is replaced in one step, so readers never see half of it.
+     */
+    private void dump() {
+        long count = 0;
+        for (int histogram = 0; histogram < mTotals.length() / TOTALS; histogram++) {
+            count += mTotals.get(histogram * TOTALS + TOTAL_COUNT);
+        }
+        if (count == mDumpedCount) {
+            return;
+        }
+
+        Bundle stats = getStats();
+        File temp = new File(mDumpFile.getPath() + ".tmp");
+        JsonWriter json = null;
+        try {
+            json = new JsonWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+            json.beginObject();
+            json.name("time").value(System.currentTimeMillis());
+            for (String key : stats.keySet()) {
+                Bundle entry = stats.getBundle(key);
+                json.name(key).beginObject();
+                for (String name : new String[] {ProductContract.EXTRA_STATS_COUNT,
+                        ProductContract.EXTRA_STATS_TOTAL_US, ProductContract.EXTRA_STATS_MAX_US,
+                        ProductContract.EXTRA_STATS_ROWS, ProductContract.EXTRA_STATS_WINDOWS,
+                        ProductContract.EXTRA_STATS_P50_US, ProductContract.EXTRA_STATS_P90_US,
+                        ProductContract.EXTRA_STATS_P99_US}) {
+                    json.name(name).value(entry.getLong(name));
+                }
+                json.name(ProductContract.EXTRA_STATS_BUCKETS).beginArray();
+                for (long bucket : entry.getLongArray(ProductContract.EXTRA_STATS_BUCKETS)) {
+                    json.value(bucket);
+                }
+                json.endArray();
+                json.endObject();
+            }
+            json.endObject();
+            json.close();
+            json = null;
+            if (!temp.renameTo(mDumpFile)) {
+                throw new IOException("Cannot replace " + mDumpFile);
+            }
+            mDumpedCount = count;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write provider stats", e);
+        } finally {
+            if (json != null) {
+                try {
+                    json.close();
+                } catch (IOException e) {
+                    // Already failed
+                }
+                temp.delete();
+            }
+        }
+    }
+}
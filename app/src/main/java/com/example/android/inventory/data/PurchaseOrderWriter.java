@@ -0,0 +1,149 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Writes purchase orders for every product below its reorder level, one CSV file per
+ * supplier. Each order asks for enough units to bring the products back up to their reorder
+ * level.
+ *
+ * All products are read with a single query of {@link ProductContract.ProductEntry#LOW_STOCK_URI},
+ * which comes ordered by supplier, so every order is written in one pass.
+ */
+public class PurchaseOrderWriter {
+
+    /** Columns read, in the order of the CSV columns after the supplier */
+    private static final String[] PROJECTION = {
+            ProductContract.ProductEntry.COLUMN_PRODUCT_SUPPLIER,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_NAME,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_REORDER_LEVEL,
+            ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS};
+
+    private static final int COLUMN_SUPPLIER = 0;
+    private static final int COLUMN_NAME = 1;
+    private static final int COLUMN_QUANTITY = 2;
+    private static final int COLUMN_REORDER_LEVEL = 3;
+    private static final int COLUMN_PRICE = 4;
+
+    /** Header of every order */
+    private static final String HEADER = "product,on_hand,reorder_level,order_quantity,price";
+
+    /** Name of the order for products without a supplier */
+    private static final String NO_SUPPLIER = "unassigned";
+
+    private final ContentResolver mResolver;
+
+    public PurchaseOrderWriter(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    /**
+     * Write an order for each supplier with products below their reorder level into the
+     * directory, replacing earlier orders of the same suppliers. Suppliers whose names make
+     * the same file name get a number appended. Returns the number of orders written.
+     */
+    public int writeOrders(File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        Cursor cursor = mResolver.query(ProductContract.ProductEntry.LOW_STOCK_URI, PROJECTION,
+                null, null, null);
+        if (cursor == null) {
+            throw new IOException("Failed to query products");
+        }
+
+        int orders = 0;
+        Writer writer = null;
+        // Supplier of the open order, null for products without one
+        String supplier = null;
+        Set<String> fileNames = new HashSet<>();
+        try {
+            while (cursor.moveToNext()) {
+                String rowSupplier = cursor.getString(COLUMN_SUPPLIER);
+                if (TextUtils.isEmpty(rowSupplier)) {
+                    rowSupplier = null;
+                }
+                if (writer == null || !TextUtils.equals(rowSupplier, supplier)) {
+                    // Rows are ordered by supplier, so the previous order is complete
+                    if (writer != null) {
+                        writer.close();
+                    }
+                    supplier = rowSupplier;
+                    String fileName = toFileName(supplier == null ? NO_SUPPLIER : supplier);
+                    writer = openOrder(new File(directory,
+                            "order_" + uniqueName(fileName, fileNames) + ".csv"));
+                    orders++;
+                }
+                writeRow(writer, cursor);
+            }
+        } finally {
+            cursor.close();
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return orders;
+    }
+
+    private static Writer openOrder(File file) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), "UTF-8"));
+        writer.write(HEADER);
+        writer.write("\r\n");
+        return writer;
+    }
+
+    // Supplier name with every character that may not be valid in a file name replaced
+    private static String toFileName(String supplier) {
+        StringBuilder name = new StringBuilder(supplier.length());
+        for (int i = 0; i < supplier.length(); i++) {
+            char c = supplier.charAt(i);
+            name.append(Character.isLetterOrDigit(c) || c == '-' ? c : '_');
+        }
+        return name.toString();
+    }
+
+    /**
+     * Returns the given file name, or if it was used already in this run, the name with the
+     * lowest number appended that was not, and adds the result to the used names. Names
+     * differing only in case are the same, as on the shared storage of most devices.
+     */
+    static String uniqueName(String name, Set<String> used) {
+        String unique = name;
+        for (int i = 2; !used.add(unique.toLowerCase(Locale.ROOT)); i++) {
+            unique = name + "_" + i;
+        }
+        return unique;
+    }
+
+    private static void writeRow(Writer writer, Cursor cursor) throws IOException {
+        long quantity = cursor.getLong(COLUMN_QUANTITY);
+        long reorderLevel = cursor.getLong(COLUMN_REORDER_LEVEL);
+        ProductExporter.writeCsvText(writer, cursor.getString(COLUMN_NAME));
+        writer.write(',');
+        writer.write(String.valueOf(quantity));
+        writer.write(',');
+        writer.write(String.valueOf(reorderLevel));
+        writer.write(',');
+        writer.write(String.valueOf(reorderLevel - quantity));
+        writer.write(',');
+        if (!cursor.isNull(COLUMN_PRICE)) {
+            writer.write(ProductContract.ProductEntry.formatPriceCents(
+                    cursor.getLong(COLUMN_PRICE)));
+        }
+        writer.write("\r\n");
+    }
+}
@@ -0,0 +1,299 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * Runs the ordered schema steps that bring an older database up to the current version.
+ *
+ * Every {@link Step} belongs to the database version it introduces. Its schema changes run
+ * inside the upgrade transaction of {@link SQLiteOpenHelper#onUpgrade} and have to be quick,
+ * since the database cannot be used until they are done. Rewriting existing rows is left to
+ * the backfill of the step: the upgrade only records it in a progress table, and
+ * {@link #startBackfills} works through it afterwards in small transactions on a background
+ * thread, so the app stays usable meanwhile. The progress table holds the last _id each
+ * backfill has reached, so a backfill interrupted by the process being killed continues
+ * where it stopped the next time the provider starts. Once the backfills are done, the
+ * space freed by the ones that moved data out of the rows is given back to the file system
+ * on the same thread.
+ */
+class SchemaMigrator {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = SchemaMigrator.class.getSimpleName();
+
+    /** Table with one row per backfill that has not finished yet */
+    static final String PROGRESS_TABLE_NAME = "schema_backfill";
+    private static final String COLUMN_VERSION = "version";
+    private static final String COLUMN_LAST_ID = "last_id";
+
+    /** Time between two backfill chunks, so other writers get the database in between */
+    private static final long BACKFILL_PAUSE_MS = 50;
+
+    /**
+     * A step of the schema, identified by the database version it introduces.
+     */
+    abstract static class Step {
+
+        final int mVersion;
+
+        Step(int version) {
+            mVersion = version;
+        }
+
+        /**
+         * Change the schema. Runs inside the upgrade transaction, so it must not rewrite more
+         * than a few rows.
+         */
+        abstract void migrate(SQLiteDatabase db);
+
+        /** Returns true if the step rewrites existing rows in {@link #backfill} */
+        boolean hasBackfill() {
+            return false;
+        }
+
+        /**
+         * Rewrite the products with an _id above afterId, at most limit of them, and return
+         * the highest _id handled, or -1 if there were no products left. Runs in a
+         * transaction of its own while the app is using the database, so it must leave rows
+         * alone that were already written in the new form.
+         */
+        long backfill(SQLiteDatabase db, long afterId, int limit) {
+            return -1;
+        }
+
+        /**
+         * Returns the lock to hold while a chunk of the backfill runs, or null if it needs
+         * none. It is taken before the transaction of the chunk begins and released after it
+         * ends, the same order the writers of the app take it in.
+         */
+        Object getLock() {
+            return null;
+        }
+
+        /**
+         * Returns true if the backfill moves enough data out of the database that the file
+         * should be shrunk once all backfills are done.
+         */
+        boolean freesSpace() {
+            return false;
+        }
+    }
+
+    /**
+     * Notified on the backfill thread after every chunk that changed products.
+     */
+    interface Listener {
+        void onBackfillChunk();
+    }
+
+    private final Step[] mSteps;
+
+    /** Number of products a backfill rewrites per transaction */
+    private final int mChunkSize;
+
+    /** Thread the backfills run on, null while none are running */
+    private Handler mHandler;
+
+    /**
+     * Set when a backfill that frees space finished, so the file is shrunk after the last one.
+     * Only used on the backfill thread. A process killed before that leaves the file larger.
+     */
+    private boolean mVacuumPending;
+
+    SchemaMigrator(List<Step> steps, int chunkSize) {
+        mSteps = steps.toArray(new Step[steps.size()]);
+        for (int i = 1; i < mSteps.length; i++) {
+            if (mSteps[i].mVersion <= mSteps[i - 1].mVersion) {
+                throw new IllegalArgumentException("Schema steps out of order at version "
+                        + mSteps[i].mVersion);
+            }
+        }
+        mChunkSize = chunkSize;
+    }
+
+    /**
+     * Create the progress table, for a new database or one that was created before it existed.
+     */
+    static void createProgressTable(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + PROGRESS_TABLE_NAME + " ("
+                + COLUMN_VERSION + " INTEGER PRIMARY KEY, "
+                + COLUMN_LAST_ID + " INTEGER NOT NULL);");
+    }
+
+    /**
+     * Run the schema changes of every step after oldVersion up to newVersion, in order, and
+     * record the backfills they need.
+     */
+    void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        createProgressTable(db);
+        for (Step step : mSteps) {
+            if (step.mVersion <= oldVersion || step.mVersion > newVersion) {
+                continue;
+            }
+            step.migrate(db);
+            if (step.hasBackfill()) {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_VERSION, step.mVersion);
+                values.put(COLUMN_LAST_ID, 0);
+                db.insertWithOnConflict(PROGRESS_TABLE_NAME, null, values,
+                        SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            Log.i(LOG_TAG, "Upgraded the schema to version " + step.mVersion);
+        }
+    }
+
+    /**
+     * Returns true if the backfill of the given version has not finished yet.
+     */
+    static boolean isBackfillPending(SQLiteDatabase db, int version) {
+        return DatabaseUtils.queryNumEntries(db, PROGRESS_TABLE_NAME, COLUMN_VERSION + "=?",
+                new String[] { String.valueOf(version) }) > 0;
+    }
+
+    /**
+     * Work through the recorded backfills on a background thread, one chunk per transaction.
+     * Opening the database may run the upgrade, which then happens on that thread as well.
+     */
+    synchronized void startBackfills(final SQLiteOpenHelper dbHelper, final Listener listener) {
+        if (mHandler != null) {
+            return;
+        }
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                boolean more;
+                try {
+                    more = runChunk(dbHelper.getWritableDatabase());
+                } catch (SQLiteException e) {
+                    // The progress stays recorded, the backfill continues with the next start
+                    Log.e(LOG_TAG, "Failed to backfill", e);
+                    mVacuumPending = false;
+                    more = false;
+                }
+                if (more) {
+                    listener.onBackfillChunk();
+                    mHandler.postDelayed(this, BACKFILL_PAUSE_MS);
+                } else {
+                    if (mVacuumPending) {
+                        mVacuumPending = false;
+                        vacuum(dbHelper.getWritableDatabase());
+                    }
+                    stopBackfills();
+                }
+            }
+        });
+    }
+
+    // VACUUM cannot run inside a transaction, so the space freed by the backfills is given
+    // back here, after the last of them. It waits for the readers that are running and holds
+    // up writers while it rewrites the file, which only happens once after an upgrade.
+    private static void vacuum(SQLiteDatabase db) {
+        try {
+            db.execSQL("VACUUM");
+            Log.i(LOG_TAG, "Shrank the database after the backfills");
+        } catch (SQLiteException e) {
+            // The file only stays larger than it needs to be
+            Log.e(LOG_TAG, "Failed to vacuum the database", e);
+        }
+    }
+
+    private synchronized void stopBackfills() {
+        mHandler.getLooper().quit();
+        mHandler = null;
+    }
+
+    /**
+     * Run the next chunk of the oldest pending backfill. Returns false if there is nothing
+     * left to do.
+     */
+    private boolean runChunk(SQLiteDatabase db) {
+        // Only this thread changes the progress table once the upgrade is done, so the chunk
+        // to run can be read before taking the lock of its step.
+        Cursor cursor = db.query(PROGRESS_TABLE_NAME,
+                new String[] { COLUMN_VERSION, COLUMN_LAST_ID }, null, null, null, null,
+                COLUMN_VERSION, "1");
+        int version;
+        long lastId;
+        try {
+            if (!cursor.moveToFirst()) {
+                return false;
+            }
+            version = cursor.getInt(0);
+            lastId = cursor.getLong(1);
+        } finally {
+            cursor.close();
+        }
+
+        Step step = findStep(version);
+        Object lock = step == null ? null : step.getLock();
+        if (lock == null) {
+            runChunk(db, step, version, lastId);
+        } else {
+            synchronized (lock) {
+                runChunk(db, step, version, lastId);
+            }
+        }
+        return true;
+    }
+
+    // Backfill the products after lastId and record how far the backfill got, in one
+    // transaction. A backfill whose step no longer exists is dropped.
+    private void runChunk(SQLiteDatabase db, Step step, int version, long lastId) {
+        db.beginTransaction();
+        try {
+            long reached = step == null ? -1 : step.backfill(db, lastId, mChunkSize);
+            String[] whereArgs = { String.valueOf(version) };
+            if (reached < 0) {
+                db.delete(PROGRESS_TABLE_NAME, COLUMN_VERSION + "=?", whereArgs);
+                mVacuumPending |= step != null && step.freesSpace();
+                Log.i(LOG_TAG, "Finished the backfill of version " + version);
+            } else {
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_LAST_ID, reached);
+                db.update(PROGRESS_TABLE_NAME, values, COLUMN_VERSION + "=?", whereArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private Step findStep(int version) {
+        for (Step step : mSteps) {
+            if (step.mVersion == version) {
+                return step;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the highest product _id of the next chunk after afterId, or -1 if there are no
+     * products after it. Backfills rewrite the products in (afterId, returned id].
+     */
+    static long findChunkEnd(SQLiteDatabase db, long afterId, int limit) {
+        String id = ProductContract.ProductEntry._ID;
+        Cursor cursor = db.rawQuery("SELECT max(" + id + ") FROM (SELECT " + id + " FROM "
+                + ProductContract.ProductEntry.TABLE_NAME + " WHERE " + id + ">? ORDER BY "
+                + id + " LIMIT " + limit + ")", new String[] { String.valueOf(afterId) });
+        try {
+            return cursor.moveToFirst() && !cursor.isNull(0) ? cursor.getLong(0) : -1;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.example.android.inventory.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.SparseArray;
+
+/**
+ * Compiled statements of the hot write paths, kept by the shape of the write so the SQL is
+ * neither built nor compiled again for every write.
+ *
+ * A shape is one of the SHAPE_ kinds, plus the bits of the columns written for kinds whose
+ * SQL depends on them. The shapes are few and bounded by the columns, so the cache is not
+ * limited in size.
+ *
+ * A compiled statement holds its bound values, so it must only be used by one thread at a
+ * time. Statements are therefore only handed out inside a transaction of the calling thread:
+ * the transaction holds the single writing connection, so no other thread can be using a
+ * statement meanwhile. Statements are compiled for the schema of one open database.
+ * {@link ProductDbHelper} clears the cache whenever it opens the database, after any
+ * upgrade, and statements of another database object are never handed out.
+ */
+class StatementCache {
+
+    // Kinds of writes. The low bits are left for the columns of the write.
+    static final int SHAPE_INSERT_PRODUCT = 1 << 16;
+    static final int SHAPE_UPDATE_PRODUCT = 2 << 16;
+    static final int SHAPE_INSERT_MOVEMENT = 3 << 16;
+    static final int SHAPE_FOLD_PRODUCT = 4 << 16;
+    static final int SHAPE_FOLD_LOCATION = 5 << 16;
+
+    private final SparseArray<SQLiteStatement> mStatements = new SparseArray<>();
+
+    /** Database the statements were compiled for */
+    private SQLiteDatabase mDatabase;
+
+    /**
+     * Returns the statement compiled for the given shape, or null if there is none yet. Call
+     * inside a transaction, and compile the statement with {@link #put} if there is none.
+     */
+    synchronized SQLiteStatement get(SQLiteDatabase db, int shape) {
+        if (!db.inTransaction()) {
+            throw new IllegalStateException("Cached statements are only used in transactions");
+        }
+        if (db != mDatabase) {
+            clear();
+            mDatabase = db;
+            return null;
+        }
+        return mStatements.get(shape);
+    }
+
+    /**
+     * Compile the SQL of a shape and keep it. Call inside the transaction {@link #get} was
+     * called in.
+     */
+    synchronized SQLiteStatement put(SQLiteDatabase db, int shape, String sql) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        SQLiteStatement old = mStatements.get(shape);
+        if (old != null) {
+            old.close();
+        }
+        mStatements.put(shape, statement);
+        return statement;
+    }
+
+    /**
+     * Returns the statement of a shape whose SQL is always the same, compiling it the first
+     * time. Call inside a transaction.
+     */
+    synchronized SQLiteStatement acquire(SQLiteDatabase db, int shape, String sql) {
+        SQLiteStatement statement = get(db, shape);
+        return statement != null ? statement : put(db, shape, sql);
+    }
+
+    /**
+     * Close all statements, for example because the schema they were compiled for changed.
+     */
+    synchronized void clear() {
+        for (int i = 0; i < mStatements.size(); i++) {
+            mStatements.valueAt(i).close();
+        }
+        mStatements.clear();
+        mDatabase = null;
+    }
+}
@@ -0,0 +1,831 @@
+package com.example.android.inventory.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.v4.util.LongSparseArray;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Write-behind buffer for stock adjustments, kept in an append-only ledger.
+ *
+ * Sales and receipts only add to the quantities of a product, so instead of writing every
+ * tap on its own they are collected and appended to the stock movements table together in
+ * one transaction a moment later, when many are waiting, or when {@link #flush()} is
+ * called. Appending never touches the rows of the products, so it does not run their
+ * triggers or wait for writers of the same rows.
+ *
+ * The quantities stored with the products are a snapshot of the movements up to the
+ * position kept in the ledger table. The movements after it form the tail, which is summed
+ * up per product in memory. A while after appending, {@link #compact()} folds the tail into
+ * the snapshot, and drops movements older than the retention time so the ledger does not
+ * grow without bound. Movements an earlier run did not fold are folded by
+ * {@link ProductDbHelper} when the database is opened.
+ *
+ * Adjustments made at a location are also summed up per location. Folding adds them to the
+ * stock at their location, whose triggers add them to the totals of the product, so the
+ * products are only written directly for the rest of the tail. The terminals of a location
+ * only ever append to the ledger, and the stock rows of the locations are written once per
+ * fold instead of once per sale.
+ *
+ * Cursors returned by the provider have the tail merged in (see {@link #merge(Cursor)}), so
+ * readers always see the snapshot plus the tail. Queries hold the read lock of
+ * {@link #getLock()} and can run alongside each other, adding, appending or folding
+ * movements takes the write lock.
+ */
+class StockWriteBuffer {
+
+    /** Tag for the log messages */
+    private static final String LOG_TAG = StockWriteBuffer.class.getSimpleName();
+
+    /** Time an adjustment waits for others before it is written */
+    private static final long FLUSH_DELAY_MS = 500;
+
+    /** Number of waiting adjustments that gets them written right away */
+    private static final int FLUSH_THRESHOLD = 64;
+
+    /** Time appended movements wait before they are folded into the quantities */
+    private static final long COMPACT_DELAY_MS = 30000;
+
+    /** Number of products with a tail that gets it folded right away */
+    private static final int COMPACT_THRESHOLD = 256;
+
+    /** Largest number of expired movements dropped by one compaction */
+    private static final int EXPIRE_CHUNK_SIZE = 500;
+
+    /** Location id of adjustments that are not made at a location */
+    static final long NO_LOCATION = 0;
+
+    private final ProductDbHelper mDbHelper;
+
+    /** Cache of stored products, which folding the tail makes out of date */
+    private final ProductRowCache mRowCache;
+
+    /** Time movements are kept after they have been folded */
+    private final long mRetentionMs;
+
+    /** Handler of the thread movements are appended and folded on */
+    private final Handler mHandler;
+
+    /**
+     * Deltas per product id that are not in the stored quantities yet, as
+     * {quantity delta, sold delta}. Holds the sums of the tail and of the waiting adjustments.
+     */
+    private final LongSparseArray<int[]> mPending = new LongSparseArray<>();
+
+    /**
+     * The part of {@link #mPending} made at locations, as deltas per product id per location
+     * id. The deltas of a product at all locations add up to at most its delta in
+     * {@link #mPending}, the rest was not made at a location.
+     */
+    private final LongSparseArray<LongSparseArray<int[]>> mLocationPending =
+            new LongSparseArray<>();
+
+    /** Adjustments waiting to be appended to the ledger */
+    private final ArrayList<Movement> mUnwritten = new ArrayList<>();
+
+    /** True while a delayed flush is posted to {@link #mHandler} */
+    private boolean mFlushScheduled;
+
+    /** True while a delayed compaction is posted to {@link #mHandler} */
+    private boolean mCompactScheduled;
+
+    /** Guards {@link #mPending} and the rows it has deltas for */
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            } catch (SQLiteException e) {
+                // The adjustments wait and are appended with the next flush
+                Log.e(LOG_TAG, "Failed to write stock adjustments", e);
+            }
+        }
+    };
+
+    private final Runnable mCompactRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                compact();
+            } catch (SQLiteException e) {
+                // The tail stays in memory and is folded with the next compaction
+                Log.e(LOG_TAG, "Failed to fold stock movements", e);
+            }
+        }
+    };
+
+    StockWriteBuffer(ProductDbHelper dbHelper, ProductRowCache rowCache, long retentionMs) {
+        mDbHelper = dbHelper;
+        mRowCache = rowCache;
+        mRetentionMs = retentionMs;
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Returns the lock guarding the pending deltas. Hold the read lock while querying the
+     * inventory table, and the write lock while setting quantities directly.
+     */
+    ReentrantReadWriteLock getLock() {
+        return mLock;
+    }
+
+    /**
+     * Add the given deltas to the quantities of a product, or to its stock at a location
+     * unless locationId is {@link #NO_LOCATION}, unless that would make the quantity
+     * negative. Returns the result in the format described by
+     * {@link ProductContract#METHOD_ADJUST_STOCK}, or null if there is no such product or
+     * location. Without a reason, the reason is taken from the deltas.
+     */
+    Bundle adjust(long id, long locationId, int quantityDelta, int soldDelta, String reason) {
+        if (reason == null) {
+            reason = soldDelta > 0 ? ProductContract.StockMovementEntry.REASON_SALE
+                    : quantityDelta > 0 ? ProductContract.StockMovementEntry.REASON_RECEIPT
+                    : ProductContract.StockMovementEntry.REASON_REMOVAL;
+        }
+        mLock.writeLock().lock();
+        try {
+            return adjustLocked(id, locationId, quantityDelta, soldDelta, reason);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    private Bundle adjustLocked(long id, long locationId, int quantityDelta, int soldDelta,
+                                String reason) {
+        int[] stored = locationId == NO_LOCATION ? readProduct(id)
+                : readLocationStock(locationId, id);
+        if (stored == null) {
+            return null;
+        }
+        LongSparseArray<int[]> pending = locationId == NO_LOCATION ? mPending
+                : mLocationPending.get(locationId);
+        int quantity = stored[0];
+        int sold = stored[1];
+        int[] deltas = pending == null ? null : pending.get(id);
+        if (deltas != null) {
+            quantity += deltas[0];
+            sold += deltas[1];
+        }
+
+        boolean adjusted = quantity + quantityDelta >= 0;
+        if (adjusted) {
+            addPending(mPending, id, quantityDelta, soldDelta);
+            if (locationId != NO_LOCATION) {
+                if (pending == null) {
+                    pending = new LongSparseArray<>();
+                    mLocationPending.put(locationId, pending);
+                }
+                addPending(pending, id, quantityDelta, soldDelta);
+            }
+            quantity += quantityDelta;
+            sold += soldDelta;
+            mUnwritten.add(new Movement(id, locationId, quantityDelta, soldDelta, reason,
+                    System.currentTimeMillis()));
+            scheduleFlush();
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(ProductContract.EXTRA_ADJUSTED, adjusted);
+        result.putInt(ProductContract.EXTRA_QUANTITY, quantity);
+        result.putInt(ProductContract.EXTRA_SOLD, sold);
+        return result;
+    }
+
+    private static void addPending(LongSparseArray<int[]> pending, long id, int quantityDelta,
+                                   int soldDelta) {
+        int[] deltas = pending.get(id);
+        if (deltas == null) {
+            deltas = new int[2];
+            pending.put(id, deltas);
+        }
+        deltas[0] += quantityDelta;
+        deltas[1] += soldDelta;
+    }
+
+    // Returns the stored {quantity, sold} of a product, or null if there is no such product
+    private int[] readProduct(long id) {
+        Cursor cursor = mDbHelper.getReadableDatabase().query(
+                ProductContract.ProductEntry.TABLE_NAME, new String[] {
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD},
+                ProductContract.ProductEntry._ID + "=?", new String[] { String.valueOf(id) },
+                null, null, null);
+        try {
+            return cursor.moveToFirst() ? new int[] { cursor.getInt(0), cursor.getInt(1) } : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Returns the stored {quantity, sold} of a product at a location, or null if there is no
+    // such product or location. The first adjustment of a product at a location creates its
+    // row, so folding only ever has to add to existing rows.
+    private int[] readLocationStock(long locationId, long id) {
+        SQLiteDatabase db = mDbHelper.getReadableDatabase();
+        String[] args = { String.valueOf(locationId), String.valueOf(id) };
+        Cursor cursor = db.query(ProductContract.LocationStockEntry.TABLE_NAME, new String[] {
+                        ProductContract.LocationStockEntry.COLUMN_QUANTITY,
+                        ProductContract.LocationStockEntry.COLUMN_SOLD},
+                ProductContract.LocationStockEntry.COLUMN_LOCATION_ID + "=? AND "
+                        + ProductContract.LocationStockEntry.COLUMN_PRODUCT_ID + "=?",
+                args, null, null, null);
+        try {
+            if (cursor.moveToFirst()) {
+                return new int[] { cursor.getInt(0), cursor.getInt(1) };
+            }
+        } finally {
+            cursor.close();
+        }
+
+        if (DatabaseUtils.queryNumEntries(db, ProductContract.LocationEntry.TABLE_NAME,
+                ProductContract.LocationEntry._ID + "=?", new String[] { args[0] }) == 0
+                || DatabaseUtils.queryNumEntries(db, ProductContract.ProductEntry.TABLE_NAME,
+                ProductContract.ProductEntry._ID + "=?", new String[] { args[1] }) == 0) {
+            return null;
+        }
+        ContentValues values = new ContentValues();
+        values.put(ProductContract.LocationStockEntry.COLUMN_LOCATION_ID, locationId);
+        values.put(ProductContract.LocationStockEntry.COLUMN_PRODUCT_ID, id);
+        mDbHelper.getWritableDatabase().insertOrThrow(
+                ProductContract.LocationStockEntry.TABLE_NAME, null, values);
+        return new int[2];
+    }
+
+    private void scheduleFlush() {
+        if (mUnwritten.size() >= FLUSH_THRESHOLD) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            mHandler.post(mFlushRunnable);
+            mFlushScheduled = true;
+        } else if (!mFlushScheduled) {
+            mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+            mFlushScheduled = true;
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (mPending.size() >= COMPACT_THRESHOLD) {
+            mHandler.removeCallbacks(mCompactRunnable);
+            mHandler.post(mCompactRunnable);
+            mCompactScheduled = true;
+        } else if (!mCompactScheduled) {
+            mHandler.postDelayed(mCompactRunnable, COMPACT_DELAY_MS);
+            mCompactScheduled = true;
+        }
+    }
+
+    /**
+     * Append all waiting adjustments to the ledger in a single transaction.
+     */
+    void flush() {
+        mLock.writeLock().lock();
+        try {
+            flushLocked();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    private void flushLocked() {
+        mHandler.removeCallbacks(mFlushRunnable);
+        mFlushScheduled = false;
+        if (mUnwritten.isEmpty()) {
+            return;
+        }
+
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            insertMovements(db, mUnwritten);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        mUnwritten.clear();
+        scheduleCompaction();
+    }
+
+    /**
+     * Fold the tail of the ledger into the stored quantities in a single transaction, and
+     * drop movements past the retention time.
+     */
+    void compact() {
+        mLock.writeLock().lock();
+        try {
+            compactLocked();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    private void compactLocked() {
+        // Only movements in the ledger can be folded
+        flushLocked();
+        mHandler.removeCallbacks(mCompactRunnable);
+        mCompactScheduled = false;
+        if (mPending.size() == 0) {
+            return;
+        }
+
+        // Deltas made at locations reach the totals through the triggers of the stock at the
+        // locations, only the rest is added to the products directly.
+        LongSparseArray<int[]> unassigned = copyPending(mPending);
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            foldLocations(db, unassigned);
+            SQLiteStatement statement = mDbHelper.getStatementCache().acquire(db,
+                    StatementCache.SHAPE_FOLD_PRODUCT, ProductSchema.FOLD_PRODUCT_SQL);
+            for (int i = 0; i < unassigned.size(); i++) {
+                int[] deltas = unassigned.valueAt(i);
+                if (deltas[0] == 0 && deltas[1] == 0) {
+                    continue;
+                }
+                statement.bindLong(1, deltas[0]);
+                statement.bindLong(2, deltas[1]);
+                statement.bindLong(3, unassigned.keyAt(i));
+                statement.executeUpdateDelete();
+            }
+            db.execSQL(ProductSchema.MARK_FOLDED_SQL);
+            expireMovements(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        long[] ids = new long[mPending.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = mPending.keyAt(i);
+        }
+        mRowCache.invalidate(ids);
+        mPending.clear();
+        mLocationPending.clear();
+    }
+
+    // Add the deltas made at locations to the stock there, and take them off the deltas of
+    // the products, which are left with the part not made at a location.
+    private void foldLocations(SQLiteDatabase db, LongSparseArray<int[]> unassigned) {
+        if (mLocationPending.size() == 0) {
+            return;
+        }
+        SQLiteStatement statement = mDbHelper.getStatementCache().acquire(db,
+                StatementCache.SHAPE_FOLD_LOCATION, ProductSchema.FOLD_LOCATION_SQL);
+        for (int i = 0; i < mLocationPending.size(); i++) {
+            LongSparseArray<int[]> pending = mLocationPending.valueAt(i);
+            for (int j = 0; j < pending.size(); j++) {
+                int[] deltas = pending.valueAt(j);
+                statement.bindLong(1, deltas[0]);
+                statement.bindLong(2, deltas[1]);
+                statement.bindLong(3, mLocationPending.keyAt(i));
+                statement.bindLong(4, pending.keyAt(j));
+                statement.executeUpdateDelete();
+
+                int[] rest = unassigned.get(pending.keyAt(j));
+                rest[0] -= deltas[0];
+                rest[1] -= deltas[1];
+            }
+        }
+    }
+
+    // Append movements to the ledger. Call inside a transaction.
+    private void insertMovements(SQLiteDatabase db, ArrayList<Movement> movements) {
+        SQLiteStatement statement = mDbHelper.getStatementCache().acquire(db,
+                StatementCache.SHAPE_INSERT_MOVEMENT, ProductSchema.INSERT_MOVEMENT_SQL);
+        for (Movement movement : movements) {
+            movement.bind(statement);
+            statement.executeInsert();
+        }
+    }
+
+    // Drop the oldest folded movements that are past the retention time. Only a chunk of the
+    // oldest movements is looked at, so a compaction does not read the whole history.
+    private void expireMovements(SQLiteDatabase db) {
+        db.execSQL(ProductSchema.EXPIRE_MOVEMENTS_SQL, new Object[] {
+                EXPIRE_CHUNK_SIZE, System.currentTimeMillis() - mRetentionMs });
+    }
+
+    /**
+     * Returns the stored quantities of the products matching the selection, as
+     * {quantity, sold} per product id. Call while holding the write lock, after
+     * {@link #compact()}, before setting the quantities directly.
+     */
+    LongSparseArray<int[]> readQuantities(SQLiteDatabase db, String selection,
+                                          String[] selectionArgs) {
+        LongSparseArray<int[]> quantities = new LongSparseArray<>();
+        Cursor cursor = db.query(ProductContract.ProductEntry.TABLE_NAME, new String[] {
+                        ProductContract.ProductEntry._ID,
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY,
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD},
+                selection, selectionArgs, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                quantities.put(cursor.getLong(0),
+                        new int[] { cursor.getInt(1), cursor.getInt(2) });
+            }
+        } finally {
+            cursor.close();
+        }
+        return quantities;
+    }
+
+    /**
+     * Append the quantities set directly by an update as edit movements. The update already
+     * wrote them to the products, so they are appended as folded. Call while holding the
+     * write lock, with the quantities read by {@link #readQuantities} before the update.
+     */
+    void recordEdits(SQLiteDatabase db, LongSparseArray<int[]> before, ContentValues values) {
+        boolean setsQuantity = values.containsKey(
+                ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        boolean setsSold = values.containsKey(ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD);
+        Integer quantity = values.getAsInteger(
+                ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        Integer sold = values.getAsInteger(ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD);
+        long time = System.currentTimeMillis();
+
+        ArrayList<Movement> edits = new ArrayList<>();
+        for (int i = 0; i < before.size(); i++) {
+            int[] old = before.valueAt(i);
+            int quantityDelta = setsQuantity ? (quantity == null ? 0 : quantity) - old[0] : 0;
+            int soldDelta = setsSold ? (sold == null ? 0 : sold) - old[1] : 0;
+            if (quantityDelta != 0 || soldDelta != 0) {
+                edits.add(new Movement(before.keyAt(i), NO_LOCATION, quantityDelta, soldDelta,
+                        ProductContract.StockMovementEntry.REASON_EDIT, time));
+            }
+        }
+        if (edits.isEmpty()) {
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            insertMovements(db, edits);
+            db.execSQL(ProductSchema.MARK_FOLDED_SQL);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Return true if a query has to wait for the tail to be folded into the quantities,
+     * because its selection, order or projection works with the quantities in a way the
+     * deltas cannot be merged into afterwards. Call while holding the read or write lock.
+     *
+     * The catalog filtered to the products in stock or sorted by the quantities is such a
+     * query, so every reload of it after adjustments folds the ones made since the last
+     * reload first. A product only moves within those orders when its deltas are folded,
+     * which merging cannot do. StockBufferBenchmark measures the fold: about 0.4 ms for the
+     * one adjustment of a tap and 10 ms for 512, against 0.04 ms and 5 ms for only
+     * appending them, so a reload after a tap pays a fraction of a millisecond.
+     */
+    boolean needsCompaction(String[] projection, String selection, String sortOrder) {
+        if (mPending.size() == 0) {
+            return false;
+        }
+        // All columns include the low stock flag, which depends on the quantities
+        return projection == null || cannotMerge(ProductContract.ProductEntry._ID, projection,
+                selection, sortOrder);
+    }
+
+    /**
+     * Return true if a query of the stock at the given location has to wait for the tail to
+     * be folded, like {@link #needsCompaction} does for the products.
+     */
+    boolean needsLocationCompaction(long locationId, String[] projection, String selection,
+                                    String sortOrder) {
+        LongSparseArray<int[]> pending = mLocationPending.get(locationId);
+        if (pending == null) {
+            return false;
+        }
+        // All columns include the product id the deltas are matched by
+        return projection != null && cannotMerge(
+                ProductContract.LocationStockEntry.COLUMN_PRODUCT_ID, projection, selection,
+                sortOrder);
+    }
+
+    // True if the query works with the quantities in a way the deltas cannot be merged into,
+    // or returns quantities without the id column the deltas are matched by.
+    private static boolean cannotMerge(String idColumn, String[] projection, String selection,
+                                       String sortOrder) {
+        if (usesQuantities(selection) || usesQuantities(sortOrder)) {
+            return true;
+        }
+
+        boolean hasId = false;
+        boolean hasQuantities = false;
+        for (String column : projection) {
+            if (idColumn.equals(column)) {
+                hasId = true;
+            } else if (ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY.equals(column)
+                    || ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD.equals(column)) {
+                hasQuantities = true;
+            } else if (usesQuantities(column)) {
+                // An expression over the quantities
+                return true;
+            }
+        }
+        // Without the id the deltas cannot be matched to the rows
+        return hasQuantities && !hasId;
+    }
+
+    // True if the SQL refers to the quantities, or to the low stock flag derived from them.
+    // Only whole names outside of string literals count, so neither a column whose name
+    // starts with one of them nor a search word in the LIKE pattern of a ranking does.
+    static boolean usesQuantities(String sql) {
+        if (sql == null) {
+            return false;
+        }
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // A quote inside a literal is doubled, which reads as two literals in a row
+                int end = sql.indexOf('\'', i + 1);
+                i = end < 0 ? length : end + 1;
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                int start = i;
+                while (i < length && (Character.isLetterOrDigit(sql.charAt(i))
+                        || sql.charAt(i) == '_')) {
+                    i++;
+                }
+                if (isQuantityColumn(sql.substring(start, i))) {
+                    return true;
+                }
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isQuantityColumn(String name) {
+        return ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY.equalsIgnoreCase(name)
+                || ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD.equalsIgnoreCase(name)
+                || ProductContract.ProductEntry.COLUMN_PRODUCT_LOW_STOCK.equalsIgnoreCase(name);
+    }
+
+    /**
+     * Return a cursor over the given inventory rows with the pending deltas added to their
+     * quantities. Call while holding the read or write lock, right after running the query.
+     */
+    Cursor merge(Cursor cursor) {
+        return merge(cursor, mPending, ProductContract.ProductEntry._ID);
+    }
+
+    /**
+     * Return a cursor over the given rows of the stock at a location with the pending deltas
+     * at that location added to their quantities. Call like {@link #merge(Cursor)}.
+     */
+    Cursor mergeLocation(Cursor cursor, long locationId) {
+        LongSparseArray<int[]> pending = mLocationPending.get(locationId);
+        return pending == null ? cursor
+                : merge(cursor, pending, ProductContract.LocationStockEntry.COLUMN_PRODUCT_ID);
+    }
+
+    // The products and the stock at the locations use the same names for the quantity columns
+    private static Cursor merge(Cursor cursor, LongSparseArray<int[]> pending, String idName) {
+        if (pending.size() == 0) {
+            return cursor;
+        }
+        int idColumn = cursor.getColumnIndex(idName);
+        int quantityColumn = cursor.getColumnIndex(
+                ProductContract.ProductEntry.COLUMN_PRODUCT_QUANTITY);
+        int soldColumn = cursor.getColumnIndex(ProductContract.ProductEntry.COLUMN_PRODUCT_SOLD);
+        if (idColumn == -1 || (quantityColumn == -1 && soldColumn == -1)) {
+            return cursor;
+        }
+
+        // Run the query now, while no compaction can happen, so the rows do not already
+        // contain deltas that are about to be added to them.
+        cursor.getCount();
+        return new MergedCursor(cursor, copyPending(pending), idColumn, quantityColumn,
+                soldColumn);
+    }
+
+    /**
+     * Return a cursor over the given row of the summary table with the pending deltas added
+     * to its totals. Call while holding the read or write lock, right after running the query.
+     */
+    Cursor mergeSummary(SQLiteDatabase db, Cursor cursor) {
+        if (mPending.size() == 0) {
+            return cursor;
+        }
+
+        // The stock value of a pending delta depends on the price of its product
+        StringBuilder selection = new StringBuilder(ProductContract.ProductEntry._ID)
+                .append(" IN (");
+        for (int i = 0; i < mPending.size(); i++) {
+            selection.append(i == 0 ? "" : ",").append(mPending.keyAt(i));
+        }
+        selection.append(')');
+        long unitsOnHand = 0;
+        long unitsSold = 0;
+        long stockValueCents = 0;
+        Cursor prices = db.query(ProductContract.ProductEntry.TABLE_NAME, new String[] {
+                        ProductContract.ProductEntry._ID,
+                        ProductContract.ProductEntry.COLUMN_PRODUCT_PRICE_CENTS},
+                selection.toString(), null, null, null, null);
+        try {
+            while (prices.moveToNext()) {
+                int[] deltas = mPending.get(prices.getLong(0));
+                unitsOnHand += deltas[0];
+                unitsSold += deltas[1];
+                stockValueCents += deltas[0] * prices.getLong(1);
+            }
+        } finally {
+            prices.close();
+        }
+
+        long[] columnDeltas = new long[cursor.getColumnCount()];
+        int onHandColumn = cursor.getColumnIndex(
+                ProductContract.SummaryEntry.COLUMN_UNITS_ON_HAND);
+        int soldColumn = cursor.getColumnIndex(ProductContract.SummaryEntry.COLUMN_UNITS_SOLD);
+        int valueColumn = cursor.getColumnIndex(
+                ProductContract.SummaryEntry.COLUMN_STOCK_VALUE_CENTS);
+        if (onHandColumn != -1) {
+            columnDeltas[onHandColumn] = unitsOnHand;
+        }
+        if (soldColumn != -1) {
+            columnDeltas[soldColumn] = unitsSold;
+        }
+        if (valueColumn != -1) {
+            columnDeltas[valueColumn] = stockValueCents;
+        }
+        return new SummaryCursor(cursor, columnDeltas);
+    }
+
+    // Copy of pending deltas that later adjustments do not change
+    private static LongSparseArray<int[]> copyPending(LongSparseArray<int[]> pending) {
+        LongSparseArray<int[]> copy = new LongSparseArray<>(pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            copy.append(pending.keyAt(i), pending.valueAt(i).clone());
+        }
+        return copy;
+    }
+
+    /**
+     * A single change of the quantities of a product.
+     */
+    private static final class Movement {
+
+        private final long mProductId;
+        private final long mLocationId;
+        private final int mQuantityDelta;
+        private final int mSoldDelta;
+        private final String mReason;
+        private final long mTime;
+
+        Movement(long productId, long locationId, int quantityDelta, int soldDelta,
+                 String reason, long time) {
+            mProductId = productId;
+            mLocationId = locationId;
+            mQuantityDelta = quantityDelta;
+            mSoldDelta = soldDelta;
+            mReason = reason;
+            mTime = time;
+        }
+
+        // Bind to {@link ProductSchema#INSERT_MOVEMENT_SQL}
+        void bind(SQLiteStatement statement) {
+            statement.bindLong(1, mProductId);
+            statement.bindLong(2, mQuantityDelta);
+            statement.bindLong(3, mSoldDelta);
+            statement.bindString(4, mReason);
+            statement.bindLong(5, mTime);
+            if (mLocationId == NO_LOCATION) {
+                statement.bindNull(6);
+            } else {
+                statement.bindLong(6, mLocationId);
+            }
+        }
+    }
+
+    /**
+     * Cursor adding a copy of the pending deltas to the quantity columns of the rows.
+     */
+    private static class MergedCursor extends CursorWrapper {
+
+        private final LongSparseArray<int[]> mDeltas;
+        private final int mIdColumn;
+        private final int mQuantityColumn;
+        private final int mSoldColumn;
+
+        MergedCursor(Cursor cursor, LongSparseArray<int[]> deltas, int idColumn,
+                     int quantityColumn, int soldColumn) {
+            super(cursor);
+            mDeltas = deltas;
+            mIdColumn = idColumn;
+            mQuantityColumn = quantityColumn;
+            mSoldColumn = soldColumn;
+        }
+
+        // Return the delta pending for the given column of the current row, or 0
+        private int getDelta(int column) {
+            if (column != mQuantityColumn && column != mSoldColumn) {
+                return 0;
+            }
+            int[] deltas = mDeltas.get(super.getLong(mIdColumn));
+            if (deltas == null) {
+                return 0;
+            }
+            return column == mQuantityColumn ? deltas[0] : deltas[1];
+        }
+
+        @Override
+        public int getInt(int column) {
+            return super.getInt(column) + getDelta(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return super.getLong(column) + getDelta(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) (super.getShort(column) + getDelta(column));
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return super.getFloat(column) + getDelta(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return super.getDouble(column) + getDelta(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            int delta = getDelta(column);
+            return delta == 0 ? super.getString(column)
+                    : String.valueOf(super.getLong(column) + delta);
+        }
+
+        @Override
+        public int getType(int column) {
+            return getDelta(column) == 0 ? super.getType(column) : FIELD_TYPE_INTEGER;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return getDelta(column) == 0 && super.isNull(column);
+        }
+    }
+
+    /**
+     * Cursor adding fixed deltas to the totals of the summary row.
+     */
+    private static class SummaryCursor extends CursorWrapper {
+
+        private final long[] mDeltas;
+
+        SummaryCursor(Cursor cursor, long[] deltas) {
+            super(cursor);
+            mDeltas = deltas;
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public long getLong(int column) {
+            return super.getLong(column) + mDeltas[column];
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public String getString(int column) {
+            return mDeltas[column] == 0 ? super.getString(column)
+                    : String.valueOf(getLong(column));
+        }
+    }
+}
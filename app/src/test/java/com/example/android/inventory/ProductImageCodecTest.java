@@ -0,0 +1,90 @@
+package com.example.android.inventory;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the heap a picked photo takes while it is turned into a product image. Decoding
+ * itself only runs on a device (see ProductImageCodecDeviceTest), here the bound follows from
+ * the sample size the photo is decoded with: the subsampled photo and the product image
+ * scaled from it, at 4 bytes per pixel, are all that is allocated.
+ */
+public class ProductImageCodecTest {
+
+    private static final int SIZE = ProductImageCodec.IMAGE_SIZE;
+
+    /** Bytes of the product image made from the subsampled photo */
+    private static final long IMAGE_BYTES = 4L * SIZE * SIZE;
+
+    @Test
+    public void twelveMegapixelPhotoTakesAtMostNinetyKilobytes() {
+        assertTrue(peakBytes(4000, 3000) <= 90 * 1024);
+        assertTrue(peakBytes(3000, 4000) <= 90 * 1024);
+    }
+
+    @Test
+    public void photosAreSubsampledTowardsTheImageSize() {
+        // 12 megapixel photos, landscape and portrait
+        assertSampled(4000, 3000, SIZE, 32, 125, 94);
+        assertSampled(3000, 4000, SIZE, 32, 94, 125);
+        // A screenshot, and a panorama only subsampled as far as its short side allows
+        assertSampled(1920, 1080, SIZE, 8, 240, 135);
+        assertSampled(12000, 1000, SIZE, 8, 1500, 125);
+        // A larger view keeps more of the photo
+        assertSampled(4000, 3000, 300, 8, 500, 375);
+        // Photos smaller than the view are decoded as they are
+        assertSampled(60, 40, SIZE, 1, 60, 40);
+        assertSampled(149, 149, SIZE, 1, 149, 149);
+        assertSampled(150, 150, SIZE, 2, 75, 75);
+    }
+
+    @Test
+    public void heapIsBoundedByTheImageSizeForAnyPhoto() {
+        for (int width = 1; width <= 10000; width += 7) {
+            for (int height = 1; height <= 10000; height += 13) {
+                int sampleSize = ProductImageCodec.calculateSampleSize(width, height, SIZE);
+                long sampledWidth = divideRoundingUp(width, sampleSize);
+                long sampledHeight = divideRoundingUp(height, sampleSize);
+                String photo = width + "x" + height + " sampled by " + sampleSize;
+
+                // Both sides stay at least the image size, unless the photo is smaller
+                assertTrue(photo, sampledWidth >= Math.min(width, SIZE));
+                assertTrue(photo, sampledHeight >= Math.min(height, SIZE));
+                // and the shorter side at most twice the image size, so the heap only grows
+                // with the aspect ratio of the photo, not with its resolution
+                long shorter = Math.min(sampledWidth, sampledHeight);
+                long longer = Math.max(sampledWidth, sampledHeight);
+                assertTrue(photo, shorter <= 2 * SIZE);
+                double aspect = (double) Math.max(width, height) / Math.min(width, height);
+                assertTrue(photo, longer <= 2 * SIZE * aspect + 1);
+                assertTrue(photo, peakBytes(width, height)
+                        <= 4 * (2 * SIZE) * (2 * SIZE * aspect + 1) + IMAGE_BYTES);
+            }
+        }
+    }
+
+    // Check the sample size of a photo shown in a view of the given size, and the sides of the
+    // photo decoded with it
+    private static void assertSampled(int width, int height, int maxSize, int sampleSize,
+                                      int sampledWidth, int sampledHeight) {
+        String photo = width + "x" + height + " for " + maxSize;
+        assertEquals(photo, sampleSize,
+                ProductImageCodec.calculateSampleSize(width, height, maxSize));
+        assertEquals(photo, sampledWidth, divideRoundingUp(width, sampleSize));
+        assertEquals(photo, sampledHeight, divideRoundingUp(height, sampleSize));
+    }
+
+    // Bytes allocated for the subsampled photo and the product image made from it
+    private static long peakBytes(int width, int height) {
+        int sampleSize = ProductImageCodec.calculateSampleSize(width, height, SIZE);
+        return 4 * divideRoundingUp(width, sampleSize) * divideRoundingUp(height, sampleSize)
+                + IMAGE_BYTES;
+    }
+
+    // Decoders round subsampled sides up or down, assume the larger
+    private static long divideRoundingUp(int side, int sampleSize) {
+        return (side + sampleSize - 1) / sampleSize;
+    }
+}
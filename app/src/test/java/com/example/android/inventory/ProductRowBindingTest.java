@@ -0,0 +1,123 @@
+package com.example.android.inventory;
+
+import android.database.Cursor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that reading a row of the catalog snapshot and formatting its values into the
+ * buffers of the row, as {@link ProductListAdapter#onBindViewHolder} does, allocates nothing.
+ * The TextViews copy the buffers into their own, which only runs on a device.
+ */
+public class ProductRowBindingTest {
+
+    private static final int ROWS = 1000;
+
+    /** Passes over all rows before measuring, so classes are loaded and code is compiled */
+    private static final int WARMUP_PASSES = 50;
+
+    private static final int MEASURED_PASSES = 20;
+
+    private final char[] mPriceBuffer = new char[PriceFormat.MAX_LENGTH];
+    private final char[] mQuantityBuffer = new char[PriceFormat.MAX_LENGTH];
+    private final char[] mSoldBuffer = new char[PriceFormat.MAX_LENGTH];
+
+    private com.sun.management.ThreadMXBean mThreads;
+    private ProductList mList;
+
+    @Before
+    public void setUp() {
+        assumeTrue(ManagementFactory.getThreadMXBean()
+                instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+        mList = ProductList.fromCursor(createCursor(ROWS), ROWS);
+    }
+
+    @Test
+    public void bindingRowsDoesNotAllocate() {
+        long checksum = 0;
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            checksum += bindAll();
+        }
+
+        long threadId = Thread.currentThread().getId();
+        // Reading the counter may allocate itself, which is not counted against the rows
+        long overhead = -mThreads.getThreadAllocatedBytes(threadId)
+                + mThreads.getThreadAllocatedBytes(threadId);
+        long before = mThreads.getThreadAllocatedBytes(threadId);
+        for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+            checksum += bindAll();
+        }
+        long allocated = mThreads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals("Bytes allocated binding " + MEASURED_PASSES * ROWS + " rows (checksum "
+                + checksum + ")", 0, Math.max(0, allocated));
+    }
+
+    // Bind every row of the list into the buffers, returns the number of chars written so the
+    // work cannot be optimized away.
+    private int bindAll() {
+        int written = 0;
+        for (int position = 0; position < mList.size(); position++) {
+            written += mList.getName(position).length();
+            written += mList.getImageRef(position) == null ? 0 : 1;
+            written += PriceFormat.formatPrice(mList.getPriceCents(position), mPriceBuffer);
+            written += PriceFormat.formatNumber(mList.getQuantity(position), mQuantityBuffer);
+            written += PriceFormat.formatNumber(mList.getSold(position), mSoldBuffer);
+        }
+        return written;
+    }
+
+    // A cursor over the given number of products, queried with ProductList.PROJECTION
+    private static Cursor createCursor(final int rows) {
+        InvocationHandler handler = new InvocationHandler() {
+            private int mPosition = -1;
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getCount":
+                        return rows;
+                    case "moveToNext":
+                        return ++mPosition < rows;
+                    case "isNull":
+                        return false;
+                    case "getLong":
+                        return (long) value((Integer) args[0]);
+                    case "getInt":
+                        return value((Integer) args[0]);
+                    case "getString":
+                        return (Integer) args[0] == 1 ? "Product " + mPosition
+                                : Integer.toHexString(mPosition) + ".webp";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+
+            // Id, price in cents, quantity and sold of the current row, by column
+            private int value(int column) {
+                switch (column) {
+                    case 0:
+                        return mPosition + 1;
+                    case 2:
+                        return mPosition * 137 - 5000;
+                    default:
+                        return mPosition * column;
+                }
+            }
+        };
+        return (Cursor) Proxy.newProxyInstance(Cursor.class.getClassLoader(),
+                new Class<?>[] {Cursor.class}, handler);
+    }
+}
@@ -0,0 +1,70 @@
+package com.example.android.inventory.data;
+
+import com.example.android.inventory.PriceFormat;
+import com.example.android.inventory.data.ProductContract.ProductEntry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks parsing and formatting of prices in whole cents.
+ */
+public class PriceCentsTest {
+
+    @Test
+    public void parsesPrices() {
+        assertEquals(1200, ProductEntry.parsePriceCents("12"));
+        assertEquals(1250, ProductEntry.parsePriceCents("12.5"));
+        assertEquals(1250, ProductEntry.parsePriceCents("$12.50"));
+        assertEquals(1200, ProductEntry.parsePriceCents(" 12. "));
+        assertEquals(50, ProductEntry.parsePriceCents(".5"));
+        assertEquals(1999, ProductEntry.parsePriceCents("19.99"));
+        assertEquals(0, ProductEntry.parsePriceCents("0"));
+    }
+
+    @Test
+    public void roundsDigitsBeyondCentsHalfUp() {
+        assertEquals(1, ProductEntry.parsePriceCents("0.005"));
+        assertEquals(0, ProductEntry.parsePriceCents("0.0049"));
+        assertEquals(2000, ProductEntry.parsePriceCents("19.995"));
+        assertEquals(1999, ProductEntry.parsePriceCents("19.99499"));
+    }
+
+    @Test
+    public void rejectsTextThatIsNoPrice() {
+        String[] invalid = {"", "$", ".", "abc", "1.2.3", "-1", "1,50", "12$",
+                "1234567890123456",
+                // Arabic-Indic digits, which Character.isDigit() accepts
+                "\u0661\u0662", "1.\u0665"};
+        for (String text : invalid) {
+            try {
+                ProductEntry.parsePriceCents(text);
+                fail("Parsed \"" + text + "\"");
+            } catch (NumberFormatException expected) {
+                // The price is rejected
+            }
+        }
+    }
+
+    @Test
+    public void formatsWithTwoDecimals() {
+        assertEquals("0.00", ProductEntry.formatPriceCents(0));
+        assertEquals("0.05", ProductEntry.formatPriceCents(5));
+        assertEquals("12.50", ProductEntry.formatPriceCents(1250));
+        assertEquals("-1.50", ProductEntry.formatPriceCents(-150));
+    }
+
+    @Test
+    public void formattedPricesParseBackToTheSameCents() {
+        char[] buffer = new char[PriceFormat.MAX_LENGTH];
+        for (long cents = 0; cents <= 1000000; cents++) {
+            String text = ProductEntry.formatPriceCents(cents);
+            assertEquals(text, cents, ProductEntry.parsePriceCents(text));
+            // The list shows the same digits, after a dollar sign
+            int length = PriceFormat.formatPrice(cents, buffer);
+            assertEquals("$" + text, new String(buffer, 0, length));
+        }
+    }
+}
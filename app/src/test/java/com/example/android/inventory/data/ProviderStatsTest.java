@@ -0,0 +1,81 @@
+package com.example.android.inventory.data;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the buckets of the latency histograms, the percentiles read off them and the cursor
+ * windows counted for queries.
+ */
+public class ProviderStatsTest {
+
+    @Test
+    public void bucketsArePowersOfTwo() {
+        assertEquals(0, ProviderStats.bucketOf(0));
+        assertEquals(0, ProviderStats.bucketOf(1));
+        assertEquals(1, ProviderStats.bucketOf(2));
+        assertEquals(1, ProviderStats.bucketOf(3));
+        assertEquals(2, ProviderStats.bucketOf(4));
+        assertEquals(9, ProviderStats.bucketOf(1023));
+        assertEquals(10, ProviderStats.bucketOf(1024));
+        for (int i = 1; i < ProviderStats.BUCKETS; i++) {
+            assertEquals(i, ProviderStats.bucketOf(1L << i));
+            assertEquals(i - 1, ProviderStats.bucketOf((1L << i) - 1));
+        }
+    }
+
+    @Test
+    public void slowestLatenciesShareTheLastBucket() {
+        assertEquals(ProviderStats.BUCKETS - 1, ProviderStats.bucketOf(1L << 31));
+        assertEquals(ProviderStats.BUCKETS - 1, ProviderStats.bucketOf(1L << 40));
+        assertEquals(ProviderStats.BUCKETS - 1, ProviderStats.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void emptyHistogramHasNoPercentiles() {
+        assertEquals(0, ProviderStats.percentile(new long[ProviderStats.BUCKETS], 0.5));
+    }
+
+    @Test
+    public void percentilesAreUpperBoundsWithinAFactorOfTwo() {
+        Random random = new Random(42);
+        for (int run = 0; run < 100; run++) {
+            long[] latencies = new long[1 + random.nextInt(1000)];
+            long[] buckets = new long[ProviderStats.BUCKETS];
+            for (int i = 0; i < latencies.length; i++) {
+                // Spread over several orders of magnitude, as latencies are
+                latencies[i] = 1 + (long) Math.pow(10, random.nextDouble() * 6);
+                buckets[ProviderStats.bucketOf(latencies[i])]++;
+            }
+            Arrays.sort(latencies);
+            for (double fraction : new double[] {0.5, 0.9, 0.99, 1}) {
+                long exact = latencies[(int) Math.ceil(latencies.length * fraction) - 1];
+                long bound = ProviderStats.percentile(buckets, fraction);
+                assertTrue(bound + " below " + exact, bound > exact);
+                assertTrue(bound + " above twice " + exact, bound <= 2 * exact);
+            }
+        }
+    }
+
+    @Test
+    public void rowsThatFitIntoTheFirstWindowNeedOne() {
+        assertEquals(0, ProviderStats.windowsOf(0, 0));
+        assertEquals(1, ProviderStats.windowsOf(1, 1));
+        assertEquals(1, ProviderStats.windowsOf(500, 500));
+        // Cursors without a window are copied into a single one
+        assertEquals(1, ProviderStats.windowsOf(500, 0));
+    }
+
+    @Test
+    public void rowsBeyondTheFirstWindowNeedMore() {
+        assertEquals(2, ProviderStats.windowsOf(501, 500));
+        assertEquals(2, ProviderStats.windowsOf(1000, 500));
+        assertEquals(3, ProviderStats.windowsOf(1001, 500));
+        assertEquals(10000, ProviderStats.windowsOf(10000, 1));
+    }
+}
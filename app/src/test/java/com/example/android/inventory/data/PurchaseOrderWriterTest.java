@@ -0,0 +1,48 @@
+package com.example.android.inventory.data;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that every order written in one run gets a file name of its own.
+ */
+public class PurchaseOrderWriterTest {
+
+    @Test
+    public void firstUseKeepsTheName() {
+        Set<String> used = new HashSet<>();
+        assertEquals("Acme", PurchaseOrderWriter.uniqueName("Acme", used));
+        assertEquals("Globex", PurchaseOrderWriter.uniqueName("Globex", used));
+    }
+
+    @Test
+    public void repeatedNamesAreNumbered() {
+        Set<String> used = new HashSet<>();
+        // "unassigned" stands for the products without a supplier, then a supplier of that name
+        assertEquals("unassigned", PurchaseOrderWriter.uniqueName("unassigned", used));
+        assertEquals("unassigned_2", PurchaseOrderWriter.uniqueName("unassigned", used));
+        // "A/B" and "A:B" both become "A_B"
+        assertEquals("A_B", PurchaseOrderWriter.uniqueName("A_B", used));
+        assertEquals("A_B_2", PurchaseOrderWriter.uniqueName("A_B", used));
+        assertEquals("A_B_3", PurchaseOrderWriter.uniqueName("A_B", used));
+    }
+
+    @Test
+    public void appendedNumbersSkipNamesOfOtherSuppliers() {
+        Set<String> used = new HashSet<>();
+        assertEquals("Acme_2", PurchaseOrderWriter.uniqueName("Acme_2", used));
+        assertEquals("Acme", PurchaseOrderWriter.uniqueName("Acme", used));
+        assertEquals("Acme_3", PurchaseOrderWriter.uniqueName("Acme", used));
+    }
+
+    @Test
+    public void namesDifferingInCaseAreTheSame() {
+        Set<String> used = new HashSet<>();
+        assertEquals("Acme", PurchaseOrderWriter.uniqueName("Acme", used));
+        assertEquals("ACME_2", PurchaseOrderWriter.uniqueName("ACME", used));
+    }
+}
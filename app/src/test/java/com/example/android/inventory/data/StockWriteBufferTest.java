@@ -0,0 +1,36 @@
+package com.example.android.inventory.data;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks which selections and orders of a query make it wait for the stock movements to be
+ * folded into the quantities.
+ */
+public class StockWriteBufferTest {
+
+    @Test
+    public void ordersAndFiltersOfTheQuantitiesNeedThemFolded() {
+        assertTrue(StockWriteBuffer.usesQuantities(ProductContract.ProductEntry.SORT_BY_QUANTITY));
+        assertTrue(StockWriteBuffer.usesQuantities(ProductContract.ProductEntry.SORT_BY_SOLD));
+        assertTrue(StockWriteBuffer.usesQuantities(
+                ProductContract.ProductEntry.SELECTION_IN_STOCK));
+        assertTrue(StockWriteBuffer.usesQuantities("low_stock=1"));
+        assertTrue(StockWriteBuffer.usesQuantities("inventory.quantity>?"));
+        assertTrue(StockWriteBuffer.usesQuantities("\"sold\" DESC"));
+        assertTrue(StockWriteBuffer.usesQuantities("(SOLD<? OR _id<?)"));
+    }
+
+    @Test
+    public void otherColumnsAndLiteralsDoNot() {
+        assertFalse(StockWriteBuffer.usesQuantities(null));
+        assertFalse(StockWriteBuffer.usesQuantities(ProductContract.ProductEntry.SORT_BY_NAME));
+        assertFalse(StockWriteBuffer.usesQuantities("_id>?"));
+        assertFalse(StockWriteBuffer.usesQuantities("soldier_count, quantity_unit"));
+        assertFalse(StockWriteBuffer.usesQuantities(
+                "CASE WHEN name LIKE 'sold%' THEN 0 ELSE 1 END, length(name), _id"));
+        assertFalse(StockWriteBuffer.usesQuantities("name='it''s quantity'"));
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.android.inventory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Cost of formatting the price and quantities of every row of a catalog, as
+ * {@code ProductListAdapter.onBindViewHolder} does while the list scrolls, next to formatting
+ * the same rows into new Strings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+public class ProductBindBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int catalogSize;
+
+    private long[] mPriceCents;
+    private int[] mQuantities;
+    private int[] mSold;
+
+    // Buffers of a single ViewHolder, reused for every row like in the adapter
+    private final char[] mPriceBuffer = new char[PriceFormat.MAX_LENGTH];
+    private final char[] mQuantityBuffer = new char[PriceFormat.MAX_LENGTH];
+    private final char[] mSoldBuffer = new char[PriceFormat.MAX_LENGTH];
+
+    @Setup(Level.Trial)
+    public void createCatalog() {
+        Random random = new Random(42);
+        mPriceCents = new long[catalogSize];
+        mQuantities = new int[catalogSize];
+        mSold = new int[catalogSize];
+        for (int i = 0; i < catalogSize; i++) {
+            mPriceCents[i] = random.nextInt(100000);
+            mQuantities[i] = random.nextInt(1000);
+            mSold[i] = random.nextInt(1000);
+        }
+    }
+
+    @Benchmark
+    public int bindRows() {
+        int length = 0;
+        for (int i = 0; i < catalogSize; i++) {
+            length += PriceFormat.formatPrice(mPriceCents[i], mPriceBuffer);
+            length += PriceFormat.formatNumber(mQuantities[i], mQuantityBuffer);
+            length += PriceFormat.formatNumber(mSold[i], mSoldBuffer);
+        }
+        return length;
+    }
+
+    @Benchmark
+    public void bindRowsWithStrings(Blackhole blackhole) {
+        for (int i = 0; i < catalogSize; i++) {
+            blackhole.consume(String.format(Locale.US, "$%.2f", mPriceCents[i] / 100.0));
+            blackhole.consume(Integer.toString(mQuantities[i]));
+            blackhole.consume(Integer.toString(mSold[i]));
+        }
+    }
+}
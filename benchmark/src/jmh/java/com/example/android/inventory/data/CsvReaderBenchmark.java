@@ -0,0 +1,56 @@
+package com.example.android.inventory.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+/**
+ * Cost of reading an exported catalog back with {@link CsvReader}, the first step of every
+ * import.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+public class CsvReaderBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int catalogSize;
+
+    private String mCsv;
+
+    @Setup(Level.Trial)
+    public void createCsv() {
+        StringBuilder csv = new StringBuilder("name,price,quantity,sold,image\n");
+        for (int i = 0; i < catalogSize; i++) {
+            // Every fourth name is quoted, as names with commas are
+            if (i % 4 == 0) {
+                csv.append("\"Product, ").append(i).append('"');
+            } else {
+                csv.append("Product ").append(i);
+            }
+            csv.append(',').append(i % 1000).append('.').append(i % 100 < 10 ? "0" : "")
+                    .append(i % 100).append(',').append(i % 500).append(',').append(i % 50)
+                    .append(",\n");
+        }
+        mCsv = csv.toString();
+    }
+
+    @Benchmark
+    public int readCatalog() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(mCsv));
+        int fields = 0;
+        List<String> record;
+        while ((record = reader.readRecord()) != null) {
+            fields += record.size();
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.inventory.data;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+
+/**
+ * Inventory database on desktop SQLite, with the schema ProductDbHelper.onCreate()
+ * creates, from the same {@link ProductSchema}, and the connection settings of
+ * res/values/database.xml.
+ */
+final class InventoryDatabase {
+
+    private static final String[] SUPPLIERS = {"Acme", "Globex", "Initech", null};
+
+    /** Number of locations, every product is stocked at each of them */
+    static final int LOCATIONS = 4;
+
+    private final File mFile;
+    private final Connection mConnection;
+
+    private InventoryDatabase(File file, Connection connection) {
+        mFile = file;
+        mConnection = connection;
+    }
+
+    /**
+     * Create a database file holding the given number of products.
+     */
+    static InventoryDatabase create(int catalogSize) throws IOException, SQLException {
+        File file = File.createTempFile("inventory", ".db");
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getPath());
+        InventoryDatabase database = new InventoryDatabase(file, connection);
+        configure(connection);
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : ProductSchema.create()) {
+                statement.execute(sql);
+            }
+        }
+
+        connection.setAutoCommit(false);
+        Random random = new Random(42);
+        try (PreparedStatement insert = database.prepareInsert()) {
+            for (int i = 0; i < catalogSize; i++) {
+                database.bindProduct(insert, "Product " + i, random);
+                insert.executeUpdate();
+            }
+        }
+        try (Statement statement = connection.createStatement()) {
+            for (int i = 1; i <= LOCATIONS; i++) {
+                statement.execute("INSERT INTO locations (name) VALUES ('Store " + i + "')");
+            }
+            // Empty rows, so the totals of the products stay as they were inserted
+            statement.execute("INSERT INTO location_stock (location_id, product_id)"
+                    + " SELECT locations._id, inventory._id FROM locations, inventory");
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+        return database;
+    }
+
+    private static void configure(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("PRAGMA journal_mode=WAL");
+            statement.execute("PRAGMA synchronous=1");
+            statement.execute("PRAGMA wal_autocheckpoint=500");
+            statement.execute("PRAGMA journal_size_limit=" + 2048 * 1024);
+            statement.execute("PRAGMA mmap_size=" + 16384 * 1024);
+        }
+    }
+
+    Connection getConnection() {
+        return mConnection;
+    }
+
+    /**
+     * Open another connection to the database with the same settings, as the connection pool
+     * of SQLiteDatabase opens one for every thread reading at the same time. Close it before
+     * the database.
+     */
+    Connection connect() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + mFile.getPath());
+        configure(connection);
+        return connection;
+    }
+
+    /**
+     * Returns the insert of the provider, bound by {@link #bindProduct}.
+     */
+    PreparedStatement prepareInsert() throws SQLException {
+        return mConnection.prepareStatement("INSERT INTO inventory (name, price_cents,"
+                + " quantity, sold, image, reorder_level, supplier) VALUES (?, ?, ?, ?, ?, ?, ?)");
+    }
+
+    void bindProduct(PreparedStatement insert, String name, Random random) throws SQLException {
+        insert.setString(1, name);
+        insert.setLong(2, random.nextInt(100000));
+        insert.setInt(3, random.nextInt(100));
+        insert.setInt(4, random.nextInt(100));
+        insert.setString(5, Long.toHexString(random.nextLong()) + ".webp");
+        if (random.nextBoolean()) {
+            insert.setInt(6, random.nextInt(20));
+        } else {
+            insert.setNull(6, Types.INTEGER);
+        }
+        insert.setString(7, SUPPLIERS[random.nextInt(SUPPLIERS.length)]);
+    }
+
+    void close() throws SQLException {
+        mConnection.close();
+        for (String suffix : new String[] {"", "-wal", "-shm"}) {
+            new File(mFile.getPath() + suffix).delete();
+        }
+    }
+}
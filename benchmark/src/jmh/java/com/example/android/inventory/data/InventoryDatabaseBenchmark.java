@@ -0,0 +1,311 @@
+package com.example.android.inventory.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Throughput and latency of the statements {@code ProductProvider} runs for queries, inserts,
+ * updates, deletes, stock movements and the stock at locations, on catalogs of different
+ * sizes. Inserts are measured on their own and together with the delete of the inserted
+ * product, the difference is the cost of a delete, while the catalog keeps its size.
+ *
+ * The write benchmarks reuse statements prepared once, as the provider does with its
+ * statement cache. The Recompiled variants build and prepare the SQL from a map of values for
+ * every write, as {@code SQLiteDatabase.insert()} and {@code update()} do, the difference is
+ * what the cache saves per write. The fold of a product adds to its quantities, which
+ * {@code update()} cannot express, so without the cache it would go through
+ * {@code execSQL()}, which compiles the same SQL for every call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+public class InventoryDatabaseBenchmark {
+
+    /** Number of products in a page of the catalog list */
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"100", "1000", "10000"})
+    int catalogSize;
+
+    private InventoryDatabase mDatabase;
+    private final Random mRandom = new Random(42);
+
+    private PreparedStatement mQueryById;
+    private PreparedStatement mQueryPage;
+    private PreparedStatement mQueryBestSelling;
+    private PreparedStatement mSearch;
+    private PreparedStatement mLowStock;
+    private PreparedStatement mSummary;
+    private PreparedStatement mInsert;
+    private PreparedStatement mUpdate;
+    private PreparedStatement mAdjustStock;
+    private PreparedStatement mFoldStock;
+    private PreparedStatement mLocationStock;
+    private PreparedStatement mFoldLocationStock;
+    private PreparedStatement mDelete;
+
+    @Setup(Level.Iteration)
+    public void createDatabase() throws IOException, SQLException {
+        // Recreated for every iteration, so inserts do not grow the catalog from one to the next
+        mDatabase = InventoryDatabase.create(catalogSize);
+        mQueryById = prepare("SELECT _id, name, price_cents, quantity, sold, image,"
+                + " reorder_level, supplier, low_stock FROM inventory WHERE _id=?");
+        mQueryPage = prepare("SELECT _id, name, price_cents, quantity, sold, image"
+                + " FROM inventory WHERE _id>? ORDER BY _id LIMIT " + PAGE_SIZE);
+        mQueryBestSelling = prepare("SELECT _id, name, price_cents, quantity, sold, image"
+                + " FROM inventory WHERE quantity>0 ORDER BY sold DESC, _id DESC LIMIT "
+                + PAGE_SIZE);
+        mSearch = prepare("SELECT _id, name, price_cents, quantity, sold, image FROM inventory"
+                + " WHERE _id IN (SELECT docid FROM inventory_fts WHERE inventory_fts"
+                + " MATCH ?) ORDER BY CASE WHEN name LIKE 'product%' THEN 0 ELSE 1 END,"
+                + " length(name), _id");
+        mLowStock = prepare("SELECT _id, name, quantity, reorder_level, supplier, price_cents"
+                + " FROM inventory WHERE low_stock=1 ORDER BY supplier, name");
+        mSummary = prepare("SELECT stock_value_cents, units_on_hand, units_sold"
+                + " FROM inventory_summary");
+        mInsert = mDatabase.prepareInsert();
+        mUpdate = prepare("UPDATE inventory SET name=?, price_cents=?, quantity=? WHERE _id=?");
+        mAdjustStock = prepare("INSERT INTO stock_movements (product_id, quantity_delta,"
+                + " sold_delta, reason, time) VALUES (?, ?, ?, ?, ?)");
+        mFoldStock = prepare("UPDATE inventory SET quantity=COALESCE(quantity,0)+?,"
+                + " sold=COALESCE(sold,0)+? WHERE _id=?");
+        mLocationStock = prepare("SELECT _id, product_id, quantity, sold FROM location_stock"
+                + " WHERE location_id=? AND product_id>? ORDER BY product_id LIMIT " + PAGE_SIZE);
+        mFoldLocationStock = prepare("UPDATE location_stock SET quantity=quantity+?,"
+                + " sold=sold+? WHERE location_id=? AND product_id=?");
+        mDelete = prepare("DELETE FROM inventory WHERE _id=?");
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeDatabase() throws SQLException {
+        mDatabase.close();
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+        return mDatabase.getConnection().prepareStatement(sql);
+    }
+
+    private long randomId() {
+        return 1 + mRandom.nextInt(catalogSize);
+    }
+
+    private long randomLocationId() {
+        return 1 + mRandom.nextInt(InventoryDatabase.LOCATIONS);
+    }
+
+    @Benchmark
+    public int queryById() throws SQLException {
+        mQueryById.setLong(1, randomId());
+        return readAll(mQueryById);
+    }
+
+    @Benchmark
+    public int queryPage() throws SQLException {
+        mQueryPage.setLong(1, randomId() - 1);
+        return readAll(mQueryPage);
+    }
+
+    @Benchmark
+    public int queryBestSelling() throws SQLException {
+        // The first page of the catalog sorted by units sold and filtered to the products in
+        // stock, which the index on sold reads in order instead of sorting every product
+        return readAll(mQueryBestSelling);
+    }
+
+    @Benchmark
+    public int search() throws SQLException {
+        mSearch.setString(1, "product " + mRandom.nextInt(100) + "*");
+        return readAll(mSearch);
+    }
+
+    @Benchmark
+    public int queryLowStock() throws SQLException {
+        return readAll(mLowStock);
+    }
+
+    @Benchmark
+    public int querySummary() throws SQLException {
+        return readAll(mSummary);
+    }
+
+    @Benchmark
+    public int update() throws SQLException {
+        long id = randomId();
+        mUpdate.setString(1, "Product " + id);
+        mUpdate.setLong(2, mRandom.nextInt(100000));
+        mUpdate.setInt(3, mRandom.nextInt(100));
+        mUpdate.setLong(4, id);
+        return mUpdate.executeUpdate();
+    }
+
+    @Benchmark
+    public int updateRecompiled() throws SQLException {
+        long id = randomId();
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "Product " + id);
+        values.put("price_cents", (long) mRandom.nextInt(100000));
+        values.put("quantity", mRandom.nextInt(100));
+        StringBuilder sql = new StringBuilder("UPDATE inventory SET ");
+        String separator = "";
+        for (String column : values.keySet()) {
+            sql.append(separator).append(column).append("=?");
+            separator = ",";
+        }
+        sql.append(" WHERE _id=?");
+        try (PreparedStatement update = prepare(sql.toString())) {
+            int index = 1;
+            for (Object value : values.values()) {
+                update.setObject(index++, value);
+            }
+            update.setLong(index, id);
+            return update.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public int adjustStock() throws SQLException {
+        // A sale appended to the stock movement ledger
+        mAdjustStock.setLong(1, randomId());
+        mAdjustStock.setInt(2, -1);
+        mAdjustStock.setInt(3, 1);
+        mAdjustStock.setString(4, "sale");
+        mAdjustStock.setLong(5, System.currentTimeMillis());
+        return mAdjustStock.executeUpdate();
+    }
+
+    @Benchmark
+    public int adjustStockRecompiled() throws SQLException {
+        Map<String, Object> values = new HashMap<>();
+        values.put("product_id", randomId());
+        values.put("quantity_delta", -1);
+        values.put("sold_delta", 1);
+        values.put("reason", "sale");
+        values.put("time", System.currentTimeMillis());
+        StringBuilder sql = new StringBuilder("INSERT INTO stock_movements (");
+        StringBuilder parameters = new StringBuilder();
+        for (String column : values.keySet()) {
+            sql.append(parameters.length() == 0 ? "" : ",").append(column);
+            parameters.append(parameters.length() == 0 ? "?" : ",?");
+        }
+        sql.append(") VALUES (").append(parameters).append(')');
+        try (PreparedStatement insert = prepare(sql.toString())) {
+            int index = 1;
+            for (Object value : values.values()) {
+                insert.setObject(index++, value);
+            }
+            return insert.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public int foldStock() throws SQLException {
+        // Folding the tail of a product into its quantities, which runs its triggers. Sell
+        // one and receive one, so the quantities stay where they are.
+        mFoldStock.setInt(1, mRandom.nextBoolean() ? 1 : -1);
+        mFoldStock.setInt(2, 1);
+        mFoldStock.setLong(3, randomId());
+        return mFoldStock.executeUpdate();
+    }
+
+    @Benchmark
+    public int foldStockRecompiled() throws SQLException {
+        try (PreparedStatement fold = prepare("UPDATE inventory"
+                + " SET quantity=COALESCE(quantity,0)+?, sold=COALESCE(sold,0)+? WHERE _id=?")) {
+            fold.setInt(1, mRandom.nextBoolean() ? 1 : -1);
+            fold.setInt(2, 1);
+            fold.setLong(3, randomId());
+            return fold.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public int foldLocationStock() throws SQLException {
+        // Folding the tail of a product at a location into the stock there, whose triggers add
+        // it to the totals of the product. Receive one and sell one, as in foldStock().
+        mFoldLocationStock.setInt(1, mRandom.nextBoolean() ? 1 : -1);
+        mFoldLocationStock.setInt(2, 1);
+        mFoldLocationStock.setLong(3, randomLocationId());
+        mFoldLocationStock.setLong(4, randomId());
+        return mFoldLocationStock.executeUpdate();
+    }
+
+    @Benchmark
+    public int queryLocationStock() throws SQLException {
+        mLocationStock.setLong(1, randomLocationId());
+        mLocationStock.setLong(2, randomId() - 1);
+        return readAll(mLocationStock);
+    }
+
+    @Benchmark
+    public long insert() throws SQLException {
+        return insertProduct();
+    }
+
+    @Benchmark
+    public int insertRecompiled() throws SQLException {
+        Map<String, Object> values = new HashMap<>();
+        values.put("name", "New product");
+        values.put("price_cents", (long) mRandom.nextInt(100000));
+        values.put("quantity", mRandom.nextInt(100));
+        values.put("sold", mRandom.nextInt(100));
+        values.put("reorder_level", mRandom.nextInt(10));
+        StringBuilder sql = new StringBuilder("INSERT INTO inventory (");
+        StringBuilder parameters = new StringBuilder();
+        for (String column : values.keySet()) {
+            sql.append(parameters.length() == 0 ? "" : ",").append(column);
+            parameters.append(parameters.length() == 0 ? "?" : ",?");
+        }
+        sql.append(") VALUES (").append(parameters).append(')');
+        try (PreparedStatement insert = prepare(sql.toString())) {
+            int index = 1;
+            for (Object value : values.values()) {
+                insert.setObject(index++, value);
+            }
+            return insert.executeUpdate();
+        }
+    }
+
+    @Benchmark
+    public int insertAndDelete() throws SQLException {
+        mDelete.setLong(1, insertProduct());
+        return mDelete.executeUpdate();
+    }
+
+    private long insertProduct() throws SQLException {
+        mDatabase.bindProduct(mInsert, "New product", mRandom);
+        mInsert.executeUpdate();
+        try (ResultSet keys = mInsert.getGeneratedKeys()) {
+            keys.next();
+            return keys.getLong(1);
+        }
+    }
+
+    // Read every column of every row, as a cursor handed to the app would be.
+    private static int readAll(PreparedStatement query) throws SQLException {
+        int hash = 0;
+        try (ResultSet rows = query.executeQuery()) {
+            int columns = rows.getMetaData().getColumnCount();
+            while (rows.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    Object value = rows.getObject(i);
+                    hash = 31 * hash + (value == null ? 0 : value.hashCode());
+                }
+            }
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,162 @@
+package com.example.android.inventory.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+
+/**
+ * Readers paging through the catalog while a writer appends stock movements and folds them,
+ * each on a connection of its own, as the WAL connection pool of SQLiteDatabase runs them.
+ *
+ * ProductDbHelper can only set pragmas on the primary connection, which all writes go
+ * through. The pooled connections readers get keep the defaults of SQLite, so mmap_size is
+ * varied on the reader connections only: 0 is what the app gets on them, 16384 KB what it
+ * asks for. The writer always has it.
+ */
+@State(Scope.Group)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+public class MixedAccessBenchmark {
+
+    /** Number of products in a page of the catalog list */
+    private static final int PAGE_SIZE = 50;
+
+    private static final int CATALOG_SIZE = 10000;
+
+    @Param({"0", "16384"})
+    int readerMmapSizeKb;
+
+    private InventoryDatabase mDatabase;
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws IOException, SQLException {
+        mDatabase = InventoryDatabase.create(CATALOG_SIZE);
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws SQLException {
+        mDatabase.close();
+    }
+
+    /** Connection and statements of a reading thread */
+    @State(Scope.Thread)
+    public static class Reader {
+
+        private Connection mConnection;
+        private PreparedStatement mQueryPage;
+        private PreparedStatement mQueryById;
+        private final Random mRandom = new Random();
+
+        @Setup(Level.Trial)
+        public void connect(MixedAccessBenchmark benchmark) throws SQLException {
+            mConnection = benchmark.mDatabase.connect();
+            try (Statement statement = mConnection.createStatement()) {
+                statement.execute("PRAGMA mmap_size=" + benchmark.readerMmapSizeKb * 1024L);
+            }
+            mQueryPage = mConnection.prepareStatement("SELECT _id, name, price_cents,"
+                    + " quantity, sold, image FROM inventory WHERE _id>? ORDER BY _id LIMIT "
+                    + PAGE_SIZE);
+            mQueryById = mConnection.prepareStatement("SELECT _id, name, price_cents, quantity,"
+                    + " sold, image, reorder_level, supplier, low_stock FROM inventory"
+                    + " WHERE _id=?");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            mConnection.close();
+        }
+    }
+
+    /** Connection and statements of the writing thread */
+    @State(Scope.Thread)
+    public static class Writer {
+
+        private Connection mConnection;
+        private PreparedStatement mInsertMovement;
+        private PreparedStatement mFoldStock;
+        private final Random mRandom = new Random();
+
+        @Setup(Level.Trial)
+        public void connect(MixedAccessBenchmark benchmark) throws SQLException {
+            mConnection = benchmark.mDatabase.connect();
+            mInsertMovement = mConnection.prepareStatement(ProductSchema.INSERT_MOVEMENT_SQL);
+            mFoldStock = mConnection.prepareStatement("UPDATE inventory"
+                    + " SET quantity=COALESCE(quantity,0)+?, sold=COALESCE(sold,0)+?"
+                    + " WHERE _id=?");
+        }
+
+        @TearDown(Level.Trial)
+        public void close() throws SQLException {
+            mConnection.close();
+        }
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(3)
+    public int readPage(Reader reader) throws SQLException {
+        reader.mQueryPage.setLong(1, reader.mRandom.nextInt(CATALOG_SIZE - PAGE_SIZE));
+        return readAll(reader.mQueryPage);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int readById(Reader reader) throws SQLException {
+        reader.mQueryById.setLong(1, 1 + reader.mRandom.nextInt(CATALOG_SIZE));
+        return readAll(reader.mQueryById);
+    }
+
+    @Benchmark
+    @Group("mixed")
+    @GroupThreads(1)
+    public int write(Writer writer) throws SQLException {
+        // A sale appended to the ledger and folded into the product right away, each its own
+        // transaction, which is the heaviest mix of writes the provider makes.
+        long id = 1 + writer.mRandom.nextInt(CATALOG_SIZE);
+        writer.mInsertMovement.setLong(1, id);
+        writer.mInsertMovement.setInt(2, -1);
+        writer.mInsertMovement.setInt(3, 1);
+        writer.mInsertMovement.setString(4, ProductContract.StockMovementEntry.REASON_SALE);
+        writer.mInsertMovement.setLong(5, System.currentTimeMillis());
+        writer.mInsertMovement.setNull(6, Types.INTEGER);
+        int rows = writer.mInsertMovement.executeUpdate();
+
+        // Sell one and receive one, so the quantities stay where they are
+        writer.mFoldStock.setInt(1, writer.mRandom.nextBoolean() ? 1 : -1);
+        writer.mFoldStock.setInt(2, 1);
+        writer.mFoldStock.setLong(3, id);
+        return rows + writer.mFoldStock.executeUpdate();
+    }
+
+    // Read every column of every row, as a cursor handed to the app would be.
+    private static int readAll(PreparedStatement query) throws SQLException {
+        int hash = 0;
+        try (ResultSet rows = query.executeQuery()) {
+            int columns = rows.getMetaData().getColumnCount();
+            while (rows.next()) {
+                for (int i = 1; i <= columns; i++) {
+                    Object value = rows.getObject(i);
+                    hash = 31 * hash + (value == null ? 0 : value.hashCode());
+                }
+            }
+        }
+        return hash;
+    }
+}
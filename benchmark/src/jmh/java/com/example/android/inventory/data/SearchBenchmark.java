@@ -0,0 +1,120 @@
+package com.example.android.inventory.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Time of the search the catalog runs for every keystroke, on a catalog of 100000 products
+ * with names made of common words. Each value of {@link #typed} is the search text after one
+ * more keystroke of the same search, so the results show how the time changes while typing:
+ * the first letters match most of the catalog and all of it has to be ranked before the
+ * first page is known.
+ *
+ * The query is built the way ProductProvider builds it for the search URI and limited to the
+ * first page of ProductListLoader. The order holds the first word as a literal, so every
+ * keystroke compiles a new statement, as it does in the provider.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+public class SearchBenchmark {
+
+    private static final int CATALOG_SIZE = 100000;
+
+    /** Number of products in the first page of the catalog list */
+    private static final int PAGE_SIZE = 100;
+
+    private static final String[] COLORS = {"Black", "White", "Red", "Blue", "Green", "Yellow",
+            "Grey", "Brown", "Pink", "Orange", "Purple", "Navy", "Beige", "Silver", "Gold"};
+    private static final String[] MATERIALS = {"Cotton", "Wool", "Linen", "Silk", "Leather",
+            "Steel", "Copper", "Bamboo", "Ceramic", "Glass", "Oak", "Pine", "Canvas", "Denim"};
+    private static final String[] ITEMS = {"Towel", "Blanket", "Pillow", "Mug", "Bowl", "Plate",
+            "Cup", "Jar", "Basket", "Chair", "Table", "Lamp", "Rug", "Shirt", "Scarf", "Bag",
+            "Belt", "Wallet", "Hat", "Sock", "Glove", "Candle", "Vase", "Frame", "Clock",
+            "Mirror", "Shelf", "Box", "Bottle", "Kettle", "Pan", "Knife", "Spoon", "Fork"};
+
+    @Param({"b", "bl", "blu", "blue", "blue c", "blue co", "blue cot", "blue cotton",
+            "blue cotton t", "blue cotton to", "blue cotton towel"})
+    String typed;
+
+    private InventoryDatabase mDatabase;
+    private String mSql;
+    private String mMatch;
+
+    @Setup(Level.Trial)
+    public void createDatabase() throws IOException, SQLException {
+        mDatabase = InventoryDatabase.create(0);
+        Connection connection = mDatabase.getConnection();
+        connection.setAutoCommit(false);
+        Random random = new Random(42);
+        try (PreparedStatement insert = mDatabase.prepareInsert()) {
+            for (int i = 0; i < CATALOG_SIZE; i++) {
+                String name = COLORS[random.nextInt(COLORS.length)] + " "
+                        + MATERIALS[random.nextInt(MATERIALS.length)] + " "
+                        + ITEMS[random.nextInt(ITEMS.length)] + " " + random.nextInt(1000);
+                mDatabase.bindProduct(insert, name, random);
+                insert.executeUpdate();
+            }
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+
+        String[] words = splitSearchText(typed);
+        StringBuilder match = new StringBuilder();
+        for (String word : words) {
+            match.append(match.length() == 0 ? "" : " ").append(word).append('*');
+        }
+        mMatch = match.toString();
+        mSql = "SELECT _id, name, price_cents, quantity, sold, image FROM inventory"
+                + " WHERE _id IN (SELECT docid FROM inventory_fts WHERE inventory_fts MATCH ?)"
+                + " ORDER BY CASE WHEN name LIKE '" + words[0] + "%' THEN 0 ELSE 1 END,"
+                + " length(name), _id LIMIT " + PAGE_SIZE;
+    }
+
+    @TearDown(Level.Trial)
+    public void closeDatabase() throws SQLException {
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public int search() throws SQLException {
+        try (PreparedStatement query = mDatabase.getConnection().prepareStatement(mSql)) {
+            query.setString(1, mMatch);
+            int hash = 0;
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    for (int i = 1; i <= 6; i++) {
+                        Object value = rows.getObject(i);
+                        hash = 31 * hash + (value == null ? 0 : value.hashCode());
+                    }
+                }
+            }
+            return hash;
+        }
+    }
+
+    // Split the search text into lower case words, as ProductProvider does
+    private static String[] splitSearchText(String text) {
+        ArrayList<String> words = new ArrayList<>();
+        for (String word : text.split("[^\\p{L}\\p{Nd}]+")) {
+            if (!word.isEmpty()) {
+                words.add(word.toLowerCase());
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.android.inventory.data;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.Random;
+
+/**
+ * Cost of writing stock adjustments one by one against writing them in batches, as
+ * {@code StockWriteBuffer} does, for the numbers of adjustments a flush can carry.
+ *
+ * A batch size of 1 is the unbuffered provider, every adjustment a transaction of its own.
+ * {@link #append()} gives the cost per adjustment, with the commit shared by the batch. With
+ * synchronous=2 (FULL) every commit syncs the write-ahead log, so an adjustment costs
+ * 1/batchSize syncs; with 1 (NORMAL), the setting of the app, syncs only happen at
+ * checkpoints. {@link #flush()} writes a whole batch, which is how long the buffer holds its
+ * write lock and an adjustment from the UI thread can wait for it.
+ *
+ * {@link #compact()} flushes a batch and folds it into the products, as
+ * {@code StockWriteBuffer.compact()} does. A query that filters or sorts by the quantities
+ * runs one before it can read them, so in those modes of the catalog every reload after
+ * adjustments pays a compaction of the adjustments made since the last reload, where the
+ * other modes merge them into the rows read.
+ *
+ * The flush threshold of the buffer is the batch size past which the cost per adjustment
+ * stops falling while a flush keeps taking well under a frame. The flush delay only decides
+ * how many taps end up in a batch: at a few taps per second, half a second collects a burst
+ * into one commit, and keeps the adjustments a killed process loses to a fraction of a second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+public class StockBufferBenchmark {
+
+    /** Number of products adjustments are made to */
+    private static final int CATALOG_SIZE = 1000;
+
+    @Param({"1", "8", "64", "512"})
+    int batchSize;
+
+    @Param({"1", "2"})
+    int synchronous;
+
+    private InventoryDatabase mDatabase;
+    private Connection mConnection;
+    private PreparedStatement mInsertMovement;
+    private PreparedStatement mFoldProduct;
+    private PreparedStatement mMarkFolded;
+    private PreparedStatement mExpireMovements;
+    private final Random mRandom = new Random(42);
+
+    /** Adjustments appended since the last commit */
+    private int mUncommitted;
+
+    @Setup(Level.Iteration)
+    public void createDatabase() throws IOException, SQLException {
+        // Recreated for every iteration, so the ledger does not grow from one to the next
+        mDatabase = InventoryDatabase.create(CATALOG_SIZE);
+        mConnection = mDatabase.getConnection();
+        try (Statement statement = mConnection.createStatement()) {
+            statement.execute("PRAGMA synchronous=" + synchronous);
+        }
+        mConnection.setAutoCommit(false);
+        mInsertMovement = mConnection.prepareStatement(ProductSchema.INSERT_MOVEMENT_SQL);
+        mFoldProduct = mConnection.prepareStatement(ProductSchema.FOLD_PRODUCT_SQL);
+        mMarkFolded = mConnection.prepareStatement(ProductSchema.MARK_FOLDED_SQL);
+        mExpireMovements = mConnection.prepareStatement(ProductSchema.EXPIRE_MOVEMENTS_SQL);
+        mUncommitted = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeDatabase() throws SQLException {
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+        mDatabase.close();
+    }
+
+    @Benchmark
+    public int append() throws SQLException {
+        int rows = insertMovement();
+        if (++mUncommitted == batchSize) {
+            mConnection.commit();
+            mUncommitted = 0;
+        }
+        return rows;
+    }
+
+    @Benchmark
+    public int flush() throws SQLException {
+        int rows = 0;
+        for (int i = 0; i < batchSize; i++) {
+            rows += insertMovement();
+        }
+        mConnection.commit();
+        return rows;
+    }
+
+    @Benchmark
+    public int compact() throws SQLException {
+        int rows = flush();
+        // Fold every flushed sale, each into a product of its own as a tail usually has
+        for (int i = 0; i < batchSize; i++) {
+            mFoldProduct.setInt(1, -1);
+            mFoldProduct.setInt(2, 1);
+            mFoldProduct.setLong(3, 1 + mRandom.nextInt(CATALOG_SIZE));
+            rows += mFoldProduct.executeUpdate();
+        }
+        mMarkFolded.executeUpdate();
+        // A retention of a week, so nothing expires and only the lookup is paid
+        mExpireMovements.setInt(1, 500);
+        mExpireMovements.setLong(2, System.currentTimeMillis() - 7 * 24 * 3600 * 1000L);
+        mExpireMovements.executeUpdate();
+        mConnection.commit();
+        return rows;
+    }
+
+    // Append a sale of a random product, bound as StockWriteBuffer binds its movements
+    private int insertMovement() throws SQLException {
+        mInsertMovement.setLong(1, 1 + mRandom.nextInt(CATALOG_SIZE));
+        mInsertMovement.setInt(2, -1);
+        mInsertMovement.setInt(3, 1);
+        mInsertMovement.setString(4, ProductContract.StockMovementEntry.REASON_SALE);
+        mInsertMovement.setLong(5, System.currentTimeMillis());
+        mInsertMovement.setNull(6, Types.INTEGER);
+        return mInsertMovement.executeUpdate();
+    }
+}
@@ -0,0 +1,125 @@
+package com.example.android.inventory.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that every order and filter the catalog offers reads a page by walking an index,
+ * instead of reading the whole table and sorting it in a temporary B-tree.
+ *
+ * The plan SQLite picks depends on its version and on the indexes of the schema. A query
+ * that falls back to scanning and sorting still returns the right rows, so only its plan
+ * tells that it got slower with every product added.
+ */
+public class CatalogQueryPlanTest {
+
+    /** Orders of the catalog, by _id when none is chosen */
+    private static final String[] SORT_ORDERS = {
+            ProductContract.ProductEntry._ID,
+            ProductContract.ProductEntry.SORT_BY_NAME,
+            ProductContract.ProductEntry.SORT_BY_QUANTITY,
+            ProductContract.ProductEntry.SORT_BY_SOLD};
+
+    /** Filters of the catalog, null for all products */
+    private static final String[] SELECTIONS = {
+            null,
+            ProductContract.ProductEntry.SELECTION_IN_STOCK};
+
+    private Connection mConnection;
+
+    @Before
+    public void createDatabase() throws SQLException {
+        mConnection = SchemaDatabase.create();
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void everyOrderAndFilterFollowsAnIndex() throws SQLException {
+        StringBuilder failures = new StringBuilder();
+        for (String selection : SELECTIONS) {
+            for (String sortOrder : SORT_ORDERS) {
+                String sql = buildPageQuery(selection, sortOrder);
+                String plan = SchemaDatabase.explain(mConnection, sql);
+                if (!followsIndex(plan, sortOrder)) {
+                    failures.append(sql).append('\n').append(plan);
+                }
+            }
+        }
+        if (failures.length() > 0) {
+            fail("Catalog queries not read in index order:\n" + failures);
+        }
+    }
+
+    @Test
+    public void keysetPagesFollowAnIndex() throws SQLException {
+        StringBuilder failures = new StringBuilder();
+        for (String selection : SELECTIONS) {
+            for (String sortOrder : SORT_ORDERS) {
+                // The last product read, with and without quantities
+                for (Integer quantities : new Integer[] {3, null}) {
+                    ProductKeyset keyset = ProductKeyset.after(sortOrder, 100, "Tea",
+                            quantities, quantities);
+                    String where = keyset.getSelection();
+                    if (selection != null) {
+                        where = "(" + selection + ") AND (" + where + ")";
+                    }
+                    String sql = buildPageQuery(where, sortOrder);
+                    String plan = SchemaDatabase.explain(mConnection, sql,
+                            (Object[]) keyset.getSelectionArgs());
+                    if (!followsIndex(plan, sortOrder)) {
+                        failures.append(sql).append('\n').append(plan);
+                    }
+                }
+            }
+        }
+        if (failures.length() > 0) {
+            fail("Keyset pages not read in index order:\n" + failures);
+        }
+    }
+
+    @Test
+    public void pagesByIdSeekTheRowid() throws SQLException {
+        for (String selection : SELECTIONS) {
+            String where = ProductContract.ProductEntry._ID + ">?";
+            if (selection != null) {
+                where = "(" + selection + ") AND (" + where + ")";
+            }
+            String plan = SchemaDatabase.explain(mConnection,
+                    buildPageQuery(where, ProductContract.ProductEntry._ID), 100);
+            assertTrue(plan, plan.contains("USING INTEGER PRIMARY KEY"));
+        }
+    }
+
+    // The query ProductProvider runs for a page of the catalog
+    private static String buildPageQuery(String selection, String sortOrder) {
+        return "SELECT * FROM " + ProductContract.ProductEntry.TABLE_NAME
+                + (selection != null ? " WHERE " + selection : "")
+                + " ORDER BY " + sortOrder + " LIMIT 50";
+    }
+
+    // Whether the plan reads the rows in the requested order. Reading the table without an
+    // index is only in order when sorting by _id, which the table itself is ordered by.
+    private static boolean followsIndex(String plan, String sortOrder) {
+        if (plan.contains("TEMP B-TREE")) {
+            return false;
+        }
+        for (String step : plan.split("\n")) {
+            if (step.startsWith("SCAN TABLE") && !step.contains(" USING ")
+                    && !sortOrder.equals(ProductContract.ProductEntry._ID)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.android.inventory.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that version 6 turns the REAL dollar prices of older versions into the cents they
+ * were entered as, although most of them have no exact binary representation, and that the
+ * upgrade leaves no product without its price.
+ */
+public class PriceCentsMigrationTest {
+
+    private Connection mConnection;
+
+    @Before
+    public void createDatabase() throws SQLException {
+        mConnection = SchemaDatabase.create();
+        SchemaDatabase.execute(mConnection, "CREATE TEMP TABLE prices (cents INTEGER, "
+                + ProductSchema.COLUMN_PRICE_DOLLARS + " REAL)");
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void everyPriceUpToTenThousandDollarsKeepsItsCents() throws SQLException {
+        mConnection.setAutoCommit(false);
+        try (PreparedStatement insert = mConnection.prepareStatement(
+                "INSERT INTO prices VALUES (?, ?)")) {
+            for (long cents = 0; cents <= 1000000; cents++) {
+                insert.setLong(1, cents);
+                insert.setDouble(2, cents / 100.0);
+                insert.executeUpdate();
+            }
+        }
+        mConnection.commit();
+        mConnection.setAutoCommit(true);
+
+        assertEquals(0, countWrong());
+    }
+
+    @Test
+    public void pricesSavedAsTextKeepTheirCents() throws SQLException {
+        // Version 1 saved the text of the editor, which the column turned into a REAL
+        SchemaDatabase.execute(mConnection,
+                "INSERT INTO prices VALUES (1999, '19.99')",
+                "INSERT INTO prices VALUES (29, '0.29')",
+                "INSERT INTO prices VALUES (1005, '10.05')",
+                "INSERT INTO prices VALUES (123456789, '1234567.89')",
+                "INSERT INTO prices VALUES (500, '5')");
+
+        assertEquals(0, countWrong());
+    }
+
+    @Test
+    public void fractionsOfCentsRoundToTheNearestCent() throws SQLException {
+        SchemaDatabase.execute(mConnection,
+                "INSERT INTO prices VALUES (13, 0.125)",
+                "INSERT INTO prices VALUES (12, 0.1249)",
+                "INSERT INTO prices VALUES (1000, 9.999)");
+
+        assertEquals(0, countWrong());
+    }
+
+    @Test
+    public void upgradeMovesEveryPriceAndSumsUpTheStockValue() throws SQLException {
+        try (Connection connection = SchemaDatabase.open()) {
+            // The inventory table of version 5
+            SchemaDatabase.execute(connection,
+                    "CREATE TABLE inventory (_id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + " name TEXT NOT NULL, price REAL, quantity INTEGER, sold INTEGER,"
+                            + " image TEXT, reorder_level INTEGER, supplier TEXT,"
+                            + " low_stock INTEGER NOT NULL DEFAULT 0)",
+                    "INSERT INTO inventory (name, price, quantity) VALUES ('Mug', 19.99, 3)",
+                    "INSERT INTO inventory (name, price, quantity) VALUES ('Cup', '0.29', 10)",
+                    "INSERT INTO inventory (name, price, quantity) VALUES ('Jar', 5, NULL)",
+                    "INSERT INTO inventory (name, price, quantity) VALUES ('Box', NULL, 2)");
+
+            SchemaDatabase.execute(connection, ProductSchema.priceCents());
+
+            assertEquals(0, SchemaDatabase.queryLong(connection,
+                    "SELECT count(*) FROM inventory WHERE price IS NOT NULL"));
+            assertEquals(1999, SchemaDatabase.queryLong(connection,
+                    "SELECT price_cents FROM inventory WHERE name='Mug'"));
+            assertEquals(29, SchemaDatabase.queryLong(connection,
+                    "SELECT price_cents FROM inventory WHERE name='Cup'"));
+            assertEquals(500, SchemaDatabase.queryLong(connection,
+                    "SELECT price_cents FROM inventory WHERE name='Jar'"));
+            assertEquals(1, SchemaDatabase.queryLong(connection,
+                    "SELECT count(*) FROM inventory WHERE price_cents IS NULL"));
+            assertEquals(1999 * 3 + 29 * 10, SchemaDatabase.queryLong(connection,
+                    "SELECT stock_value_cents FROM inventory_summary"));
+
+            // The triggers of the rebuilt summary keep it up to date from here on
+            SchemaDatabase.execute(connection,
+                    "UPDATE inventory SET quantity=1 WHERE name='Mug'");
+            assertEquals(1999 + 29 * 10, SchemaDatabase.queryLong(connection,
+                    "SELECT stock_value_cents FROM inventory_summary"));
+        }
+    }
+
+    // Number of prices the migration does not turn into their cents
+    private long countWrong() throws SQLException {
+        return SchemaDatabase.queryLong(mConnection, "SELECT count(*) FROM prices WHERE "
+                + ProductSchema.PRICE_DOLLARS_TO_CENTS + " IS NOT cents");
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.android.inventory.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pages through a catalog with ties, NULL quantities and names differing only in case, in
+ * every order and filter of the catalog and in the ranking of a search, and checks that the
+ * pages read by keyset add up to the whole catalog read at once.
+ *
+ * The values of the keyset are bound as strings, as ContentResolver passes selection
+ * arguments, so the test also covers how SQLite compares them with the number columns.
+ */
+public class ProductKeysetTest {
+
+    private static final String TABLE = ProductContract.ProductEntry.TABLE_NAME;
+
+    /** Orders of the catalog, null for _id */
+    private static final String[] SORT_ORDERS = {
+            null,
+            ProductContract.ProductEntry.SORT_BY_NAME,
+            ProductContract.ProductEntry.SORT_BY_QUANTITY,
+            ProductContract.ProductEntry.SORT_BY_SOLD};
+
+    /** Filters of the catalog, null for all products */
+    private static final String[] SELECTIONS = {
+            null,
+            ProductContract.ProductEntry.SELECTION_IN_STOCK};
+
+    private static final String[] NAMES = {"apple", "Apple", "APPLE pie", "Apricot jam",
+            "banana", "Banana split", "cherry", "Cherry tart", "date", "Big apple", "Crab apple",
+            "grape", "Grapefruit", "apple"};
+
+    private static final int PAGE_SIZE = 7;
+
+    private Connection mConnection;
+
+    @Before
+    public void createDatabase() throws SQLException {
+        mConnection = SchemaDatabase.create();
+        Random random = new Random(42);
+        try (PreparedStatement insert = mConnection.prepareStatement("INSERT INTO " + TABLE
+                + " (name, price_cents, quantity, sold) VALUES (?, 100, ?, ?)")) {
+            for (int i = 0; i < 300; i++) {
+                insert.setString(1, NAMES[random.nextInt(NAMES.length)]);
+                // Few distinct values, so most products tie with others
+                insert.setObject(2, random.nextInt(5) == 0 ? null : random.nextInt(4));
+                insert.setObject(3, random.nextInt(5) == 0 ? null : random.nextInt(4));
+                insert.executeUpdate();
+            }
+        }
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void pagesAddUpToTheCatalogInEveryOrder() throws SQLException {
+        for (String selection : SELECTIONS) {
+            for (String sortOrder : SORT_ORDERS) {
+                String order = sortOrder == null ? ProductContract.ProductEntry._ID : sortOrder;
+                List<Long> expected = readIds(selection, new String[0], order, Integer.MAX_VALUE);
+
+                List<Long> paged = new ArrayList<>();
+                List<Long> page = readIds(selection, new String[0], order, PAGE_SIZE);
+                while (!page.isEmpty()) {
+                    paged.addAll(page);
+                    ProductKeyset keyset = keysetAfter(page.get(page.size() - 1), sortOrder);
+                    page = readIds(and(selection, keyset.getSelection()),
+                            keyset.getSelectionArgs(), order, PAGE_SIZE);
+                }
+                assertEquals(selection + " ORDER BY " + order, expected, paged);
+            }
+        }
+    }
+
+    @Test
+    public void pagesAddUpToTheRankedSearchResults() throws SQLException {
+        for (String word : new String[] {"ap", "apple", "b", "grape"}) {
+            String match = "_id IN (SELECT docid FROM inventory_fts WHERE inventory_fts MATCH '"
+                    + word + "*')";
+            String order = "CASE WHEN name LIKE '" + word + "%' THEN 0 ELSE 1 END, length(name),"
+                    + " _id";
+            List<Long> expected = readIds(match, new String[0], order, Integer.MAX_VALUE);
+
+            List<Long> paged = new ArrayList<>();
+            List<Long> page = readIds(match, new String[0], order, PAGE_SIZE);
+            while (!page.isEmpty()) {
+                paged.addAll(page);
+                long id = page.get(page.size() - 1);
+                ProductKeyset keyset = ProductKeyset.afterSearchResult(word, id, readName(id));
+                page = readIds(and(match, keyset.getSelection()), keyset.getSelectionArgs(),
+                        order, PAGE_SIZE);
+            }
+            assertEquals(word, expected, paged);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownOrderHasNoKeyset() {
+        ProductKeyset.after("price_cents", 1, "apple", 1, 1);
+    }
+
+    // The keyset after the given product, from its stored values
+    private ProductKeyset keysetAfter(long id, String sortOrder) throws SQLException {
+        try (PreparedStatement query = mConnection.prepareStatement(
+                "SELECT name, quantity, sold FROM " + TABLE + " WHERE _id=?")) {
+            query.setLong(1, id);
+            try (ResultSet row = query.executeQuery()) {
+                row.next();
+                return ProductKeyset.after(sortOrder, id, row.getString(1),
+                        (Integer) row.getObject(2), (Integer) row.getObject(3));
+            }
+        }
+    }
+
+    private String readName(long id) throws SQLException {
+        try (PreparedStatement query = mConnection.prepareStatement(
+                "SELECT name FROM " + TABLE + " WHERE _id=?")) {
+            query.setLong(1, id);
+            try (ResultSet row = query.executeQuery()) {
+                row.next();
+                return row.getString(1);
+            }
+        }
+    }
+
+    private List<Long> readIds(String selection, String[] selectionArgs, String order,
+                               int limit) throws SQLException {
+        List<Long> ids = new ArrayList<>();
+        try (PreparedStatement query = mConnection.prepareStatement("SELECT _id FROM " + TABLE
+                + (selection != null ? " WHERE " + selection : "") + " ORDER BY " + order
+                + " LIMIT " + limit)) {
+            for (int i = 0; i < selectionArgs.length; i++) {
+                query.setString(i + 1, selectionArgs[i]);
+            }
+            try (ResultSet rows = query.executeQuery()) {
+                while (rows.next()) {
+                    ids.add(rows.getLong(1));
+                }
+            }
+        }
+        return ids;
+    }
+
+    // Both selections, as DatabaseUtils.concatenateWhere() joins them
+    private static String and(String a, String b) {
+        return a == null ? b : "(" + a + ") AND (" + b + ")";
+    }
+}
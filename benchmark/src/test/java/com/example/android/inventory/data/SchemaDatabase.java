@@ -0,0 +1,84 @@
+package com.example.android.inventory.data;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * In-memory database with the schema {@link ProductSchema} creates, on desktop SQLite.
+ */
+final class SchemaDatabase {
+
+    private SchemaDatabase() {}
+
+    /**
+     * Returns a connection to a new database with the current schema.
+     */
+    static Connection create() throws SQLException {
+        Connection connection = open();
+        execute(connection, ProductSchema.create().toArray(new String[0]));
+        return connection;
+    }
+
+    /**
+     * Returns a connection to a new database without any tables, for the schema of an older
+     * version.
+     */
+    static Connection open() throws SQLException {
+        return DriverManager.getConnection("jdbc:sqlite::memory:");
+    }
+
+    /**
+     * Run the statements in order.
+     */
+    static void execute(Connection connection, String... statements) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            for (String sql : statements) {
+                statement.execute(sql);
+            }
+        }
+    }
+
+    /**
+     * Returns the single number the query reads, 0 for NULL.
+     */
+    static long queryLong(Connection connection, String sql, Object... args)
+            throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            try (ResultSet result = statement.executeQuery()) {
+                if (!result.next()) {
+                    throw new AssertionError("No row for " + sql);
+                }
+                return result.getLong(1);
+            }
+        }
+    }
+
+    /**
+     * Returns the plan SQLite chooses for the query, one step per line.
+     */
+    static String explain(Connection connection, String sql, Object... args)
+            throws SQLException {
+        StringBuilder plan = new StringBuilder();
+        try (PreparedStatement statement = connection.prepareStatement(
+                "EXPLAIN QUERY PLAN " + sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            try (ResultSet result = statement.executeQuery()) {
+                // The last column describes the step
+                int detail = result.getMetaData().getColumnCount();
+                while (result.next()) {
+                    plan.append(result.getString(detail)).append('\n');
+                }
+            }
+        }
+        return plan.toString();
+    }
+}
@@ -0,0 +1,306 @@
+package com.example.android.inventory.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks folding the tail of the stock ledger into the quantities, the way
+ * {@link StockWriteBuffer} compacts it and the way {@link ProductDbHelper} folds what a
+ * killed process left behind, with the statements of {@link ProductSchema}.
+ */
+public class StockLedgerTest {
+
+    private static final int PRODUCTS = 20;
+    private static final int LOCATIONS = 3;
+
+    /** Retention time of folded movements */
+    private static final long RETENTION_MS = 1000;
+
+    private final Random mRandom = new Random(42);
+    private Connection mConnection;
+
+    @Before
+    public void createDatabase() throws SQLException {
+        mConnection = createCatalog();
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void compactionAddsEveryMovementOnce() throws SQLException {
+        long[][] expected = readState(mConnection);
+        for (int round = 0; round < 5; round++) {
+            List<long[]> movements = randomMovements(200, 0);
+            append(mConnection, movements);
+            compact(mConnection, movements, 0, 0);
+            addTo(expected, movements);
+            assertState(expected, mConnection);
+        }
+        assertEquals(SchemaDatabase.queryLong(mConnection, "SELECT max(_id) FROM "
+                + ProductContract.StockMovementEntry.TABLE_NAME), foldedThrough(mConnection));
+    }
+
+    @Test
+    public void foldingOnOpenMatchesCompaction() throws SQLException {
+        try (Connection crashed = createCatalog()) {
+            for (int round = 0; round < 3; round++) {
+                List<long[]> movements = randomMovements(300, 0);
+                append(mConnection, movements);
+                compact(mConnection, movements, 0, 0);
+                // The process is killed after appending, before compacting
+                append(crashed, movements);
+                foldOnOpen(crashed);
+                assertState(readState(mConnection), crashed);
+            }
+        }
+    }
+
+    @Test
+    public void foldingOnOpenOnlyFoldsTheTail() throws SQLException {
+        List<long[]> folded = randomMovements(100, 0);
+        append(mConnection, folded);
+        compact(mConnection, folded, 0, 0);
+        long[][] expected = readState(mConnection);
+
+        List<long[]> tail = randomMovements(100, 0);
+        append(mConnection, tail);
+        foldOnOpen(mConnection);
+        addTo(expected, tail);
+        assertState(expected, mConnection);
+
+        // Opening the database again finds nothing left to fold
+        foldOnOpen(mConnection);
+        assertState(expected, mConnection);
+    }
+
+    @Test
+    public void onlyFoldedMovementsExpireAChunkAtATime() throws SQLException {
+        long now = 10 * RETENTION_MS;
+        List<long[]> old = randomMovements(30, now - 2 * RETENTION_MS);
+        append(mConnection, old);
+        compact(mConnection, old, 20, now);
+        assertEquals(10, countMovements());
+        compact(mConnection, new ArrayList<long[]>(), 20, now);
+        assertEquals(0, countMovements());
+
+        // Movements within the retention time and movements not folded yet stay
+        List<long[]> recent = randomMovements(30, now - RETENTION_MS / 2);
+        append(mConnection, recent);
+        compact(mConnection, recent, 100, now);
+        append(mConnection, randomMovements(5, now - 2 * RETENTION_MS));
+        expire(mConnection, 100, now);
+        assertEquals(35, countMovements());
+    }
+
+    // Catalog of products stocked at every location, some stock not at any location
+    private Connection createCatalog() throws SQLException {
+        Connection connection = SchemaDatabase.create();
+        for (int location = 1; location <= LOCATIONS; location++) {
+            SchemaDatabase.execute(connection, "INSERT INTO "
+                    + ProductContract.LocationEntry.TABLE_NAME + " (name) VALUES ('Store "
+                    + location + "')");
+        }
+        Random random = new Random(7);
+        for (int product = 1; product <= PRODUCTS; product++) {
+            SchemaDatabase.execute(connection, "INSERT INTO "
+                    + ProductContract.ProductEntry.TABLE_NAME + " (name, quantity, sold) VALUES"
+                    + " ('Product', " + random.nextInt(100) + ", " + random.nextInt(100) + ")");
+            for (int location = 1; location <= LOCATIONS; location++) {
+                SchemaDatabase.execute(connection, "INSERT INTO "
+                        + ProductContract.LocationStockEntry.TABLE_NAME
+                        + " (location_id, product_id, quantity, sold) VALUES (" + location
+                        + ", " + product + ", " + random.nextInt(50) + ", "
+                        + random.nextInt(50) + ")");
+            }
+        }
+        return connection;
+    }
+
+    // Movements as {product, location or 0, quantity delta, sold delta, time}
+    private List<long[]> randomMovements(int count, long time) {
+        List<long[]> movements = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            long sold = mRandom.nextInt(3);
+            movements.add(new long[] {1 + mRandom.nextInt(PRODUCTS),
+                    mRandom.nextInt(LOCATIONS + 1), mRandom.nextInt(5) - sold, sold, time});
+        }
+        return movements;
+    }
+
+    // Append movements to the ledger, as a flush of the buffer does
+    private static void append(Connection connection, List<long[]> movements)
+            throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                ProductSchema.INSERT_MOVEMENT_SQL)) {
+            for (long[] movement : movements) {
+                insert.setLong(1, movement[0]);
+                insert.setLong(2, movement[2]);
+                insert.setLong(3, movement[3]);
+                insert.setString(4, "sale");
+                insert.setLong(5, movement[4]);
+                if (movement[1] == 0) {
+                    insert.setObject(6, null);
+                } else {
+                    insert.setLong(6, movement[1]);
+                }
+                insert.executeUpdate();
+            }
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    // Fold the deltas of the movements appended since the last compaction, as
+    // StockWriteBuffer.compact() does with the deltas it sums up in memory
+    private static void compact(Connection connection, List<long[]> movements, int expireChunk,
+                                long now) throws SQLException {
+        Map<Long, long[]> products = new TreeMap<>();
+        Map<List<Long>, long[]> locations = new TreeMap<>(new Comparator<List<Long>>() {
+            @Override
+            public int compare(List<Long> a, List<Long> b) {
+                int location = a.get(0).compareTo(b.get(0));
+                return location != 0 ? location : a.get(1).compareTo(b.get(1));
+            }
+        });
+        for (long[] movement : movements) {
+            add(products, movement[0], movement);
+            if (movement[1] != 0) {
+                List<Long> key = new ArrayList<>();
+                key.add(movement[1]);
+                key.add(movement[0]);
+                add(locations, key, movement);
+            }
+        }
+
+        connection.setAutoCommit(false);
+        try (PreparedStatement foldLocation = connection.prepareStatement(
+                ProductSchema.FOLD_LOCATION_SQL);
+             PreparedStatement foldProduct = connection.prepareStatement(
+                     ProductSchema.FOLD_PRODUCT_SQL)) {
+            // Deltas made at a location reach the totals through the triggers of the stock
+            for (Map.Entry<List<Long>, long[]> entry : locations.entrySet()) {
+                foldLocation.setLong(1, entry.getValue()[0]);
+                foldLocation.setLong(2, entry.getValue()[1]);
+                foldLocation.setLong(3, entry.getKey().get(0));
+                foldLocation.setLong(4, entry.getKey().get(1));
+                foldLocation.executeUpdate();
+                long[] rest = products.get(entry.getKey().get(1));
+                rest[0] -= entry.getValue()[0];
+                rest[1] -= entry.getValue()[1];
+            }
+            for (Map.Entry<Long, long[]> entry : products.entrySet()) {
+                foldProduct.setLong(1, entry.getValue()[0]);
+                foldProduct.setLong(2, entry.getValue()[1]);
+                foldProduct.setLong(3, entry.getKey());
+                foldProduct.executeUpdate();
+            }
+            SchemaDatabase.execute(connection, ProductSchema.MARK_FOLDED_SQL);
+            expire(connection, expireChunk, now);
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    // Drop folded movements past the retention time, at most expireChunk of them
+    private static void expire(Connection connection, int expireChunk, long now)
+            throws SQLException {
+        try (PreparedStatement expire = connection.prepareStatement(
+                ProductSchema.EXPIRE_MOVEMENTS_SQL)) {
+            expire.setLong(1, expireChunk);
+            expire.setLong(2, now - RETENTION_MS);
+            expire.executeUpdate();
+        }
+    }
+
+    private static <K> void add(Map<K, long[]> deltas, K key, long[] movement) {
+        long[] sums = deltas.get(key);
+        if (sums == null) {
+            sums = new long[2];
+            deltas.put(key, sums);
+        }
+        sums[0] += movement[2];
+        sums[1] += movement[3];
+    }
+
+    private static void foldOnOpen(Connection connection) throws SQLException {
+        connection.setAutoCommit(false);
+        SchemaDatabase.execute(connection, ProductSchema.foldLedger());
+        connection.commit();
+        connection.setAutoCommit(true);
+    }
+
+    // Quantities and sold of every product, then of the stock at every location
+    private static long[][] readState(Connection connection) throws SQLException {
+        long[][] state = new long[PRODUCTS * (LOCATIONS + 1)][];
+        for (int product = 1; product <= PRODUCTS; product++) {
+            state[product - 1] = new long[] {
+                    SchemaDatabase.queryLong(connection, "SELECT quantity FROM inventory"
+                            + " WHERE _id=?", product),
+                    SchemaDatabase.queryLong(connection, "SELECT sold FROM inventory"
+                            + " WHERE _id=?", product)};
+            for (int location = 1; location <= LOCATIONS; location++) {
+                state[location * PRODUCTS + product - 1] = new long[] {
+                        SchemaDatabase.queryLong(connection, "SELECT quantity FROM"
+                                + " location_stock WHERE location_id=? AND product_id=?",
+                                location, product),
+                        SchemaDatabase.queryLong(connection, "SELECT sold FROM"
+                                + " location_stock WHERE location_id=? AND product_id=?",
+                                location, product)};
+            }
+        }
+        return state;
+    }
+
+    private static void addTo(long[][] state, List<long[]> movements) {
+        for (long[] movement : movements) {
+            int product = (int) movement[0] - 1;
+            state[product][0] += movement[2];
+            state[product][1] += movement[3];
+            if (movement[1] != 0) {
+                int stock = (int) movement[1] * PRODUCTS + product;
+                state[stock][0] += movement[2];
+                state[stock][1] += movement[3];
+            }
+        }
+    }
+
+    private static void assertState(long[][] expected, Connection connection)
+            throws SQLException {
+        long[][] actual = readState(connection);
+        for (int i = 0; i < expected.length; i++) {
+            String row = i < PRODUCTS ? "product " + (i + 1)
+                    : "product " + (i % PRODUCTS + 1) + " at location " + i / PRODUCTS;
+            assertEquals("Quantity of " + row, expected[i][0], actual[i][0]);
+            assertEquals("Sold of " + row, expected[i][1], actual[i][1]);
+        }
+        assertEquals(foldedThrough(connection), SchemaDatabase.queryLong(connection,
+                "SELECT ifnull(max(_id),0) FROM stock_movements"));
+    }
+
+    private static long foldedThrough(Connection connection) throws SQLException {
+        return SchemaDatabase.queryLong(connection, "SELECT "
+                + ProductSchema.COLUMN_FOLDED_THROUGH + " FROM " + ProductSchema.LEDGER_TABLE_NAME);
+    }
+
+    private long countMovements() throws SQLException {
+        return SchemaDatabase.queryLong(mConnection, "SELECT count(*) FROM "
+                + ProductContract.StockMovementEntry.TABLE_NAME);
+    }
+}
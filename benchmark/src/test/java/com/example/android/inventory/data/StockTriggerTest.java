@@ -0,0 +1,248 @@
+package com.example.android.inventory.data;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the invariants the triggers keep while stock is inserted, updated and deleted:
+ * the totals of a product are its stock at all locations plus the stock not at any
+ * location, the summary holds the totals of all products, and the low stock flag tells
+ * whether a product is below its reorder level.
+ */
+public class StockTriggerTest {
+
+    private static final String TABLE = ProductContract.ProductEntry.TABLE_NAME;
+    private static final String STOCK = ProductContract.LocationStockEntry.TABLE_NAME;
+    private static final String LOCATIONS = ProductContract.LocationEntry.TABLE_NAME;
+    private static final String SUMMARY = ProductContract.SummaryEntry.TABLE_NAME;
+
+    private Connection mConnection;
+    private final Random mRandom = new Random(42);
+
+    /** Stock of every product that is not at any location, as {quantity, sold} by id */
+    private final Map<Long, long[]> mUnassigned = new HashMap<>();
+
+    private final List<Long> mLocations = new ArrayList<>();
+
+    @Before
+    public void createDatabase() throws SQLException {
+        mConnection = SchemaDatabase.create();
+    }
+
+    @After
+    public void closeDatabase() throws SQLException {
+        mConnection.close();
+    }
+
+    @Test
+    public void newDatabaseHasEmptyTotals() throws SQLException {
+        assertInvariants();
+    }
+
+    @Test
+    public void stockAtLocationsAddsUpToTheTotals() throws SQLException {
+        addLocation();
+        addLocation();
+        long product = insertProduct(null, null, 250L, 10L);
+        setStock(mLocations.get(0), product, 7, 1);
+        setStock(mLocations.get(1), product, 5, 0);
+
+        assertEquals(12, SchemaDatabase.queryLong(mConnection,
+                "SELECT quantity FROM " + TABLE + " WHERE _id=?", product));
+        assertEquals(0, SchemaDatabase.queryLong(mConnection,
+                "SELECT low_stock FROM " + TABLE + " WHERE _id=?", product));
+        // Below the reorder level of 10
+        setStock(mLocations.get(0), product, 2, 6);
+        assertEquals(1, SchemaDatabase.queryLong(mConnection,
+                "SELECT low_stock FROM " + TABLE + " WHERE _id=?", product));
+        assertInvariants();
+    }
+
+    @Test
+    public void deletingALocationLeavesItsStockUnassigned() throws SQLException {
+        addLocation();
+        addLocation();
+        long product = insertProduct(3L, 0L, 100L, null);
+        setStock(mLocations.get(0), product, 4, 2);
+        setStock(mLocations.get(1), product, 6, 1);
+
+        deleteLocation(0);
+
+        assertEquals(13, SchemaDatabase.queryLong(mConnection,
+                "SELECT quantity FROM " + TABLE + " WHERE _id=?", product));
+        assertEquals(0, SchemaDatabase.queryLong(mConnection,
+                "SELECT count(*) FROM " + STOCK + " WHERE location_id NOT IN (SELECT _id FROM "
+                        + LOCATIONS + ")"));
+        assertInvariants();
+    }
+
+    @Test
+    public void invariantsHoldThroughRandomChanges() throws SQLException {
+        for (int i = 0; i < 4; i++) {
+            addLocation();
+        }
+        for (int step = 0; step < 2000; step++) {
+            changeAtRandom();
+            assertInvariants();
+        }
+    }
+
+    // Make one random change, of the kinds the provider makes
+    private void changeAtRandom() throws SQLException {
+        List<Long> products = new ArrayList<>(mUnassigned.keySet());
+        int kind = mRandom.nextInt(products.size() < 5 ? 2 : 12);
+        if (kind < 2) {
+            insertProduct(randomOrNull(20), randomOrNull(20), (long) mRandom.nextInt(10000),
+                    randomOrNull(15));
+            return;
+        }
+        long product = products.get(mRandom.nextInt(products.size()));
+        switch (kind) {
+            case 2:
+                deleteProduct(product);
+                break;
+            case 3:
+                // The editor sets the totals, the difference is stock not at any location
+                long quantity = mRandom.nextInt(50);
+                long[] totals = readTotals(product);
+                long[] unassigned = mUnassigned.get(product);
+                unassigned[0] += quantity - totals[0];
+                execute("UPDATE " + TABLE + " SET quantity=? WHERE _id=?", quantity, product);
+                break;
+            case 4:
+                execute("UPDATE " + TABLE + " SET price_cents=? WHERE _id=?",
+                        randomOrNull(10000), product);
+                break;
+            case 5:
+                execute("UPDATE " + TABLE + " SET reorder_level=? WHERE _id=?",
+                        randomOrNull(15), product);
+                break;
+            case 6:
+                if (mLocations.size() > 1 && mRandom.nextInt(10) == 0) {
+                    deleteLocation(mRandom.nextInt(mLocations.size()));
+                } else {
+                    addLocation();
+                }
+                break;
+            default:
+                long location = mLocations.get(mRandom.nextInt(mLocations.size()));
+                setStock(location, product, mRandom.nextInt(30), mRandom.nextInt(30));
+                break;
+        }
+    }
+
+    private long insertProduct(Long quantity, Long sold, Long priceCents, Long reorderLevel)
+            throws SQLException {
+        execute("INSERT INTO " + TABLE + " (name, quantity, sold, price_cents, reorder_level)"
+                + " VALUES (?, ?, ?, ?, ?)", "Product", quantity, sold, priceCents, reorderLevel);
+        long id = SchemaDatabase.queryLong(mConnection, "SELECT last_insert_rowid()");
+        mUnassigned.put(id, new long[] {quantity == null ? 0 : quantity, sold == null ? 0 : sold});
+        return id;
+    }
+
+    private void deleteProduct(long product) throws SQLException {
+        execute("DELETE FROM " + TABLE + " WHERE _id=?", product);
+        mUnassigned.remove(product);
+    }
+
+    private void addLocation() throws SQLException {
+        execute("INSERT INTO " + LOCATIONS + " (name) VALUES (?)",
+                "Store " + mRandom.nextLong());
+        mLocations.add(SchemaDatabase.queryLong(mConnection, "SELECT last_insert_rowid()"));
+    }
+
+    // Delete a location, its stock stays in the totals of the products, unassigned
+    private void deleteLocation(int index) throws SQLException {
+        long location = mLocations.remove(index);
+        for (Map.Entry<Long, long[]> entry : mUnassigned.entrySet()) {
+            long[] stock = readStock(location, entry.getKey());
+            entry.getValue()[0] += stock[0];
+            entry.getValue()[1] += stock[1];
+        }
+        execute("DELETE FROM " + LOCATIONS + " WHERE _id=?", location);
+    }
+
+    // Set the stock of a product at a location, as the adjustments and their folding do
+    private void setStock(long location, long product, long quantity, long sold)
+            throws SQLException {
+        execute("INSERT OR IGNORE INTO " + STOCK + " (location_id, product_id) VALUES (?, ?)",
+                location, product);
+        execute("UPDATE " + STOCK + " SET quantity=?, sold=? WHERE location_id=? AND"
+                + " product_id=?", quantity, sold, location, product);
+    }
+
+    private void assertInvariants() throws SQLException {
+        for (Map.Entry<Long, long[]> entry : mUnassigned.entrySet()) {
+            long product = entry.getKey();
+            long[] totals = readTotals(product);
+            long[] atLocations = {
+                    SchemaDatabase.queryLong(mConnection, "SELECT sum(quantity) FROM " + STOCK
+                            + " WHERE product_id=?", product),
+                    SchemaDatabase.queryLong(mConnection, "SELECT sum(sold) FROM " + STOCK
+                            + " WHERE product_id=?", product)};
+            assertEquals("Quantity of " + product, entry.getValue()[0] + atLocations[0],
+                    totals[0]);
+            assertEquals("Sold of " + product, entry.getValue()[1] + atLocations[1], totals[1]);
+        }
+        assertEquals("Stock of deleted products or locations", 0,
+                SchemaDatabase.queryLong(mConnection, "SELECT count(*) FROM " + STOCK
+                        + " WHERE product_id NOT IN (SELECT _id FROM " + TABLE + ")"
+                        + " OR location_id NOT IN (SELECT _id FROM " + LOCATIONS + ")"));
+        assertEquals("Products flagged wrong", 0, SchemaDatabase.queryLong(mConnection,
+                "SELECT count(*) FROM " + TABLE + " WHERE low_stock IS NOT"
+                        + " (reorder_level IS NOT NULL AND ifnull(quantity,0)<reorder_level)"));
+
+        String[] summaryColumns = {"product_count", "units_on_hand", "units_sold",
+                "stock_value_cents"};
+        String[] totals = {"count(*)", "ifnull(sum(quantity),0)", "ifnull(sum(sold),0)",
+                "ifnull(sum(price_cents*quantity),0)"};
+        for (int i = 0; i < summaryColumns.length; i++) {
+            assertEquals(summaryColumns[i],
+                    SchemaDatabase.queryLong(mConnection, "SELECT " + totals[i] + " FROM "
+                            + TABLE),
+                    SchemaDatabase.queryLong(mConnection, "SELECT " + summaryColumns[i]
+                            + " FROM " + SUMMARY));
+        }
+    }
+
+    private long[] readTotals(long product) throws SQLException {
+        return new long[] {
+                SchemaDatabase.queryLong(mConnection, "SELECT quantity FROM " + TABLE
+                        + " WHERE _id=?", product),
+                SchemaDatabase.queryLong(mConnection, "SELECT sold FROM " + TABLE
+                        + " WHERE _id=?", product)};
+    }
+
+    private long[] readStock(long location, long product) throws SQLException {
+        return new long[] {
+                SchemaDatabase.queryLong(mConnection, "SELECT ifnull(sum(quantity),0) FROM "
+                        + STOCK + " WHERE location_id=? AND product_id=?", location, product),
+                SchemaDatabase.queryLong(mConnection, "SELECT ifnull(sum(sold),0) FROM "
+                        + STOCK + " WHERE location_id=? AND product_id=?", location, product)};
+    }
+
+    private Long randomOrNull(int bound) {
+        return mRandom.nextInt(4) == 0 ? null : Long.valueOf(mRandom.nextInt(bound));
+    }
+
+    private void execute(String sql, Object... args) throws SQLException {
+        try (PreparedStatement statement = mConnection.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) {
+                statement.setObject(i + 1, args[i]);
+            }
+            statement.executeUpdate();
+        }
+    }
+}